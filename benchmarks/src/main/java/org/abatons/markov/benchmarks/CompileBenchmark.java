@@ -0,0 +1,47 @@
+package org.abatons.markov.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.abatons.markov.compiler.GraphCompiler;
+import org.abatons.markov.graph.Graph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compiling a whole graph from text, for each corpus size and graph order.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompileBenchmark {
+   @Param({ "10000", "100000", "1000000" })
+   public int corpusWords;
+
+   @Param({ "1", "2", "3" })
+   public int order;
+
+   private String text;
+
+   @Setup
+   public void setup() {
+      this.text = Corpus.generate(this.corpusWords, 42);
+   }
+
+   @Benchmark
+   public Graph createGraph() throws IOException {
+      return GraphCompiler.createGraph(this.text, this.order);
+   }
+}
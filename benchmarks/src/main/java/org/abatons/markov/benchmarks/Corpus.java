@@ -0,0 +1,51 @@
+package org.abatons.markov.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Synthetic text for the benchmarks, so they don't depend on any files being around. Words are drawn from a Zipf
+ * distribution, as they are in real text, with a vocabulary that grows with the square root of the length of the
+ * text (roughly Heaps' law), and about one word in twelve ends a sentence.
+ */
+final class Corpus {
+   private static final String[] SENTENCE_ENDS = new String[] { ".", "?", "!" };
+
+   private Corpus() {
+   }
+
+   /**
+    * @param inNumWords
+    *           Roughly how many words of text to generate
+    * @param inSeed
+    *           The same seed always gives the same text
+    */
+   static String generate(final int inNumWords, final long inSeed) {
+      final Random rng = new Random(inSeed);
+
+      final int vocabularySize = Math.max(10, (int) (Math.sqrt(inNumWords) * 8));
+
+      // Cumulative Zipf weights, so a word can be drawn with a binary search
+      final double[] cumulative = new double[vocabularySize];
+      double total = 0;
+      for (int rank = 0; rank < vocabularySize; rank++) {
+         total += 1.0 / (rank + 1);
+         cumulative[rank] = total;
+      }
+
+      final StringBuilder text = new StringBuilder(inNumWords * 7);
+      for (int i = 0; i < inNumWords; i++) {
+         final int found = Arrays.binarySearch(cumulative, rng.nextDouble() * total);
+         final int rank = (found >= 0) ? found : -found - 1;
+
+         text.append('w').append(rank);
+
+         if (rng.nextInt(12) == 0) {
+            text.append(SENTENCE_ENDS[rng.nextInt(SENTENCE_ENDS.length)]);
+         }
+         text.append(' ');
+      }
+
+      return text.toString();
+   }
+}
@@ -0,0 +1,78 @@
+package org.abatons.markov.benchmarks;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.abatons.markov.compiler.GraphCompiler;
+import org.abatons.markov.graph.dictionary.Dictionary;
+import org.abatons.markov.graph.dictionary.DictionaryLookup;
+import org.abatons.markov.graph.dictionary.DictionaryLookupBinarySearch;
+import org.abatons.markov.graph.dictionary.DictionaryLookupCached;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Looking up the word ID of a word, comparing the O(log n) binary search with the O(1) map, for the vocabulary of
+ * each corpus size. The words looked up are a fixed random sequence, with one in ten not in the dictionary at all.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DictionaryBenchmark {
+   private static final int NUM_QUERIES = 4096; // A power of two, so the next query is found with a mask
+
+   @Param({ "10000", "100000", "1000000" })
+   public int corpusWords;
+
+   private DictionaryLookup binarySearch;
+   private DictionaryLookup cached;
+
+   private String[] queries;
+   private int next;
+
+   @Setup
+   public void setup() throws IOException {
+      final Dictionary dictionary = GraphCompiler.createGraph(Corpus.generate(this.corpusWords, 42), 1)
+            .getDictionary();
+
+      final String[] words = new String[dictionary.getNumUniqueWords()];
+      for (int wordId = 0; wordId < words.length; wordId++) {
+         words[wordId] = dictionary.getWord(wordId);
+      }
+
+      this.binarySearch = new DictionaryLookupBinarySearch(words);
+      this.cached = new DictionaryLookupCached(words);
+
+      final Random rng = new Random(42);
+      this.queries = new String[NUM_QUERIES];
+      for (int i = 0; i < NUM_QUERIES; i++) {
+         this.queries[i] = (rng.nextInt(10) == 0) ? "missing" + i : words[rng.nextInt(words.length)];
+      }
+
+      // Builds the map up front, rather than in the first measured lookup
+      this.cached.getWordId(this.queries[0]);
+   }
+
+   @Benchmark
+   public Integer binarySearch() {
+      return this.binarySearch.getWordId(this.queries[this.next++ & (NUM_QUERIES - 1)]);
+   }
+
+   @Benchmark
+   public Integer cached() {
+      return this.cached.getWordId(this.queries[this.next++ & (NUM_QUERIES - 1)]);
+   }
+}
@@ -0,0 +1,65 @@
+package org.abatons.markov.benchmarks;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.abatons.markov.compiler.GraphCompiler;
+import org.abatons.markov.graph.Graph;
+import org.abatons.markov.graph.Parody;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Walking a graph one word at a time, for each corpus size and graph order. The walk starts again from the same
+ * history whenever it reaches a dead end.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParodyBenchmark {
+   @Param({ "10000", "100000", "1000000" })
+   public int corpusWords;
+
+   @Param({ "1", "2", "3" })
+   public int order;
+
+   private Graph graph;
+   private int[] start;
+   private Parody parody;
+
+   @Setup(Level.Trial)
+   public void compile() throws IOException {
+      this.graph = GraphCompiler.createGraph(Corpus.generate(this.corpusWords, 42), this.order);
+      this.start = this.graph.getAWordHistoryForTesting();
+   }
+
+   @Setup(Level.Iteration)
+   public void restart() {
+      this.parody = new Parody(this.graph, this.start, new Random(42));
+   }
+
+   @Benchmark
+   public String getNextWord() {
+      final String word = this.parody.getNextWord();
+
+      if (word == null) {
+         restart();
+      }
+
+      return word;
+   }
+}
@@ -0,0 +1,88 @@
+package org.abatons.markov.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.abatons.markov.compiler.GraphCompiler;
+import org.abatons.markov.graph.Graph;
+import org.abatons.markov.graph.GraphPersistence;
+import org.abatons.markov.graph.GraphPersistenceRaw;
+import org.abatons.markov.graph.GraphPersistenceSqlite;
+import org.abatons.markov.graph.GraphPersistenceSqlitePacked;
+import org.abatons.markov.graph.TransitionQuantizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Saving and loading a graph in the raw, 8 bit log quantized raw, sqlite and packed sqlite formats, for each corpus
+ * size and graph order. Each format has a file of its own in the temp directory, which is saved once before any loads
+ * are measured. These are slow enough that each invocation is timed on its own.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersistenceBenchmark {
+   @Param({ "10000", "100000", "1000000" })
+   public int corpusWords;
+
+   @Param({ "1", "2", "3" })
+   public int order;
+
+   @Param({ "raw", "rawQuantized", "sqlite", "sqlitePacked" })
+   public String format;
+
+   private Graph graph;
+   private File file;
+   private GraphPersistence persistence;
+
+   @Setup(Level.Trial)
+   public void setup() throws IOException {
+      this.graph = GraphCompiler.createGraph(Corpus.generate(this.corpusWords, 42), this.order);
+
+      this.file = File.createTempFile("PersistenceBenchmark", "." + this.format);
+      if ("sqlite".equals(this.format)) {
+         this.persistence = new GraphPersistenceSqlite(this.file.getPath());
+      } else if ("rawQuantized".equals(this.format)) {
+         this.persistence = new GraphPersistenceRaw(this.file.getPath(), new TransitionQuantizer(8, true));
+      } else if ("sqlitePacked".equals(this.format)) {
+         this.persistence = new GraphPersistenceSqlitePacked(this.file.getPath());
+      } else {
+         this.persistence = new GraphPersistenceRaw(this.file.getPath());
+      }
+
+      this.persistence.save(this.graph);
+   }
+
+   @TearDown(Level.Trial)
+   public void teardown() {
+      this.file.delete();
+   }
+
+   @Benchmark
+   public Graph load() {
+      return this.persistence.load();
+   }
+
+   /**
+    * Overwrites the file each time. Sqlite drops and recreates its tables.
+    */
+   @Benchmark
+   public void save() {
+      this.persistence.save(this.graph);
+   }
+}
@@ -0,0 +1,77 @@
+package org.abatons.markov.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.abatons.markov.graph.Transitions;
+import org.abatons.markov.graph.TransitionsBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Noting transitions from a single history, with the given number of distinct target words. The compiler counts
+ * every word of the text into a TransitionsBuilder, then freezes it into a Transitions once the text is done, as
+ * {@link #recordTransitionsBuilder()} does. Recording straight into a Transitions, as the compiler used to, is kept
+ * for comparison.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransitionsBenchmark {
+   private static final int NUM_RECORDED = 1000;
+
+   @Param({ "4", "64", "1024" })
+   public int fanOut;
+
+   private int[] targetWordIds;
+
+   @Setup
+   public void setup() {
+      final Random rng = new Random(42);
+
+      this.targetWordIds = new int[NUM_RECORDED];
+      for (int i = 0; i < NUM_RECORDED; i++) {
+         this.targetWordIds[i] = rng.nextInt(this.fanOut);
+      }
+   }
+
+   /**
+    * @return The transitions, so the JIT can't discard them
+    */
+   @Benchmark
+   public Transitions recordTransitionsBuilder() {
+      final TransitionsBuilder builder = new TransitionsBuilder();
+
+      for (final int targetWordId : this.targetWordIds) {
+         builder.recordTransition(targetWordId);
+      }
+
+      return builder.freeze();
+   }
+
+   /**
+    * @return The transitions, so the JIT can't discard them
+    */
+   @Benchmark
+   public Transitions recordTransitions() {
+      final Transitions transitions = new Transitions();
+
+      for (final int targetWordId : this.targetWordIds) {
+         transitions.recordTransition(targetWordId);
+      }
+
+      return transitions;
+   }
+}
@@ -2,36 +2,131 @@ package org.abatons.markov.compiler;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import org.abatons.markov.graph.Graph;
+import org.abatons.markov.graph.GraphBackoffTrie;
+import org.abatons.markov.graph.GraphMerger;
+import org.abatons.markov.graph.GraphPersistence;
 import org.abatons.markov.graph.GraphPersistenceRaw;
+import org.abatons.markov.graph.GraphPersistenceRawCompressed;
+import org.abatons.markov.graph.GraphPersistenceRawMapped;
 import org.abatons.markov.graph.GraphPersistenceSqlite;
+import org.abatons.markov.graph.GraphQuantized;
+import org.abatons.markov.graph.GraphSqlite;
 import org.abatons.markov.graph.Parody;
-import org.abatons.markov.graph.Transitions;
+import org.abatons.markov.graph.TransitionQuantizer;
 import org.abatons.markov.graph.dictionary.DictionaryLookup;
 import org.abatons.markov.graph.dictionary.DictionaryLookupCached;
 import org.apache.commons.io.FileUtils;
 
 public class GraphCompiler {
    /**
-    * @param args The paths of the text files to read in an generate graphs for
+    * Files bigger than this are streamed rather than read into memory and compiled in parallel.
+    */
+   private static final long STREAMING_THRESHOLD_BYTES = 256L * 1024 * 1024;
+
+   /**
+    * Below this many characters, a chunk isn't worth the overhead of counting it on another thread.
+    */
+   private static final int MIN_PARALLEL_CHUNK_LENGTH = 1 << 16;
+
+   /**
+    * What text files are read in, unless <code>--charset</code> says otherwise
+    */
+   private static final Charset DEFAULT_CHARSET = Charset.defaultCharset();
+
+   /**
+    * @param args The paths of the text files to read in an generate graphs for. A path to a directory generates 
+    *             graphs for all of the text files within it, as if they were one text. Directories, and files 
+    *             bigger than 256MB, are streamed rather than read into memory. All files are read in the charset
+    *             given by <code>--charset name</code>, or the platform's default charset if there isn't one.
+    *             <p>Alternatively, <code>--update graphFile textFile...</code> folds the given text into an already
+    *             saved graph (see {@link #updateGraph(Graph, List)}), and saves it back over the same file, in the
+    *             same format. The text is read in the platform's default charset. Graphs saved with scaled down
+    *             counts (see {@link GraphPersistence#hasScaledCounts()}) can't be updated, or merged.</p>
+    *             <p>Or, <code>--merge outGraphFile graphFile...</code> merges graphs of the same order that were
+    *             compiled separately (see {@link GraphMerger}), and saves the result in the format of the output
+    *             file's extension. Graphs saved as <code>.raw2</code> are memory mapped, and those saved as
+    *             <code>.db</code> are queried a page of histories at a time, so neither is read into the heap to be
+    *             merged. Graphs in the other formats are loaded in full, so should be saved as <code>.raw2</code>
+    *             first if they're too big for the heap.</p>
+    *             <p>Text files can be preceded by pruning options (see {@link Pruning}):
+    *             <code>--min-history-count n</code>, <code>--max-transitions k</code> and
+    *             <code>--drop-unreachable-words</code>, as well as <code>--charset</code>.</p>
     *  
     * @throws IOException
     * @throws ClassNotFoundException
     * @throws SQLException
     */
    public static void main(final String[] args) throws IOException, ClassNotFoundException, SQLException {
-      for (final String filename : args) {
-         final String allText = FileUtils.readFileToString(new File(filename));
+      if (args.length > 0 && "--update".equals(args[0])) {
+         if (args.length < 3) {
+            System.err.println("Usage: --update graphFile textFile...");
+            return;
+         }
+
+         update(args[1], Arrays.asList(args).subList(2, args.length));
+         return;
+      }
+
+      if (args.length > 0 && "--merge".equals(args[0])) {
+         if (args.length < 3) {
+            System.err.println("Usage: --merge outGraphFile graphFile...");
+            return;
+         }
+
+         merge(args[1], Arrays.asList(args).subList(2, args.length));
+         return;
+      }
+
+      int minHistoryCount = 0;
+      int maxTransitions = 0;
+      boolean dropUnreachableWords = false;
+      Charset charset = DEFAULT_CHARSET;
+
+      int firstFile = 0;
+      for (; firstFile < args.length && args[firstFile].startsWith("--"); firstFile++) {
+         if ("--min-history-count".equals(args[firstFile]) && firstFile + 1 < args.length) {
+            minHistoryCount = Integer.parseInt(args[++firstFile]);
+         } else if ("--max-transitions".equals(args[firstFile]) && firstFile + 1 < args.length) {
+            maxTransitions = Integer.parseInt(args[++firstFile]);
+         } else if ("--drop-unreachable-words".equals(args[firstFile])) {
+            dropUnreachableWords = true;
+         } else if ("--charset".equals(args[firstFile]) && firstFile + 1 < args.length) {
+            charset = Charset.forName(args[++firstFile]);
+         } else {
+            System.err.println("Usage: [--min-history-count n] [--max-transitions k] [--drop-unreachable-words] "
+                  + "[--charset name] textFile...");
+            return;
+         }
+      }
+
+      final Pruning pruning = new Pruning(minHistoryCount, maxTransitions, dropUnreachableWords);
+
+      final ForkJoinPool pool = new ForkJoinPool();
+      final int[] orders = new int[] { 1, 2, 3, 4 };
+
+      for (final String filename : Arrays.asList(args).subList(firstFile, args.length)) {
+         final File file = new File(filename);
+
+         final Graph[] graphs;
+         if (file.isDirectory() || file.length() > STREAMING_THRESHOLD_BYTES) {
+            graphs = createGraphs(TextSource.fromFileOrDirectory(file, charset), pruning, null, orders);
+         } else {
+            graphs = createGraphs(FileUtils.readFileToString(file, charset), orders, pool, pruning, null);
+         }
 
-         for (int order = 1; order < 5; order++) {
-            final Graph graph = createGraph(allText, order);
+         for (int i = 0; i < orders.length; i++) {
+            final Graph graph = graphs[i];
+            final int order = orders[i];
 
             graph.printGraphStats();
 
@@ -39,111 +134,531 @@ public class GraphCompiler {
             
             new GraphPersistenceSqlite(filename + "_order_" + order + ".sqlite.db").save(graph);
             new GraphPersistenceRaw(filename + "_order_" + order + ".raw").save(graph);
+            new GraphPersistenceRawMapped(filename + "_order_" + order + ".raw2").save(graph);
+            new GraphPersistenceRawCompressed(filename + "_order_" + order + ".rawz").save(graph);
          }
+
+         // The orders are 1 upwards, so all of them fit in one trie that backs off rather than running out of words
+         final GraphBackoffTrie backoff = new GraphBackoffTrie(graphs, 2);
+         System.out.println("Backoff trie of orders 1 to " + backoff.getOrder() + " has " + backoff.getNumNodes()
+               + " nodes in " + backoff.getSizeInBytes() + " bytes");
+         System.out.println("  example parody: " + new Parody(backoff).generateParody(200));
       }
    }
 
-   public static Graph createGraph(final String inAllText, final int inGraphOrder) throws IOException {
-      // Read all the words and construct the dictionary containing all unique words and their IDs.
-      // i.e. Scan words and create lexicon
-      final DictionaryLookup dict = new DictionaryLookupCached(getSortedUniqueWords(inAllText));
+   private static void update(final String inGraphFilename, final List<String> inTextFilenames) throws IOException {
+      final GraphPersistence persistence = persistenceFor(inGraphFilename);
+
+      if (persistence.hasScaledCounts()) {
+         System.err.println("The counts of " + inGraphFilename + " were scaled down when it was saved, so new text "
+               + "can't be counted into them. Compile it again from all of the text instead.");
+         return;
+      }
+
+      final Graph existing = persistence.load();
+      if (existing == null) {
+         System.err.println("Couldn't load a graph from " + inGraphFilename);
+         return;
+      }
+
+      final List<TextSource> sources = new ArrayList<TextSource>();
+      for (final String filename : inTextFilenames) {
+         sources.addAll(TextSource.fromFileOrDirectory(new File(filename), DEFAULT_CHARSET));
+      }
+
+      final Graph updated = updateGraph(existing, sources);
+
+      updated.printGraphStats();
+
+      // The updated graph's counts are exact, so a quantized graph has to be told to be quantized again
+      persistenceFor(inGraphFilename, quantizerOf(Collections.singletonList(existing))).save(updated);
+   }
+
+   /**
+    * Only the <code>.raw2</code> and <code>.db</code> graphs are merged without being read into the heap. Any other
+    * graph is loaded in full, with a warning. If every graph was quantized the same way, so is the merged graph.
+    */
+   private static void merge(final String inMergedFilename, final List<String> inGraphFilenames) {
+      final List<Graph> graphs = new ArrayList<Graph>();
+      final List<GraphSqlite> opened = new ArrayList<GraphSqlite>();
 
-      // Read in all the words again, but map their IDs to lists of all following words.
-      // Basically build up the guts of the graph itself.
-      final WordReader allTextReader = new WordReader.StringWordReader(inAllText);
       try {
-         final Map<String, Transitions> wordTransitions = mapTransitions(dict, inGraphOrder, allTextReader);
+         for (final String filename : inGraphFilenames) {
+            if (persistenceFor(filename).hasScaledCounts()) {
+               System.err.println("The counts of " + filename + " were scaled down when it was saved, so can't be "
+                     + "merged with others");
+               return;
+            }
+
+            final Graph graph;
+            if (filename.endsWith(".db")) {
+               final GraphSqlite lazily = new GraphPersistenceSqlite(filename).loadLazily();
+               if (lazily != null) {
+                  opened.add(lazily);
+               }
+               graph = lazily;
+            } else {
+               if (!filename.endsWith(".raw2")) {
+                  System.err.println("Reading all of " + filename + " into the heap to merge it. Save it as .raw2 "
+                        + "first to merge it without.");
+               }
+               graph = persistenceFor(filename).load();
+            }
 
-         return new Graph(dict, wordTransitions);
+            if (graph == null) {
+               System.err.println("Couldn't load a graph from " + filename);
+               return;
+            }
+
+            graphs.add(graph);
+         }
+
+         final long startTime = System.currentTimeMillis();
+         final Graph merged = GraphMerger.merge(graphs);
+         System.out.println("Merging " + graphs.size() + " graphs took " + (System.currentTimeMillis() - startTime)
+               + "ms");
+
+         merged.printGraphStats();
+
+         persistenceFor(inMergedFilename, quantizerOf(graphs)).save(merged);
       } finally {
-         allTextReader.close();
+         for (final GraphSqlite graph : opened) {
+            graph.close();
+         }
       }
    }
 
    /**
-    * @param wordIndicies
-    *           Maps a key word to the index at which that word appears in the ordered list of all words in
-    *           the file. The index is stored in a character, the numeric value of which is used.
-    * @param order
-    *           Number of words used in the history
-    * @param filename
-    *           The path of the file containing all of the plain text to extract the word statistics graph for
-    * @return a map of the history signature to a list the words which follow (containing each target word's
-    *         ID and chance of appearing, greatest chance ordered first). A history signature is a String of
-    *         characters, where each character's numeric value is the index of the word in the allWords array.
-    *         The first character is the oldest word in the history.
-    * @throws IOException
+    * @return The persistence for the format that the compiler saves with the given file's extension
     */
-   private static Map<String, Transitions> mapTransitions(final DictionaryLookup inDict, final int order,
-                                                          final WordReader inAllText) throws IOException {
-      final Map<String, Transitions> wordHistoryToTransitionList = new HashMap<String, Transitions>();
+   private static GraphPersistence persistenceFor(final String inFilename) {
+      return persistenceFor(inFilename, null);
+   }
 
-      final StringBuffer wordIndexHistory = new StringBuffer();
+   /**
+    * @param inQuantizer If not null, and the format is raw, the graph is saved quantized by this
+    */
+   private static GraphPersistence persistenceFor(final String inFilename, final TransitionQuantizer inQuantizer) {
+      if (inFilename.endsWith(".db")) {
+         return new GraphPersistenceSqlite(inFilename);
+      } else if (inFilename.endsWith(".raw2")) {
+         return new GraphPersistenceRawMapped(inFilename);
+      } else if (inFilename.endsWith(".rawz")) {
+         return new GraphPersistenceRawCompressed(inFilename);
+      } else if (inQuantizer != null) {
+         return new GraphPersistenceRaw(inFilename, inQuantizer);
+      }
 
-      final SentenceReader sr = new SentenceReader(inAllText);
-      for (String[] sentence = null; (sentence = sr.readSentence()).length > 0;) {
-         for (final String word : sentence) {
-            final char wordId = inDict.getWordId(word);
+      return new GraphPersistenceRaw(inFilename);
+   }
 
-            if (wordIndexHistory.length() == order) {
-               // The history of preceeding words is complete (i.e. we have elements equal to the wanted
-               // order)
-               final String historyIndexTrail = wordIndexHistory.toString();
+   /**
+    * @return The quantizer of the given graphs, if they're all quantized the same way, otherwise null
+    */
+   private static TransitionQuantizer quantizerOf(final List<Graph> inGraphs) {
+      TransitionQuantizer shared = null;
 
-               if (!wordHistoryToTransitionList.containsKey(historyIndexTrail)) {
-                  wordHistoryToTransitionList.put(historyIndexTrail, new Transitions());
-               }
+      for (final Graph graph : inGraphs) {
+         if (!(graph instanceof GraphQuantized)) {
+            return null;
+         }
 
-               final Transitions listOfFollowingWords = wordHistoryToTransitionList.get(historyIndexTrail);
+         final TransitionQuantizer quantizer = ((GraphQuantized) graph).getQuantizer();
+         if (shared != null && !shared.equals(quantizer)) {
+            return null;
+         }
+         shared = quantizer;
+      }
 
-               listOfFollowingWords.recordTransition(wordId);
+      return shared;
+   }
 
-               wordIndexHistory.deleteCharAt(0);
-            }
+   public static Graph createGraph(final String inAllText, final int inGraphOrder) throws IOException {
+      return createGraphs(inAllText, new int[] { inGraphOrder })[0];
+   }
 
-            wordIndexHistory.append(wordId);
+   /**
+    * Creates the graphs of several orders from a single pass over the text, rather than a pass per order. The graphs
+    * all share the same dictionary. This needs enough memory to hold all of the graphs at once.
+    * 
+    * @param inGraphOrders
+    *           The order of each graph to create
+    * @return The graph of each of the given orders, in the same sequence.
+    */
+   public static Graph[] createGraphs(final String inAllText, final int... inGraphOrders) throws IOException {
+      return createGraphs(Collections.singletonList(TextSource.fromString(inAllText)), inGraphOrders);
+   }
+
+   /**
+    * Creates graphs while streaming the text from the given sources, which are treated as one continuous text in
+    * the sequence given. The text is read just once, and never held in memory, so the memory needed is proportional
+    * to the size of the graphs rather than the text.
+    * 
+    * @param inSources
+    *           Where to read the text from. See {@link TextSource#fromFileOrDirectory(File, Charset)}.
+    * @param inGraphOrders
+    *           The order of each graph to create
+    * @return The graph of each of the given orders, in the same sequence.
+    */
+   public static Graph[] createGraphs(final List<TextSource> inSources, final int... inGraphOrders)
+         throws IOException {
+      return createGraphs(inSources, Pruning.NONE, null, inGraphOrders);
+   }
+
+   /**
+    * As {@link #createGraph(String, int)}, leaving out what the given pruning says to.
+    */
+   public static Graph createGraph(final String inAllText, final int inGraphOrder, final Pruning inPruning)
+         throws IOException {
+      return createGraphs(Collections.singletonList(TextSource.fromString(inAllText)), inPruning, null,
+            new int[] { inGraphOrder })[0];
+   }
+
+   /**
+    * As {@link #createGraphs(List, int...)}, leaving out what the given pruning says to once all of the text has
+    * been counted. The dictionary is compacted if words are dropped, so the graphs' word IDs stay contiguous.
+    * 
+    * @param inReport
+    *           Filled in with how much each rule of the pruning left out. Can be null.
+    */
+   public static Graph[] createGraphs(final List<TextSource> inSources, final Pruning inPruning,
+                                      final PruningReport inReport, final int... inGraphOrders) throws IOException {
+      // Read all the words, giving each unique word an ID as it's first seen, and map their IDs to lists of all
+      // following words. Basically build up the guts of the graph itself.
+      final ProvisionalDictionary dict = new ProvisionalDictionary();
+
+      final TransitionCounts counts = new TransitionCounts(inGraphOrders);
+
+      for (final TextSource source : inSources) {
+         final WordReader wr = source.openWordReader();
+         try {
+            mapTransitions(dict, wr, counts);
+         } finally {
+            wr.close();
          }
       }
 
-      System.out.println("Order " + order + " graph contains " + wordHistoryToTransitionList.size()
-            + " histories");
+      return createGraphs(dict, inGraphOrders, counts, inPruning, inReport);
+   }
 
-      return wordHistoryToTransitionList;
+   /**
+    * As {@link #updateGraph(Graph, List)}, for new text in a String.
+    */
+   public static Graph updateGraph(final Graph inExisting, final String inNewText) throws IOException {
+      return updateGraph(inExisting, Collections.singletonList(TextSource.fromString(inNewText)));
    }
 
-   private static String[] getSortedUniqueWords(final String inAllText) throws IOException {
-      final String[] allWordArray;
+   /**
+    * <p>Folds new text into an existing graph, e.g. one that's been loaded, without the text it was compiled from.
+    * Only the new text is read. Its words are counted alongside the existing graph's counts (its numerators), new
+    * words are added to the dictionary, and every word ID is remapped to its position in the extended dictionary.</p>
+    * 
+    * <p>The new text is treated as a separate document, so no transitions are counted from the last words of the
+    * existing text into the first words of the new. Updating a graph of an empty text gives the same graph as
+    * compiling the new text on its own.</p>
+    * 
+    * <p>The existing counts are taken as they are, so they must be the counts of the text, rather than scaled down
+    * when the graph was saved (see {@link GraphPersistence#hasScaledCounts()}).</p>
+    * 
+    * @param inExisting
+    *           Isn't changed
+    * @param inNewSources
+    *           The new text, treated as one continuous text in the sequence given
+    * @return A new graph, of the same order, counting both the existing text and the new text
+    */
+   public static Graph updateGraph(final Graph inExisting, final List<TextSource> inNewSources) throws IOException {
+      final ProvisionalDictionary dict = new ProvisionalDictionary(inExisting.getDictionary());
 
-      WordReader wr = null;
-      try {
-         int wordCount = 0;
-         wr = new WordReader.StringWordReader(inAllText);
+      final int[] orders = new int[] { inExisting.getOrder() };
+
+      final TransitionCounts counts = new TransitionCounts(orders);
+      counts.addCounts(0, inExisting);
+
+      for (final TextSource source : inNewSources) {
+         final WordReader wr = source.openWordReader();
+         try {
+            mapTransitions(dict, wr, counts);
+         } finally {
+            wr.close();
+         }
+      }
 
-         final Set<String> allWords = new HashSet<String>();
+      return createGraphs(dict, orders, counts, Pruning.NONE, null)[0];
+   }
+
+   /**
+    * The same as {@link #createGraph(String, int)}, but the transitions are counted in parallel. The text is split
+    * into chunks on sentence boundaries, each chunk is counted on the given pool, and the counts are then merged. The
+    * resulting graph is identical to the one created sequentially.
+    * 
+    * @param inPool
+    *           The pool to count the chunks on
+    */
+   public static Graph createGraph(final String inAllText, final int inGraphOrder, final ForkJoinPool inPool)
+         throws IOException {
+      return createGraphs(inAllText, new int[] { inGraphOrder }, inPool)[0];
+   }
+
+   /**
+    * As {@link #createGraph(String, int, ForkJoinPool)}, but with control over the size of the chunks.
+    * 
+    * @param inChunkLength
+    *           The text is split at the first sentence boundary following each multiple of this many characters.
+    */
+   public static Graph createGraph(final String inAllText, final int inGraphOrder, final ForkJoinPool inPool,
+                                   final int inChunkLength) throws IOException {
+      return createGraphs(inAllText, new int[] { inGraphOrder }, inPool, inChunkLength)[0];
+   }
+
+   /**
+    * The parallel equivalent of {@link #createGraphs(String, int...)}.
+    */
+   public static Graph[] createGraphs(final String inAllText, final int[] inGraphOrders, final ForkJoinPool inPool)
+         throws IOException {
+      return createGraphs(inAllText, inGraphOrders, inPool, Pruning.NONE, null);
+   }
+
+   /**
+    * The parallel equivalent of {@link #createGraphs(List, Pruning, PruningReport, int...)}.
+    */
+   public static Graph[] createGraphs(final String inAllText, final int[] inGraphOrders, final ForkJoinPool inPool,
+                                      final Pruning inPruning, final PruningReport inReport) throws IOException {
+      final int chunkLength = Math.max(MIN_PARALLEL_CHUNK_LENGTH, inAllText.length() / (inPool.getParallelism() * 4));
+
+      return createGraphs(inAllText, inGraphOrders, inPool, chunkLength, inPruning, inReport);
+   }
+
+   /**
+    * As {@link #createGraphs(String, int[], ForkJoinPool)}, but with control over the size of the chunks.
+    */
+   public static Graph[] createGraphs(final String inAllText, final int[] inGraphOrders, final ForkJoinPool inPool,
+                                      final int inChunkLength) throws IOException {
+      return createGraphs(inAllText, inGraphOrders, inPool, inChunkLength, Pruning.NONE, null);
+   }
+
+   private static Graph[] createGraphs(final String inAllText, final int[] inGraphOrders, final ForkJoinPool inPool,
+                                       final int inChunkLength, final Pruning inPruning,
+                                       final PruningReport inReport) {
+      final ProvisionalDictionary dict = new ProvisionalDictionary();
+
+      final int[] boundaries = splitOnSentences(inAllText, inChunkLength);
 
-         final SentenceReader sr = new SentenceReader(wr);
-         for (String sentence[] = null; (sentence = sr.readSentence()).length > 0;) {
-            for (final String word : sentence) {
-               allWords.add(word);
-               wordCount++;
+      final TransitionCounts counts = inPool.invoke(new CountChunksTask(dict, inGraphOrders, inAllText, boundaries,
+            0, boundaries.length - 1));
+
+      return createGraphs(dict, inGraphOrders, counts, inPruning, inReport);
+   }
+
+   /**
+    * Now that all of the text has been counted, sorts the dictionary, remaps all of the counts from provisional to
+    * final word IDs, prunes them, and creates the graphs.
+    * 
+    * @param inReport
+    *           Can be null, in which case the report is only printed
+    */
+   private static Graph[] createGraphs(final ProvisionalDictionary inDict, final int[] inGraphOrders,
+                                       final TransitionCounts inCounts, final Pruning inPruning,
+                                       final PruningReport inReport) {
+      String[] sortedWords = inDict.getSortedWords();
+
+      // When updating, only the new text's words are counted, but the dictionary holds the existing words too
+      System.out.println("The text contains " + inCounts.getNumWords() + " words, and the dictionary "
+            + sortedWords.length + " unique(ish) words");
+
+      inCounts.remapWordIds(inDict.getRemapping(sortedWords));
+
+      if (!inPruning.isNone()) {
+         final PruningReport report = (inReport != null) ? inReport : new PruningReport();
+         for (final String word : sortedWords) {
+            report.countWord(word);
+         }
+
+         inCounts.prune(inPruning, report);
+
+         if (inPruning.isDropUnreachableWords()) {
+            sortedWords = dropUnreachableWords(sortedWords, inCounts, report);
+         }
+
+         System.out.println(report);
+      }
+
+      final DictionaryLookup dict = new DictionaryLookupCached(sortedWords);
+
+      final Graph[] graphs = new Graph[inGraphOrders.length];
+
+      for (int i = 0; i < inGraphOrders.length; i++) {
+         System.out.println("Order " + inGraphOrders[i] + " graph contains " + inCounts.getNumWordHistories(i)
+               + " histories");
+
+         graphs[i] = new Graph(dict, inCounts.freeze(i));
+      }
+
+      return graphs;
+   }
+
+   /**
+    * Drops the words no longer in any history or transition from the dictionary, and remaps the counts' word IDs to
+    * their positions in what's left, which is still sorted.
+    * 
+    * @return The words left
+    */
+   private static String[] dropUnreachableWords(final String[] inSortedWords, final TransitionCounts inCounts,
+                                                final PruningReport inReport) {
+      final boolean[] referenced = inCounts.getReferencedWords(inSortedWords.length);
+
+      final int[] oldToNew = new int[inSortedWords.length];
+      final List<String> reachable = new ArrayList<String>(inSortedWords.length);
+
+      for (int wordId = 0; wordId < inSortedWords.length; wordId++) {
+         if (referenced[wordId]) {
+            oldToNew[wordId] = reachable.size();
+            reachable.add(inSortedWords[wordId]);
+         } else {
+            oldToNew[wordId] = -1;
+            inReport.unreachableWord(inSortedWords[wordId]);
+         }
+      }
+
+      if (reachable.size() == inSortedWords.length) {
+         return inSortedWords;
+      }
+
+      // A dropped word can still appear in the head and tail windows of the counts, if it only appears there, and is
+      // remapped to -1. That's harmless, as nothing reads those windows once the text has been counted
+      inCounts.remapWordIds(oldToNew);
+
+      return reachable.toArray(new String[reachable.size()]);
+   }
+
+   /**
+    * Finds where to split the text so that each chunk is roughly the given length. Each split is at the first
+    * whitespace following a sentence ending, after the chunk reaches the wanted length. Failing that, at the first
+    * whitespace.
+    * 
+    * @return The start of each chunk, followed by the end of the text.
+    */
+   private static int[] splitOnSentences(final String inAllText, final int inChunkLength) {
+      final List<Integer> chunkStarts = new ArrayList<Integer>();
+      chunkStarts.add(0);
+
+      int from = inChunkLength;
+      while (from < inAllText.length()) {
+         int split = -1;
+         int firstWhitespace = -1;
+
+         for (int i = from; i < inAllText.length() && split < 0; i++) {
+            if (Character.isWhitespace(inAllText.charAt(i))) {
+               if (firstWhitespace < 0) {
+                  firstWhitespace = i;
+               }
+
+               final char previous = inAllText.charAt(i - 1);
+               if (previous == '.' || previous == '?' || previous == '!' || previous == '"') {
+                  split = i;
+               }
             }
          }
 
-         allWordArray = allWords.toArray(new String[0]);
+         if (split < 0) {
+            split = firstWhitespace;
+         }
+         if (split < 0) {
+            break;
+         }
+
+         chunkStarts.add(split);
+         from = split + inChunkLength;
+      }
+
+      final int[] boundaries = new int[chunkStarts.size() + 1];
+      for (int i = 0; i < chunkStarts.size(); i++) {
+         boundaries[i] = chunkStarts.get(i);
+      }
+      boundaries[chunkStarts.size()] = inAllText.length();
+
+      return boundaries;
+   }
+
+   /**
+    * Counts a range of chunks by splitting the range in half until there's just a single chunk to count, then
+    * joining the counts back up in order.
+    */
+   @SuppressWarnings("serial")
+   private static class CountChunksTask extends RecursiveTask<TransitionCounts> {
+      private final ProvisionalDictionary dict;
+      private final int[] orders;
+      private final String allText;
+      private final int[] boundaries;
+      private final int fromChunk;
+      private final int toChunk;
+
+      CountChunksTask(final ProvisionalDictionary inDict, final int[] inOrders, final String inAllText,
+                      final int[] inBoundaries, final int inFromChunk, final int inToChunk) {
+         this.dict = inDict;
+         this.orders = inOrders;
+         this.allText = inAllText;
+         this.boundaries = inBoundaries;
+         this.fromChunk = inFromChunk;
+         this.toChunk = inToChunk;
+      }
+
+      @Override
+      protected TransitionCounts compute() {
+         if (this.toChunk - this.fromChunk == 1) {
+            final String chunk = this.allText.substring(this.boundaries[this.fromChunk],
+                  this.boundaries[this.toChunk]);
 
-         System.out.println("The text contains " + wordCount + " words, of which " + allWordArray.length
-               + " are unique(ish)");
-      } finally {
-         if (wr != null) {
             try {
-               wr.close();
+               return mapTransitions(this.dict, this.orders, new WordReader.StringWordReader(chunk));
             } catch (final IOException e) {
+               // Can't happen when reading from a String
+               throw new IllegalStateException(e);
             }
          }
+
+         final int middle = (this.fromChunk + this.toChunk) >>> 1;
+
+         final CountChunksTask first = new CountChunksTask(this.dict, this.orders, this.allText, this.boundaries,
+               this.fromChunk, middle);
+         final CountChunksTask second = new CountChunksTask(this.dict, this.orders, this.allText, this.boundaries,
+               middle, this.toChunk);
+
+         second.fork();
+         final TransitionCounts counts = first.compute();
+         counts.append(second.join());
+
+         return counts;
       }
+   }
+
+   /**
+    * @param inDict
+    *           Gives each word its provisional ID.
+    * @param inOrders
+    *           Number of words used in the history, for each graph being created
+    * @param inAllText
+    *           The words to count the transitions between
+    * @return The count of every transition following each history. A history is the provisional IDs of its
+    *         words, the first being the oldest word in the history.
+    * @throws IOException
+    */
+   private static TransitionCounts mapTransitions(final ProvisionalDictionary inDict, final int[] inOrders,
+                                                  final WordReader inAllText) throws IOException {
+      final TransitionCounts counts = new TransitionCounts(inOrders);
 
-      Arrays.sort(allWordArray);
+      mapTransitions(inDict, inAllText, counts);
 
-      return allWordArray;
+      return counts;
+   }
+
+   /**
+    * Counts the transitions between the words read, carrying on from the words already counted.
+    */
+   private static void mapTransitions(final ProvisionalDictionary inDict, final WordReader inAllText,
+                                      final TransitionCounts inCounts) throws IOException {
+      final SentenceReader sr = new SentenceReader(inAllText);
+      for (String word = null; (word = sr.readWord()) != null;) {
+         inCounts.countWord(inDict.getWordId(word));
+      }
    }
 }
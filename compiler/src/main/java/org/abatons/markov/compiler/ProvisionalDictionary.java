@@ -0,0 +1,95 @@
+package org.abatons.markov.compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.abatons.markov.graph.dictionary.Dictionary;
+
+/**
+ * <p>Gives each word an ID the first time it's seen, so that transitions can be counted in the same pass over the
+ * text that finds all of the unique words. Once all of the text has been read, the words are sorted and
+ * {@link #getRemapping(String[])} maps each provisional ID to the word's final ID, i.e. its alphabetical position.</p>
+ *
+ * <p>Safe for use by many threads at once. Looking up a word already seen doesn't lock.</p>
+ */
+class ProvisionalDictionary {
+   private final ConcurrentHashMap<String, Integer> wordIds;
+
+   /**
+    * Every word, indexed by its provisional ID. Guarded by this.
+    */
+   private final List<String> words;
+
+   ProvisionalDictionary() {
+      this.wordIds = new ConcurrentHashMap<String, Integer>();
+      this.words = new ArrayList<String>();
+   }
+
+   /**
+    * Starts with the words of an existing dictionary, each having its existing ID as its provisional ID, so that
+    * counts already keyed by those IDs can be counted alongside those of new text. Any new word is given the next
+    * ID after them.
+    */
+   ProvisionalDictionary(final Dictionary inExistingWords) {
+      this();
+
+      for (int wordId = 0; wordId < inExistingWords.getNumUniqueWords(); wordId++) {
+         if (getWordId(inExistingWords.getWord(wordId)) != wordId) {
+            throw new IllegalArgumentException("The words must be unique, but " + inExistingWords.getWord(wordId)
+                  + " isn't");
+         }
+      }
+   }
+
+   /**
+    * @return The provisional ID of the word, which is given one if it's not been seen before.
+    */
+   int getWordId(final String inWord) {
+      final Integer existing = this.wordIds.get(inWord);
+      if (existing != null) {
+         return existing;
+      }
+
+      synchronized (this) {
+         Integer id = this.wordIds.get(inWord);
+
+         if (id == null) {
+            id = this.words.size();
+            this.words.add(inWord);
+            this.wordIds.put(inWord, id);
+         }
+
+         return id;
+      }
+   }
+
+   synchronized int getNumUniqueWords() {
+      return this.words.size();
+   }
+
+   /**
+    * @return All the words seen, sorted alphabetically. Each word's index is its final ID.
+    */
+   synchronized String[] getSortedWords() {
+      final String[] sorted = this.words.toArray(new String[this.words.size()]);
+      Arrays.sort(sorted);
+
+      return sorted;
+   }
+
+   /**
+    * @param inSortedWords As given by {@link #getSortedWords()}
+    * @return The final ID of each word, indexed by its provisional ID.
+    */
+   int[] getRemapping(final String[] inSortedWords) {
+      final int[] provisionalToFinal = new int[inSortedWords.length];
+
+      for (int finalId = 0; finalId < inSortedWords.length; finalId++) {
+         provisionalToFinal[this.wordIds.get(inSortedWords[finalId])] = finalId;
+      }
+
+      return provisionalToFinal;
+   }
+}
@@ -0,0 +1,64 @@
+package org.abatons.markov.compiler;
+
+/**
+ * <p>What to leave out of a graph as it's compiled, once all of the text has been counted. Most histories of the
+ * higher orders are seen just once, and histories followed by many words have a long tail of words seen following
+ * them once, so without pruning the size of a graph grows almost as fast as the text. The rules are applied in
+ * turn:</p>
+ * <ol>
+ * <li>Histories seen fewer than the minimum number of times (the total of their transitions' counts) are dropped,
+ * with all of their transitions.</li>
+ * <li>Only the most frequent transitions of each remaining history are kept, up to the maximum. Ties are broken
+ * just as {@link org.abatons.markov.graph.TransitionsBuilder#freeze()} orders them, by the lowest word ID.</li>
+ * <li>Words no longer in any history, nor the target of any transition, of any of the graphs being compiled are
+ * dropped from the dictionary, and the remaining words are given new, contiguous, IDs.</li>
+ * </ol>
+ *
+ * <p>The probabilities of each history's remaining transitions are of the remaining counts, so still sum to one.</p>
+ */
+public class Pruning {
+   /**
+    * Leaves everything in.
+    */
+   public static final Pruning NONE = new Pruning(0, 0, false);
+
+   private final int minHistoryCount;
+   private final int maxTransitionsPerHistory;
+   private final boolean dropUnreachableWords;
+
+   /**
+    * @param inMinHistoryCount Histories seen fewer times than this are dropped. Zero or one keeps them all.
+    * @param inMaxTransitionsPerHistory At most this many transitions are kept for each history. Zero keeps them all.
+    * @param inDropUnreachableWords Whether words left out of every history and transition are dropped from the
+    *           dictionary
+    */
+   public Pruning(final int inMinHistoryCount, final int inMaxTransitionsPerHistory,
+                  final boolean inDropUnreachableWords) {
+      if (inMinHistoryCount < 0 || inMaxTransitionsPerHistory < 0) {
+         throw new IllegalArgumentException("The limits can't be negative");
+      }
+
+      this.minHistoryCount = inMinHistoryCount;
+      this.maxTransitionsPerHistory = inMaxTransitionsPerHistory;
+      this.dropUnreachableWords = inDropUnreachableWords;
+   }
+
+   public int getMinHistoryCount() {
+      return this.minHistoryCount;
+   }
+
+   public int getMaxTransitionsPerHistory() {
+      return this.maxTransitionsPerHistory;
+   }
+
+   public boolean isDropUnreachableWords() {
+      return this.dropUnreachableWords;
+   }
+
+   /**
+    * @return True if nothing would be left out
+    */
+   public boolean isNone() {
+      return this.minHistoryCount <= 1 && this.maxTransitionsPerHistory == 0 && !this.dropUnreachableWords;
+   }
+}
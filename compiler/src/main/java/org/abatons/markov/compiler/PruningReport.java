@@ -0,0 +1,148 @@
+package org.abatons.markov.compiler;
+
+/**
+ * <p>How much of the graphs being compiled each rule of a {@link Pruning} left out, summed over all of the orders
+ * compiled. Filled in as the graphs are compiled.</p>
+ *
+ * <p>The sizes are estimates of the bytes the graphs would take as
+ * {@link org.abatons.markov.graph.GraphCompressedRows} with their dictionary: an int for each word of a history, plus
+ * its row offset and denominator, two ints for each transition, and two bytes for each character of a word, plus its
+ * offset.</p>
+ */
+public class PruningReport {
+   private long numHistories;
+   private long numTransitions;
+   private long numWords;
+   private long numBytes;
+
+   private long historiesBelowMinCount;
+   private long transitionsBelowMinCount;
+   private long bytesBelowMinCount;
+
+   private long transitionsOverMax;
+   private long bytesOverMax;
+
+   private long unreachableWords;
+   private long bytesUnreachable;
+
+   static long getHistoryBytes(final int inOrder) {
+      return 4L * inOrder + 8;
+   }
+
+   static long getTransitionBytes() {
+      return 8;
+   }
+
+   static long getWordBytes(final String inWord) {
+      return 2L * inWord.length() + 4;
+   }
+
+   void countHistory(final int inOrder, final int inNumTransitions) {
+      this.numHistories++;
+      this.numTransitions += inNumTransitions;
+      this.numBytes += getHistoryBytes(inOrder) + inNumTransitions * getTransitionBytes();
+   }
+
+   void countWord(final String inWord) {
+      this.numWords++;
+      this.numBytes += getWordBytes(inWord);
+   }
+
+   void historyBelowMinCount(final int inOrder, final int inNumTransitions) {
+      this.historiesBelowMinCount++;
+      this.transitionsBelowMinCount += inNumTransitions;
+      this.bytesBelowMinCount += getHistoryBytes(inOrder) + inNumTransitions * getTransitionBytes();
+   }
+
+   void transitionsOverMax(final int inNumTransitions) {
+      this.transitionsOverMax += inNumTransitions;
+      this.bytesOverMax += inNumTransitions * getTransitionBytes();
+   }
+
+   void unreachableWord(final String inWord) {
+      this.unreachableWords++;
+      this.bytesUnreachable += getWordBytes(inWord);
+   }
+
+   /**
+    * @return The number of histories before pruning
+    */
+   public long getNumHistories() {
+      return this.numHistories;
+   }
+
+   /**
+    * @return The number of transitions before pruning
+    */
+   public long getNumTransitions() {
+      return this.numTransitions;
+   }
+
+   /**
+    * @return The number of words in the dictionary before pruning
+    */
+   public long getNumWords() {
+      return this.numWords;
+   }
+
+   /**
+    * @return The estimated size before pruning
+    */
+   public long getNumBytes() {
+      return this.numBytes;
+   }
+
+   public long getHistoriesBelowMinCount() {
+      return this.historiesBelowMinCount;
+   }
+
+   public long getTransitionsBelowMinCount() {
+      return this.transitionsBelowMinCount;
+   }
+
+   public long getBytesBelowMinCount() {
+      return this.bytesBelowMinCount;
+   }
+
+   public long getTransitionsOverMax() {
+      return this.transitionsOverMax;
+   }
+
+   public long getBytesOverMax() {
+      return this.bytesOverMax;
+   }
+
+   public long getUnreachableWords() {
+      return this.unreachableWords;
+   }
+
+   public long getBytesUnreachable() {
+      return this.bytesUnreachable;
+   }
+
+   /**
+    * @return The estimated size after pruning
+    */
+   public long getNumBytesLeft() {
+      return this.numBytes - this.bytesBelowMinCount - this.bytesOverMax - this.bytesUnreachable;
+   }
+
+   @Override
+   public String toString() {
+      return "Pruning left " + (this.numHistories - this.historiesBelowMinCount) + " of " + this.numHistories
+            + " histories, " + (this.numTransitions - this.transitionsBelowMinCount - this.transitionsOverMax)
+            + " of " + this.numTransitions + " transitions and " + (this.numWords - this.unreachableWords) + " of "
+            + this.numWords + " words, about " + getNumBytesLeft() + " of " + this.numBytes + " bytes\n"
+            + "  below the minimum count: " + this.historiesBelowMinCount + " histories, "
+            + this.transitionsBelowMinCount + " transitions, " + describeBytes(this.bytesBelowMinCount) + "\n"
+            + "  over the maximum transitions: " + this.transitionsOverMax + " transitions, "
+            + describeBytes(this.bytesOverMax) + "\n"
+            + "  unreachable: " + this.unreachableWords + " words, " + describeBytes(this.bytesUnreachable);
+   }
+
+   private String describeBytes(final long inBytes) {
+      final double percent = (this.numBytes == 0) ? 0 : 100.0 * inBytes / this.numBytes;
+
+      return "saving about " + inBytes + " bytes (" + String.format("%.1f", percent) + "%)";
+   }
+}
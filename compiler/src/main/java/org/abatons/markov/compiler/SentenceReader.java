@@ -8,6 +8,11 @@ import java.util.List;
 public class SentenceReader {
     private final WordReader mReader;
     
+    /**
+     * The punctuation split off the end of the last word returned by readWord(), yet to be returned itself.
+     */
+    private String mPendingSentenceEnd;
+    
     private static final String[] abbreviations; 
     static {
         abbreviations = new String[] {
@@ -41,6 +46,32 @@ public class SentenceReader {
 		return words.toArray(new String[0]);
 	}
 	
+	/**
+	 * Reads the next word, giving exactly the same sequence of words as readSentence() would, but one at a time
+	 * rather than gathering up whole sentences. Memory use is then bounded by the longest word rather than the longest
+	 * sentence. Don't mix calls to this with calls to readSentence().
+	 * 
+	 * @return The next word, or null if there are no more.
+	 */
+	public String readWord() throws IOException {
+	    if(mPendingSentenceEnd != null) {
+	        final String endingPunctuation = mPendingSentenceEnd;
+	        mPendingSentenceEnd = null;
+	        
+	        return endingPunctuation;
+	    }
+	    
+	    final String word = mReader.readWord();
+	    
+	    if(word != null && isEndingWord(word)) {
+	        mPendingSentenceEnd = getSentenceEnd(word);
+	        
+	        return word.substring(0, word.length() - mPendingSentenceEnd.length());
+	    }
+	    
+	    return word;
+	}
+	
 	private static boolean isEndingWord(final String word) {
         return !"".equals(getSentenceEnd(word));
     }
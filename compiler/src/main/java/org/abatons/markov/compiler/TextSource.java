@@ -0,0 +1,121 @@
+package org.abatons.markov.compiler;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>Somewhere to read text from, for compiling a graph without ever holding all of the text in memory. Each
+ * compilation asks the source for a WordReader just once, but sources that can give a new WordReader each time
+ * they're asked can be reused for more than one compilation.</p>
+ */
+public abstract class TextSource {
+   /**
+    * @return A new reader of all of the text. The caller is responsible for closing it.
+    */
+   public abstract WordReader openWordReader() throws IOException;
+
+   /**
+    * A source for a single file, read through a FileChannel.
+    */
+   public static TextSource fromFile(final File inFile, final Charset inCharset) {
+      return new TextSource() {
+         @Override
+         public WordReader openWordReader() throws FileNotFoundException {
+            return new WordReader.FileWordReader(inFile, inCharset);
+         }
+
+         @Override
+         public String toString() {
+            return inFile.getPath();
+         }
+      };
+   }
+
+   /**
+    * Finds all of the files to read, for a file or a directory.
+    *
+    * @param inFileOrDirectory
+    *           If a directory, every file within it and its subdirectories is a source, in name order.
+    */
+   public static List<TextSource> fromFileOrDirectory(final File inFileOrDirectory, final Charset inCharset) {
+      final List<TextSource> sources = new ArrayList<TextSource>();
+
+      addFiles(inFileOrDirectory, inCharset, sources);
+
+      return sources;
+   }
+
+   private static void addFiles(final File inFileOrDirectory, final Charset inCharset,
+                                final List<TextSource> inSources) {
+      if (inFileOrDirectory.isDirectory()) {
+         final File[] children = inFileOrDirectory.listFiles();
+         if (children == null) {
+            return;
+         }
+
+         Arrays.sort(children);
+
+         for (final File child : children) {
+            addFiles(child, inCharset, inSources);
+         }
+      } else if (inFileOrDirectory.isFile()) {
+         inSources.add(fromFile(inFileOrDirectory, inCharset));
+      }
+   }
+
+   /**
+    * A source for text that's already in memory.
+    */
+   public static TextSource fromString(final String inAllText) {
+      return new TextSource() {
+         @Override
+         public WordReader openWordReader() throws FileNotFoundException {
+            return new WordReader.StringWordReader(inAllText);
+         }
+      };
+   }
+
+   /**
+    * A source for text that can only be read once. The source can't be reused.
+    */
+   public static TextSource fromReader(final Reader inReader) {
+      return new TextSource() {
+         private boolean opened = false;
+
+         @Override
+         public WordReader openWordReader() throws IOException {
+            if (this.opened) {
+               throw new IllegalStateException("The text can only be read once");
+            }
+            this.opened = true;
+
+            return new WordReader(inReader);
+         }
+      };
+   }
+
+   /**
+    * Gives a new Reader of the same text each time it's asked.
+    */
+   public interface ReaderFactory {
+      /**
+       * @return A new Reader, starting from the beginning of the text.
+       */
+      Reader newReader() throws IOException;
+   }
+
+   public static TextSource fromReaderFactory(final ReaderFactory inReaderFactory) {
+      return new TextSource() {
+         @Override
+         public WordReader openWordReader() throws IOException {
+            return new WordReader(inReaderFactory.newReader());
+         }
+      };
+   }
+}
@@ -0,0 +1,343 @@
+package org.abatons.markov.compiler;
+
+import java.util.Arrays;
+
+import org.abatons.markov.graph.Graph;
+import org.abatons.markov.graph.HistoryTable;
+import org.abatons.markov.graph.TransitionProbability;
+import org.abatons.markov.graph.Transitions;
+import org.abatons.markov.graph.TransitionsBuilder;
+
+/**
+ * <p>Counts the transitions seen in one contiguous run of words from the text, for one or more graph orders at once.
+ * A single sliding window of the most recent word IDs is kept, as long as the highest order, and each order's history
+ * is the tail end of it.</p>
+ *
+ * <p>A transition is only counted once its whole history has been seen, so the first few words of a run can't be
+ * counted on their own, as their history lies in the words before the run. Those first words are remembered, as are
+ * the last few, so that when the counts for two neighbouring runs are joined with {@link #append(TransitionCounts)},
+ * the transitions spanning the join can be counted too. This means the text can be split into any number of runs,
+ * counted separately and joined back up in order, giving exactly the same counts as one run over the whole text.</p>
+ */
+class TransitionCounts {
+   private final int[] orders;
+   private final int maxOrder;
+
+   /**
+    * One table for each of the orders
+    */
+   private final HistoryTable<TransitionsBuilder>[] wordHistoryToTransitions;
+
+   /**
+    * The first words of the run, up to the highest order.
+    */
+   private final int[] head;
+   private int headLength;
+
+   /**
+    * The last words of the run, up to the highest order, oldest first.
+    */
+   private final int[] wordIndexHistory;
+   private int wordIndexHistoryLength;
+
+   private long numWords;
+
+   /**
+    * @param inOrders The graph orders to count the transitions for. Each must be at least 1.
+    */
+   @SuppressWarnings({ "unchecked", "rawtypes" })
+   TransitionCounts(final int[] inOrders) {
+      this.orders = inOrders.clone();
+
+      int max = 0;
+      for (final int order : inOrders) {
+         assert (order > 0);
+         max = Math.max(max, order);
+      }
+      this.maxOrder = max;
+
+      this.wordHistoryToTransitions = new HistoryTable[inOrders.length];
+      for (int i = 0; i < inOrders.length; i++) {
+         this.wordHistoryToTransitions[i] = new HistoryTable<TransitionsBuilder>(inOrders[i]);
+      }
+
+      this.head = new int[max];
+      this.wordIndexHistory = new int[max];
+   }
+
+   /**
+    * Takes note of the next word in the run.
+    */
+   void countWord(final int inWordId) {
+      if (this.headLength < this.maxOrder) {
+         this.head[this.headLength++] = inWordId;
+      }
+
+      moveTo(inWordId, 0);
+
+      this.numWords++;
+   }
+
+   /**
+    * Counts the transition to the given word from the current history of each order, where the history is complete,
+    * then appends the word to the window of recent words.
+    *
+    * @param inAlreadyCountedUpToOrder Orders up to and including this have already had this transition counted.
+    */
+   private void moveTo(final int inWordId, final int inAlreadyCountedUpToOrder) {
+      final int historyLength = this.wordIndexHistoryLength;
+
+      for (int i = 0; i < this.orders.length; i++) {
+         final int order = this.orders[i];
+
+         if (order > inAlreadyCountedUpToOrder && historyLength >= order) {
+            // The history of preceeding words is complete (i.e. we have elements equal to the wanted order)
+            final int historyStart = historyLength - order;
+
+            TransitionsBuilder listOfFollowingWords = this.wordHistoryToTransitions[i].get(this.wordIndexHistory,
+                  historyStart);
+            if (listOfFollowingWords == null) {
+               listOfFollowingWords = new TransitionsBuilder();
+               this.wordHistoryToTransitions[i].put(this.wordIndexHistory, historyStart, listOfFollowingWords);
+            }
+
+            listOfFollowingWords.recordTransition(inWordId);
+         }
+      }
+
+      if (historyLength == this.maxOrder) {
+         System.arraycopy(this.wordIndexHistory, 1, this.wordIndexHistory, 0, historyLength - 1);
+         this.wordIndexHistory[historyLength - 1] = inWordId;
+      } else {
+         this.wordIndexHistory[this.wordIndexHistoryLength++] = inWordId;
+      }
+   }
+
+   /**
+    * Adds the counts of an already compiled graph, as if the text it was compiled from had been counted too. The
+    * text is treated as a separate document, so no transitions are counted between its last words and those of this
+    * run.
+    *
+    * @param inOrderIndex Index into the orders given on construction. The graph must be of that order.
+    * @param inGraph Its word IDs must be the same as those being counted. Each transition's numerator is taken as its
+    *           count.
+    */
+   void addCounts(final int inOrderIndex, final Graph inGraph) {
+      assert (inGraph.getOrder() == this.orders[inOrderIndex]);
+
+      final HistoryTable<TransitionsBuilder> into = this.wordHistoryToTransitions[inOrderIndex];
+
+      for (final int[] history : inGraph.getWordHistories()) {
+         TransitionsBuilder counts = into.get(history);
+         if (counts == null) {
+            counts = new TransitionsBuilder();
+            into.put(history, counts);
+         }
+
+         for (final TransitionProbability tp : inGraph.getTransitions(history)) {
+            counts.recordTransitions(tp.targetWordId, tp.getNumerator());
+         }
+      }
+   }
+
+   /**
+    * Joins on the counts for the run of words immediately following this run, so that these counts then cover both
+    * runs. The given counts shouldn't be used afterwards.
+    */
+   void append(final TransitionCounts inFollowingRun) {
+      assert (Arrays.equals(this.orders, inFollowingRun.orders));
+
+      // Count the transitions into the first few words of the following run, which it couldn't count itself. The
+      // word at index i of the following run has already been counted for orders up to i.
+      for (int i = 0; i < inFollowingRun.headLength; i++) {
+         final int wordId = inFollowingRun.head[i];
+
+         if (this.headLength < this.maxOrder) {
+            this.head[this.headLength++] = wordId;
+         }
+
+         moveTo(wordId, i);
+      }
+
+      if (inFollowingRun.numWords > this.maxOrder) {
+         System.arraycopy(inFollowingRun.wordIndexHistory, 0, this.wordIndexHistory, 0, this.maxOrder);
+         this.wordIndexHistoryLength = this.maxOrder;
+      }
+
+      this.numWords += inFollowingRun.numWords;
+
+      for (int i = 0; i < this.orders.length; i++) {
+         this.wordHistoryToTransitions[i] = merge(this.wordHistoryToTransitions[i],
+               inFollowingRun.wordHistoryToTransitions[i]);
+      }
+   }
+
+   /**
+    * Adds the smaller table into the larger.
+    *
+    * @return The larger table, now holding the counts of both.
+    */
+   private static HistoryTable<TransitionsBuilder> merge(final HistoryTable<TransitionsBuilder> inFirst,
+                                                         final HistoryTable<TransitionsBuilder> inSecond) {
+      final HistoryTable<TransitionsBuilder> into = (inFirst.size() >= inSecond.size()) ? inFirst : inSecond;
+      final HistoryTable<TransitionsBuilder> from = (into == inFirst) ? inSecond : inFirst;
+
+      for (int slot = 0; slot < from.getNumSlots(); slot++) {
+         final TransitionsBuilder counts = from.getValueAt(slot);
+         if (counts == null) {
+            continue;
+         }
+
+         final int[] history = from.getHistoryAt(slot);
+         final TransitionsBuilder existing = into.get(history);
+
+         if (existing == null) {
+            into.put(history, counts);
+         } else {
+            existing.recordTransitions(counts);
+         }
+      }
+
+      return into;
+   }
+
+   /**
+    * Changes the ID of every word counted, in the histories and the target words. For use once all of the text has
+    * been counted using provisional word IDs.
+    *
+    * @param inOldToNewWordIds The new ID of each word, indexed by its current ID.
+    */
+   void remapWordIds(final int[] inOldToNewWordIds) {
+      for (int i = 0; i < this.orders.length; i++) {
+         final HistoryTable<TransitionsBuilder> old = this.wordHistoryToTransitions[i];
+         final HistoryTable<TransitionsBuilder> remapped = new HistoryTable<TransitionsBuilder>(this.orders[i],
+               old.size());
+
+         for (int slot = 0; slot < old.getNumSlots(); slot++) {
+            final TransitionsBuilder counts = old.getValueAt(slot);
+            if (counts == null) {
+               continue;
+            }
+
+            final int[] history = old.getHistoryAt(slot);
+            remap(history, history.length, inOldToNewWordIds);
+
+            counts.remapTargetWordIds(inOldToNewWordIds);
+
+            remapped.put(history, counts);
+         }
+
+         this.wordHistoryToTransitions[i] = remapped;
+      }
+
+      remap(this.head, this.headLength, inOldToNewWordIds);
+      remap(this.wordIndexHistory, this.wordIndexHistoryLength, inOldToNewWordIds);
+   }
+
+   /**
+    * Leaves out the histories and transitions that the first two rules of the given pruning say to, for every order.
+    * For use once all of the text has been counted.
+    *
+    * @param inReport Has every history counted, and what's left out noted
+    */
+   void prune(final Pruning inPruning, final PruningReport inReport) {
+      for (int i = 0; i < this.orders.length; i++) {
+         final int order = this.orders[i];
+         final HistoryTable<TransitionsBuilder> old = this.wordHistoryToTransitions[i];
+         final HistoryTable<TransitionsBuilder> pruned = new HistoryTable<TransitionsBuilder>(order, old.size());
+
+         for (int slot = 0; slot < old.getNumSlots(); slot++) {
+            final TransitionsBuilder counts = old.getValueAt(slot);
+            if (counts == null) {
+               continue;
+            }
+
+            inReport.countHistory(order, counts.getNumberTransitions());
+
+            if (counts.getTotal() < inPruning.getMinHistoryCount()) {
+               inReport.historyBelowMinCount(order, counts.getNumberTransitions());
+               continue;
+            }
+
+            if (inPruning.getMaxTransitionsPerHistory() > 0) {
+               inReport.transitionsOverMax(counts.keepMostFrequent(inPruning.getMaxTransitionsPerHistory()));
+            }
+
+            pruned.put(old.getHistoryAt(slot), counts);
+         }
+
+         this.wordHistoryToTransitions[i] = pruned;
+      }
+   }
+
+   /**
+    * @param inNumWords The number of words in the dictionary
+    * @return Whether each word, indexed by its ID, is in any history, or is the target of any transition, of any
+    *         order
+    */
+   boolean[] getReferencedWords(final int inNumWords) {
+      final boolean[] referenced = new boolean[inNumWords];
+
+      for (final HistoryTable<TransitionsBuilder> table : this.wordHistoryToTransitions) {
+         for (int slot = 0; slot < table.getNumSlots(); slot++) {
+            final TransitionsBuilder counts = table.getValueAt(slot);
+            if (counts == null) {
+               continue;
+            }
+
+            for (final int wordId : table.getHistoryAt(slot)) {
+               referenced[wordId] = true;
+            }
+            for (final int wordId : counts.getTargetWordIds()) {
+               referenced[wordId] = true;
+            }
+         }
+      }
+
+      return referenced;
+   }
+
+   private static void remap(final int[] inWordIds, final int inLength, final int[] inOldToNewWordIds) {
+      for (int w = 0; w < inLength; w++) {
+         inWordIds[w] = inOldToNewWordIds[inWordIds[w]];
+      }
+   }
+
+   /**
+    * @return The total number of words in the run
+    */
+   long getNumWords() {
+      return this.numWords;
+   }
+
+   /**
+    * @param inOrderIndex Index into the orders given on construction
+    */
+   int getNumWordHistories(final int inOrderIndex) {
+      return this.wordHistoryToTransitions[inOrderIndex].size();
+   }
+
+   /**
+    * Sorts and calculates the probabilities of every history's transitions for one of the orders, now that all have
+    * been counted.
+    *
+    * @param inOrderIndex Index into the orders given on construction
+    * @return A table of the history to a list the words which follow (containing each target word's ID and chance of
+    *         appearing, greatest chance ordered first). The histories are put in the table in sorted order, so that
+    *         the table is always the same for the same counts, however they were arrived at.
+    */
+   HistoryTable<Transitions> freeze(final int inOrderIndex) {
+      final HistoryTable<TransitionsBuilder> counts = this.wordHistoryToTransitions[inOrderIndex];
+
+      final int[][] sortedHistories = counts.getHistories();
+
+      final HistoryTable<Transitions> frozen = new HistoryTable<Transitions>(this.orders[inOrderIndex],
+            sortedHistories.length);
+
+      for (final int[] history : sortedHistories) {
+         frozen.put(history, counts.get(history).freeze());
+      }
+
+      return frozen;
+   }
+}
@@ -1,23 +1,55 @@
 package org.abatons.markov.compiler;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
+/**
+ * Splits the characters read from a Reader into words, on whitespace. The characters are read from the Reader in
+ * bulk, so there's no need to wrap it in a BufferedReader.
+ */
 public class WordReader {
+    private static final int BUFFER_SIZE = 1 << 13;
+    
     private final Reader mReader;
     
+    private final char[] mBuffer;
+    private int mBufferPosition;
+    private int mBufferLimit;
+    
     public WordReader(final Reader inInputStream) throws FileNotFoundException {
         mReader = inInputStream;
+        mBuffer = new char[BUFFER_SIZE];
     }
     
+    /**
+     * Reads a file through a FileChannel, decoding large blocks of bytes at a time.
+     */
     public static class FileWordReader extends WordReader {
+        private static final int CHANNEL_BUFFER_SIZE = 1 << 16;
+        
+        /**
+         * Reads the file using the platform's default charset.
+         */
         public FileWordReader(final String inPath) throws FileNotFoundException {
-            super(new FileReader(inPath));
+            this(new File(inPath), Charset.defaultCharset());
+        }
+        
+        /**
+         * @param inCharset The encoding of the file. Any malformed input is replaced rather than reported.
+         */
+        public FileWordReader(final File inFile, final Charset inCharset) throws FileNotFoundException {
+            super(Channels.newReader(new FileInputStream(inFile).getChannel(), inCharset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE), 
+                    CHANNEL_BUFFER_SIZE));
         }
     }
     
@@ -30,7 +62,7 @@ public class WordReader {
 	public String readWord() throws IOException {
 		final StringBuilder oneWordSB = new StringBuilder();
 		
-		for(int intLetter = mReader.read(); intLetter != -1; intLetter = mReader.read()) {
+		for(int intLetter = read(); intLetter != -1; intLetter = read()) {
 			final char charLetter = (char) intLetter;
 			
 			if(Character.isWhitespace(charLetter)) {
@@ -51,6 +83,23 @@ public class WordReader {
 		return oneWord;
 	}
 	
+	/**
+	 * @return The next character, or -1 if there are no more.
+	 */
+	private int read() throws IOException {
+	    if(mBufferPosition == mBufferLimit) {
+	        mBufferPosition = 0;
+	        mBufferLimit = mReader.read(mBuffer, 0, mBuffer.length);
+	        
+	        if(mBufferLimit <= 0) {
+	            mBufferLimit = 0;
+	            return -1;
+	        }
+	    }
+	    
+	    return mBuffer[mBufferPosition++];
+	}
+	
 	/**
 	 * Reads all words remaining in the file, removes any duplicates and sorts them according to their natural order
 	 * 
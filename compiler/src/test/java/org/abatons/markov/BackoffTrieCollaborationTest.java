@@ -0,0 +1,136 @@
+package org.abatons.markov;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.abatons.markov.compiler.GraphCompiler;
+import org.abatons.markov.graph.Graph;
+import org.abatons.markov.graph.GraphBackoffTrie;
+import org.abatons.markov.graph.Parody;
+import org.abatons.markov.graph.Transitions;
+import org.abatons.markov.graph.dictionary.DictionaryLookup;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BackoffTrieCollaborationTest {
+  private static final String text = "She sells sea shells by the sea shore. The shells she sells are surely "
+      + "seashells! So if she sells shells on the seashore, I'm sure she sells seashore shells. Peter Piper picked a "
+      + "peck of pickled peppers. A peck of pickled peppers Peter Piper picked. If Peter Piper picked a peck of "
+      + "pickled peppers, where's the peck of pickled peppers Peter Piper picked?";
+
+  private Graph[] graphs;
+  private GraphBackoffTrie trie;
+  private DictionaryLookup dict;
+
+  @Before
+  public void before() throws IOException {
+    this.graphs = GraphCompiler.createGraphs(text, 1, 2, 3, 4);
+    this.trie = new GraphBackoffTrie(this.graphs, 1);
+    this.dict = this.trie.getDictionary();
+  }
+
+  @Test
+  public void sameAsEachOrder_whereItsHistoryIsKnown() {
+    for (final Graph graph : this.graphs) {
+      for (final int[] history : graph.getWordHistories()) {
+        assertEquals(graph.getOrder(), this.trie.getBackoffOrder(history));
+        assertSameTransitions(graph.getTransitions(history), this.trie.getTransitions(history));
+      }
+    }
+
+    assertEquals(4, this.trie.getOrder());
+    assertArrayEquals(this.graphs[3].getWordHistories(), this.trie.getWordHistories());
+  }
+
+  @Test
+  public void backsOffToTheLongestKnownSuffix() {
+    // "sea shells" is known, but not after "peck"
+    final int[] history = ids("peck", "peck", "sea", "shells");
+
+    assertEquals(0, this.graphs[3].getTransitions(history).getNumberTransitions());
+    assertEquals(2, this.trie.getBackoffOrder(history));
+    assertSameTransitions(this.graphs[1].getTransitions(ids("sea", "shells")), this.trie.getTransitions(history));
+
+    // Not even the most recent word is known to be followed by anything
+    final int[] ending = ids("peck", "peck", "peck", "?");
+    assertEquals(0, this.trie.getBackoffOrder(ending));
+    assertTrue(this.trie.getTransitions(ending).getNumberTransitions() > 0);
+  }
+
+  @Test
+  public void backsOffFromHistoriesSeenTooFewTimes() {
+    final GraphBackoffTrie sparse = new GraphBackoffTrie(this.graphs, 3);
+
+    // "pickled peppers" is seen four times, but each longer history fewer than three times
+    final int[] history = ids("a", "peck", "pickled", "peppers");
+    assertEquals(2, sparse.getBackoffOrder(history));
+    assertSameTransitions(this.graphs[1].getTransitions(ids("pickled", "peppers")), sparse.getTransitions(history));
+  }
+
+  @Test
+  public void neverStalls() {
+    // The text's last history isn't followed by anything, so a parody of the order 4 graph stops there
+    final int[] last = ids("the", "peck", "of", "pickled");
+    final int[] end = ids("Peter", "Piper", "picked", "?");
+    assertEquals(0, this.graphs[3].getTransitions(end).getNumberTransitions());
+    assertTrue(this.graphs[3].getTransitions(last).getNumberTransitions() > 0);
+
+    final Random rng = new Random(42);
+    for (int i = 0; i < 20; i++) {
+      assertEquals(500, new Parody(this.trie, end, rng).generateParody(500).split(" ").length);
+      assertEquals(500, new Parody(this.trie, ids("Unknown", "words", "to", "start"), rng).generateParody(500)
+          .split(" ").length);
+    }
+  }
+
+  @Test
+  public void smallerThanTheGraphsOfEveryOrder() {
+    long separately = 0;
+    for (final Graph graph : this.graphs) {
+      final int[][] histories = graph.getWordHistories();
+
+      // As GraphCompressedRows, an int for each word of each history, plus its row offset and denominator, then
+      // two for each transition
+      separately += 4L * (histories.length * (graph.getOrder() + 2) + 1);
+      for (final int[] history : histories) {
+        separately += 8L * graph.getTransitions(history).getNumberTransitions();
+      }
+    }
+
+    assertTrue(this.trie.getSizeInBytes() + " >= " + separately, this.trie.getSizeInBytes() < separately);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void throws_whenAnOrderIsMissing() throws IOException {
+    new GraphBackoffTrie(new Graph[] { this.graphs[0], this.graphs[2] }, 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void throws_whenThereAreNoGraphs() {
+    new GraphBackoffTrie(new Graph[0], 1);
+  }
+
+  private int[] ids(final String... inWords) {
+    final int[] ids = new int[inWords.length];
+    for (int i = 0; i < inWords.length; i++) {
+      ids[i] = (this.dict.getWordId(inWords[i]) == null) ? this.dict.getNumUniqueWords() + i
+          : this.dict.getWordId(inWords[i]);
+    }
+
+    return ids;
+  }
+
+  private static void assertSameTransitions(final Transitions inExpected, final Transitions inActual) {
+    assertEquals(inExpected.getNumberTransitions(), inActual.getNumberTransitions());
+
+    for (int i = 0; i < inExpected.getNumberTransitions(); i++) {
+      assertEquals(inExpected.get(i).targetWordId, inActual.get(i).targetWordId);
+      assertEquals(inExpected.get(i).getNumerator(), inActual.get(i).getNumerator());
+      assertEquals(inExpected.get(i).getDenominator(), inActual.get(i).getDenominator());
+    }
+  }
+}
@@ -19,7 +19,7 @@ public class BugFixesCollaborationTest {
     
     final DictionaryLookup d = g.getDictionary();
     
-    final String startingWordHistory = "" + d.getWordId("Yes");
+    final int[] startingWordHistory = new int[] { d.getWordId("Yes") };
     
     final Parody p = new Parody(g, startingWordHistory, new NonRandomNG());
     
@@ -34,7 +34,7 @@ public class BugFixesCollaborationTest {
     
     final DictionaryLookup d = g.getDictionary();
     
-    final String startingWordHistory = "" + d.getWordId("A");
+    final int[] startingWordHistory = new int[] { d.getWordId("A") };
     
     final NonRandomNG rng = new NonRandomNG();
     
@@ -59,4 +59,26 @@ public class BugFixesCollaborationTest {
     rng.unrandomTarget = 0;
     assertNull(p.getNextWord());
   }
+
+  @Test
+  public void moreUniqueWordsThanFitInAChar() throws IOException {
+    final int numWords = Character.MAX_VALUE + 1000;
+
+    final StringBuilder text = new StringBuilder();
+    for (int i = 0; i < numWords; i++) {
+      text.append('w').append(i).append(' ');
+    }
+
+    final Graph g = GraphCompiler.createGraph(text.toString(), 2);
+
+    final DictionaryLookup d = g.getDictionary();
+    assertEquals(numWords, d.getNumUniqueWords());
+
+    final int[] startingWordHistory = new int[] { d.getWordId("w66000"), d.getWordId("w66001") };
+
+    final Parody p = new Parody(g, startingWordHistory, new NonRandomNG());
+
+    assertEquals("w66002", p.getNextWord());
+    assertEquals("w66003", p.getNextWord());
+  }
 }
@@ -0,0 +1,233 @@
+package org.abatons.markov;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.abatons.markov.compiler.GraphCompiler;
+import org.abatons.markov.graph.Graph;
+import org.abatons.markov.graph.GraphCompressedBlocks;
+import org.abatons.markov.graph.GraphCompressedRows;
+import org.abatons.markov.graph.GraphPersistenceRawMapped;
+import org.abatons.markov.graph.Parody;
+import org.abatons.markov.graph.TransitionProbability;
+import org.abatons.markov.graph.dictionary.DictionaryLookup;
+import org.abatons.markov.graph.dictionary.DictionaryLookupBinarySearch;
+import org.abatons.markov.graph.dictionary.DictionaryLookupCached;
+import org.abatons.markov.graph.dictionary.DictionaryLookupFrontCoded;
+import org.abatons.markov.graph.dictionary.DictionaryLookupPerfectHash;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Many threads hammering the same graphs and dictionaries at once, all starting together, to shake out any read
+ * that isn't thread safe. Each thread's results are compared with those from a single thread.
+ */
+public class ConcurrentReadsCollaborationTest {
+  private static final int NUM_THREADS = 8;
+  private static final int NUM_ROUNDS = 20;
+
+  private static final String filenameMapped = "ConcurrentReadsCollaborationTest.raw2";
+
+  private static Graph graph;
+  private static String[] words;
+  private static ExecutorService threads;
+
+  @BeforeClass
+  public static void setup() throws IOException {
+    graph = GraphCompiler.createGraph(randomText(new Random(42), 400, 20000), 2);
+
+    words = new String[graph.getDictionary().getNumUniqueWords()];
+    for (int wordId = 0; wordId < words.length; wordId++) {
+      words[wordId] = graph.getDictionary().getWord(wordId);
+    }
+
+    threads = Executors.newFixedThreadPool(NUM_THREADS);
+  }
+
+  @AfterClass
+  public static void teardown() {
+    threads.shutdown();
+    new File(filenameMapped).delete();
+  }
+
+  private static String randomText(final Random inRng, final int inNumWords, final int inLength) {
+    final String[] ends = new String[] { ".", "?", "!" };
+
+    final StringBuilder text = new StringBuilder();
+    while (text.length() < inLength) {
+      text.append("w").append(inRng.nextInt(inNumWords));
+      text.append(inRng.nextInt(8) == 0 ? ends[inRng.nextInt(ends.length)] : "").append(' ');
+    }
+
+    return text.toString();
+  }
+
+  @Test
+  public void graph_mapBacked() throws Exception {
+    assertConcurrentReadsOf(graph);
+  }
+
+  @Test
+  public void graph_compressedRows() throws Exception {
+    assertConcurrentReadsOf(new GraphCompressedRows(graph));
+  }
+
+  @Test
+  public void graph_compressedBlocks() throws Exception {
+    // Small blocks, so there are far more of them than are kept decoded, and the threads fight over the cache
+    assertConcurrentReadsOf(new GraphCompressedBlocks(graph, 2, false));
+    assertConcurrentReadsOf(new GraphCompressedBlocks(graph, 8, true));
+  }
+
+  @Test
+  public void graph_mapped() throws Exception {
+    final GraphPersistenceRawMapped persistence = new GraphPersistenceRawMapped(filenameMapped);
+    persistence.save(graph);
+
+    assertConcurrentReadsOf(persistence.load());
+  }
+
+  @Test
+  public void dictionary_cached() throws Exception {
+    // A new one each time, so the threads race to build its map
+    for (int round = 0; round < NUM_ROUNDS; round++) {
+      assertConcurrentReadsOf(new DictionaryLookupCached(words));
+    }
+  }
+
+  @Test
+  public void dictionary_binarySearch() throws Exception {
+    assertConcurrentReadsOf(new DictionaryLookupBinarySearch(words));
+  }
+
+  @Test
+  public void dictionary_frontCoded() throws Exception {
+    assertConcurrentReadsOf(new DictionaryLookupFrontCoded(words));
+    assertConcurrentReadsOf(new DictionaryLookupFrontCoded(words, 7));
+  }
+
+  @Test
+  public void dictionary_perfectHash() throws Exception {
+    assertConcurrentReadsOf(new DictionaryLookupPerfectHash(new DictionaryLookupFrontCoded(words, 7)));
+  }
+
+  private void assertConcurrentReadsOf(final Graph inGraph) throws Exception {
+    final int[][] histories = graph.getWordHistories();
+
+    // Each thread makes a different parody, so they're not all visiting the same histories at the same time
+    final String[] expected = new String[NUM_THREADS];
+    for (int seed = 0; seed < NUM_THREADS; seed++) {
+      expected[seed] = walk(inGraph, histories, seed);
+    }
+
+    final AtomicInteger nextSeed = new AtomicInteger();
+    final List<String> failures = runTogether(new Callable<String>() {
+      @Override
+      public String call() {
+        final int seed = nextSeed.getAndIncrement() % NUM_THREADS;
+
+        return expected[seed].equals(walk(inGraph, histories, seed)) ? "" : "seed " + seed;
+      }
+    });
+
+    for (final String failure : failures) {
+      assertEquals("", failure);
+    }
+  }
+
+  /**
+   * @return The transitions of every history in turn, a separator, then a parody seeded with the given seed
+   */
+  private static String walk(final Graph inGraph, final int[][] inHistories, final int inSeed) {
+    final StringBuilder walk = new StringBuilder();
+
+    for (final int[] history : inHistories) {
+      for (final TransitionProbability transition : inGraph.getTransitions(history)) {
+        walk.append(transition.targetWordId).append(' ').append(transition.getNumerator()).append('/')
+            .append(transition.getDenominator()).append(' ');
+      }
+      walk.append('\n');
+    }
+    walk.append(inGraph.getTransitions(new int[] { -1, -1 }).getNumberTransitions()).append('|');
+
+    walk.append(new Parody(inGraph, inHistories[inSeed % inHistories.length], new Random(inSeed)).generateParody(200));
+
+    return walk.toString();
+  }
+
+  private void assertConcurrentReadsOf(final DictionaryLookup inDictionary) throws Exception {
+    final List<String> failures = runTogether(new Callable<String>() {
+      @Override
+      public String call() {
+        final StringBuilder failures = new StringBuilder();
+
+        for (int wordId = 0; wordId < words.length; wordId++) {
+          if (!words[wordId].equals(inDictionary.getWord(wordId))) {
+            failures.append("getWord(").append(wordId).append(") ");
+          }
+          if (!Integer.valueOf(wordId).equals(inDictionary.getWordId(words[wordId]))) {
+            failures.append("getWordId(").append(words[wordId]).append(") ");
+          }
+        }
+
+        if (inDictionary.getWordId("not a word") != null) {
+          failures.append("getWordId(not a word)");
+        }
+
+        return failures.toString();
+      }
+    });
+
+    for (final String failure : failures) {
+      assertEquals("", failure);
+    }
+    assertNull(inDictionary.getWordId("w-1"));
+  }
+
+  /**
+   * Runs the task on every thread, all released at the same moment, several times over.
+   *
+   * @return Every result, from every thread and round
+   */
+  private static <T> List<T> runTogether(final Callable<T> inTask) throws Exception {
+    final List<T> results = new ArrayList<T>();
+
+    for (int round = 0; round < NUM_ROUNDS / 4; round++) {
+      final CountDownLatch start = new CountDownLatch(1);
+
+      final List<Future<T>> futures = new ArrayList<Future<T>>();
+      for (int thread = 0; thread < NUM_THREADS; thread++) {
+        futures.add(threads.submit(new Callable<T>() {
+          @Override
+          public T call() throws Exception {
+            start.await();
+            return inTask.call();
+          }
+        }));
+      }
+
+      start.countDown();
+
+      for (final Future<T> future : futures) {
+        results.add(future.get());
+      }
+    }
+
+    assertTrue(results.size() == NUM_THREADS * (NUM_ROUNDS / 4));
+    return results;
+  }
+}
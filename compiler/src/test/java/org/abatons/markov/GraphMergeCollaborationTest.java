@@ -0,0 +1,141 @@
+package org.abatons.markov;
+
+import static org.abatons.markov.SerialisedGraphs.serialise;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.abatons.markov.compiler.GraphCompiler;
+import org.abatons.markov.graph.Graph;
+import org.abatons.markov.graph.GraphCompressedBlocks;
+import org.abatons.markov.graph.GraphCompressedRows;
+import org.abatons.markov.graph.GraphMerger;
+import org.abatons.markov.graph.GraphPersistenceRawMapped;
+import org.abatons.markov.graph.GraphPersistenceSqlite;
+import org.abatons.markov.graph.GraphSqlite;
+import org.abatons.markov.graph.TransitionProbability;
+import org.abatons.markov.graph.Transitions;
+import org.abatons.markov.graph.dictionary.DictionaryLookup;
+import org.junit.Test;
+
+public class GraphMergeCollaborationTest {
+  private static final String shells = "She sells sea shells by the sea shore. The shells she sells are surely "
+      + "seashells!";
+  private static final String seashore = "So if she sells shells on the seashore, I'm sure she sells seashore "
+      + "shells. Aardvarks sell sea shells too.";
+  private static final String tongue = "Peter Piper picked a peck of pickled peppers. A peck of pickled peppers "
+      + "Peter Piper picked.";
+
+  @Test
+  public void sameAsUpdatingOneGraphWithTheOtherText() throws IOException {
+    for (int order = 1; order < 4; order++) {
+      final Graph merged = GraphMerger.merge(Arrays.asList(GraphCompiler.createGraph(shells, order),
+          GraphCompiler.createGraph(seashore, order)));
+
+      assertArrayEquals(serialise(GraphCompiler.updateGraph(GraphCompiler.createGraph(shells, order), seashore)),
+          serialise(merged));
+    }
+  }
+
+  @Test
+  public void sameWhicheverOrderTheGraphsAreIn() throws IOException {
+    final Graph a = GraphCompiler.createGraph(shells, 2);
+    final Graph b = GraphCompiler.createGraph(seashore, 2);
+    final Graph c = GraphCompiler.createGraph(tongue, 2);
+
+    assertArrayEquals(serialise(GraphMerger.merge(Arrays.asList(a, b, c))),
+        serialise(GraphMerger.merge(Arrays.asList(c, a, b))));
+  }
+
+  @Test
+  public void unchanged_whenMergingASingleGraph() throws IOException {
+    for (int order = 1; order < 4; order++) {
+      final Graph graph = GraphCompiler.createGraph(shells, order);
+
+      assertArrayEquals(serialise(graph), serialise(GraphMerger.merge(Arrays.asList(graph))));
+    }
+  }
+
+  @Test
+  public void sumsTheCountsOfTheSameHistory() throws IOException {
+    final Graph graph = GraphCompiler.createGraph(shells, 1);
+    final Graph merged = GraphMerger.merge(Arrays.asList(graph, graph, graph));
+    final DictionaryLookup dict = merged.getDictionary();
+
+    assertEquals(graph.getDictionary().getNumUniqueWords(), dict.getNumUniqueWords());
+    assertEquals(graph.getWordHistories().length, merged.getWordHistories().length);
+
+    // "sea" is followed by "shells" once and "shore" once, in each of the three
+    final Transitions fromSea = merged.getTransitions(new int[] { dict.getWordId("sea") });
+    assertEquals(2, fromSea.getNumberTransitions());
+    for (final TransitionProbability tp : fromSea) {
+      assertEquals(3, tp.getNumerator());
+      assertEquals(6, tp.getDenominator());
+    }
+  }
+
+  @Test
+  public void remapsTheWordIdsOfEachGraph() throws IOException {
+    final Graph merged = GraphMerger.merge(Arrays.asList(GraphCompiler.createGraph(shells, 2),
+        GraphCompiler.createGraph(tongue, 2)));
+    final DictionaryLookup dict = merged.getDictionary();
+
+    final Transitions fromPickledPeppers = merged.getTransitions(new int[] { dict.getWordId("pickled"),
+        dict.getWordId("peppers") });
+    assertEquals(2, fromPickledPeppers.getNumberTransitions());
+
+    final Transitions fromSeaShells = merged.getTransitions(new int[] { dict.getWordId("sea"),
+        dict.getWordId("shells") });
+    assertEquals(1, fromSeaShells.getNumberTransitions());
+    assertEquals(dict.getWordId("by").intValue(), fromSeaShells.get(0).targetWordId);
+  }
+
+  @Test
+  public void sameWhateverTheKindOfGraphMerged() throws IOException {
+    final Graph a = GraphCompiler.createGraph(shells, 2);
+    final Graph b = GraphCompiler.createGraph(seashore, 2);
+    final byte[] expected = serialise(GraphMerger.merge(Arrays.asList(a, b)));
+
+    assertArrayEquals(expected, serialise(GraphMerger.merge(Arrays.asList((Graph) new GraphCompressedRows(a),
+        new GraphCompressedBlocks(b, 2, true)))));
+
+    final File file = File.createTempFile("GraphMergeCollaborationTest", ".raw2");
+    try {
+      new GraphPersistenceRawMapped(file.getPath()).save(b);
+
+      assertArrayEquals(expected, serialise(GraphMerger.merge(Arrays.asList(a,
+          new GraphPersistenceRawMapped(file.getPath()).load()))));
+    } finally {
+      file.delete();
+    }
+
+    final File db = File.createTempFile("GraphMergeCollaborationTest", ".db");
+    final GraphPersistenceSqlite persistence = new GraphPersistenceSqlite(db.getPath());
+    try {
+      db.delete();
+      persistence.save(b);
+
+      final GraphSqlite lazily = persistence.loadLazily();
+      try {
+        assertArrayEquals(expected, serialise(GraphMerger.merge(Arrays.asList(a, (Graph) lazily))));
+      } finally {
+        lazily.close();
+      }
+    } finally {
+      db.delete();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void throws_whenTheOrdersDiffer() throws IOException {
+    GraphMerger.merge(Arrays.asList(GraphCompiler.createGraph(shells, 1), GraphCompiler.createGraph(seashore, 2)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void throws_whenThereAreNoGraphs() {
+    GraphMerger.merge(Arrays.<Graph> asList());
+  }
+}
@@ -0,0 +1,136 @@
+package org.abatons.markov;
+
+import static org.abatons.markov.SerialisedGraphs.serialise;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import org.abatons.markov.compiler.GraphCompiler;
+import org.abatons.markov.graph.Graph;
+import org.abatons.markov.graph.GraphPersistenceRaw;
+import org.abatons.markov.graph.GraphQuantized;
+import org.abatons.markov.graph.TransitionProbability;
+import org.abatons.markov.graph.TransitionQuantizer;
+import org.abatons.markov.graph.Transitions;
+import org.abatons.markov.graph.dictionary.DictionaryLookup;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class IncrementalCompilationCollaborationTest {
+  private static final String yesterday = "She sells sea shells by the sea shore. The shells she sells are surely "
+      + "seashells!";
+  private static final String today = "So if she sells shells on the seashore, I'm sure she sells seashore shells. "
+      + "Aardvarks sell sea shells too.";
+
+  @Test
+  public void sameAsCompilingTheNewTextAlone_whenThereWasNoText() throws IOException {
+    for (int order = 1; order < 4; order++) {
+      assertArrayEquals(serialise(GraphCompiler.createGraph(today, order)),
+          serialise(GraphCompiler.updateGraph(GraphCompiler.createGraph("", order), today)));
+    }
+  }
+
+  @Test
+  public void unchanged_whenThereIsNoNewText() throws IOException {
+    for (int order = 1; order < 4; order++) {
+      final Graph graph = GraphCompiler.createGraph(yesterday, order);
+
+      assertArrayEquals(serialise(graph), serialise(GraphCompiler.updateGraph(graph, "")));
+    }
+  }
+
+  @Test
+  public void countsBothTexts() throws IOException {
+    final Graph existing = GraphCompiler.createGraph(yesterday, 1);
+    final Graph updated = GraphCompiler.updateGraph(existing, today);
+    final DictionaryLookup dict = updated.getDictionary();
+
+    // "Aardvarks" and "I'm" are new, and sort before "She", so its ID has moved
+    assertTrue(dict.getWordId("Aardvarks") < dict.getWordId("She"));
+    assertEquals(existing.getDictionary().getWordId("She") + 2, dict.getWordId("She").intValue());
+    assertEquals(GraphCompiler.createGraph(yesterday + " " + today, 1).getDictionary().getNumUniqueWords(),
+        dict.getNumUniqueWords());
+
+    // "sells" is followed by "sea" and "are" yesterday, then "shells" and "seashore" today
+    final Transitions fromSells = updated.getTransitions(new int[] { dict.getWordId("sells") });
+    assertEquals(4, fromSells.getNumberTransitions());
+    for (final TransitionProbability tp : fromSells) {
+      assertEquals(1, tp.getNumerator());
+      assertEquals(4, tp.getDenominator());
+    }
+
+    // "sea" is followed by "shells" twice yesterday and once today, and "shore" once
+    final Transitions fromSea = updated.getTransitions(new int[] { dict.getWordId("sea") });
+    assertEquals(dict.getWordId("shells").intValue(), fromSea.get(0).targetWordId);
+    assertEquals(2, fromSea.get(0).getNumerator());
+    assertEquals(3, fromSea.get(0).getDenominator());
+
+    // Nothing is counted across the join between the texts
+    final Transitions fromBang = updated.getTransitions(new int[] { dict.getWordId("!") });
+    assertEquals(0, fromBang.getNumberTransitions());
+  }
+
+  @Test
+  public void sameWhetherUpdatedInMemoryOrAfterBeingSaved() throws IOException {
+    for (int order = 1; order < 4; order++) {
+      final Graph graph = GraphCompiler.createGraph(yesterday, order);
+
+      final Graph reloaded = new GraphPersistenceRaw(new ByteArrayInputStream(serialise(graph)), null).load();
+
+      assertArrayEquals(serialise(GraphCompiler.updateGraph(graph, today)),
+          serialise(GraphCompiler.updateGraph(reloaded, today)));
+    }
+  }
+
+  @Test
+  public void updatesCanBeRepeated() throws IOException {
+    Graph graph = GraphCompiler.createGraph(yesterday, 2);
+    for (int day = 0; day < 3; day++) {
+      graph = GraphCompiler.updateGraph(graph, today);
+    }
+
+    final DictionaryLookup dict = graph.getDictionary();
+    final Transitions fromSeaShells = graph.getTransitions(new int[] { dict.getWordId("sea"),
+        dict.getWordId("shells") });
+
+    // Once yesterday, then once each day
+    assertTrue(fromSeaShells.getNumberTransitions() > 1);
+    assertEquals(4, fromSeaShells.get(0).getDenominator());
+  }
+
+  @Test
+  public void quantizedGraphsStayQuantized_whenUpdatedInPlace() throws Exception {
+    final TransitionQuantizer quantizer = new TransitionQuantizer(8, true);
+    final File graphFile = File.createTempFile("quantized", ".raw");
+    final File textFile = File.createTempFile("today", ".txt");
+    try {
+      new GraphPersistenceRaw(graphFile.getPath(), quantizer).save(GraphCompiler.createGraph(yesterday, 2));
+      FileUtils.writeStringToFile(textFile, today, "UTF-8");
+
+      GraphCompiler.main(new String[] { "--update", graphFile.getPath(), textFile.getPath() });
+
+      final DataInputStream header = new DataInputStream(new FileInputStream(graphFile));
+      try {
+        // After the magic number, version 2 is the quantized raw format
+        header.readInt();
+        assertEquals(2, header.readInt());
+      } finally {
+        header.close();
+      }
+
+      final Graph updated = new GraphPersistenceRaw(graphFile.getPath()).load();
+      assertTrue(updated instanceof GraphQuantized);
+      assertEquals(quantizer, ((GraphQuantized) updated).getQuantizer());
+      assertTrue(updated.getDictionary().getWordId("Aardvarks") != null);
+    } finally {
+      graphFile.delete();
+      textFile.delete();
+    }
+  }
+}
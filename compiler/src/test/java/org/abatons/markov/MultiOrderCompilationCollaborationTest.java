@@ -0,0 +1,68 @@
+package org.abatons.markov;
+
+import static org.abatons.markov.SerialisedGraphs.serialise;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.abatons.markov.compiler.GraphCompiler;
+import org.abatons.markov.graph.Graph;
+import org.junit.Test;
+
+public class MultiOrderCompilationCollaborationTest {
+  private static final String text = "A dance!\" cried Marianne. \"Impossible! Who is to dance?\" Mr. Foo is to "
+      + "dance. Who is to dance with Mr. Foo? Marianne is to dance with Mr. Foo.";
+
+  @Test
+  public void sameAsOneOrderAtATime() throws IOException {
+    final int[] orders = new int[] { 1, 2, 3, 4 };
+
+    final Graph[] graphs = GraphCompiler.createGraphs(text, orders);
+
+    assertEquals(orders.length, graphs.length);
+
+    for (int i = 0; i < orders.length; i++) {
+      assertArrayEquals("order " + orders[i], serialise(GraphCompiler.createGraph(text, orders[i])),
+          serialise(graphs[i]));
+    }
+  }
+
+  @Test
+  public void sameAsOneOrderAtATime_inAnyOrder() throws IOException {
+    final int[] orders = new int[] { 3, 1 };
+
+    final Graph[] graphs = GraphCompiler.createGraphs(text, orders);
+
+    assertArrayEquals(serialise(GraphCompiler.createGraph(text, 3)), serialise(graphs[0]));
+    assertArrayEquals(serialise(GraphCompiler.createGraph(text, 1)), serialise(graphs[1]));
+  }
+
+  @Test
+  public void sameAsOneOrderAtATime_inParallel() throws IOException {
+    final int[] orders = new int[] { 1, 2, 3, 4 };
+
+    final ForkJoinPool pool = new ForkJoinPool(3);
+    try {
+      for (int chunkLength = 1; chunkLength < text.length(); chunkLength += 5) {
+        final Graph[] graphs = GraphCompiler.createGraphs(text, orders, pool, chunkLength);
+
+        for (int i = 0; i < orders.length; i++) {
+          assertArrayEquals("order " + orders[i] + ", chunk length " + chunkLength,
+              serialise(GraphCompiler.createGraph(text, orders[i])), serialise(graphs[i]));
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void graphsShareTheDictionary() throws IOException {
+    final Graph[] graphs = GraphCompiler.createGraphs(text, 1, 2);
+
+    assertSame(graphs[0].getDictionary(), graphs[1].getDictionary());
+  }
+}
@@ -0,0 +1,55 @@
+package org.abatons.markov;
+
+import static org.abatons.markov.SerialisedGraphs.serialise;
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.abatons.markov.compiler.GraphCompiler;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ParallelCompilationCollaborationTest {
+  private static final String text = "She sells sea shells by the sea shore. The shells she sells are surely "
+      + "seashells! So if she sells shells on the seashore, I'm sure she sells seashore shells. Mr. Foo said \"Who "
+      + "sells sea shells?\" and she said \"She sells sea shells by the sea shore.\" She sells.";
+
+  private static ForkJoinPool pool;
+
+  @BeforeClass
+  public static void createPool() {
+    pool = new ForkJoinPool(4);
+  }
+
+  @AfterClass
+  public static void shutdownPool() {
+    pool.shutdown();
+  }
+
+  @Test
+  public void sameAsSequential_forAllChunkSizes() throws IOException {
+    for (int order = 1; order < 5; order++) {
+      final byte[] sequential = serialise(GraphCompiler.createGraph(text, order));
+
+      for (int chunkLength = 1; chunkLength < text.length() + 2; chunkLength += 7) {
+        final byte[] parallel = serialise(GraphCompiler.createGraph(text, order, pool, chunkLength));
+
+        assertArrayEquals("order " + order + ", chunk length " + chunkLength, sequential, parallel);
+      }
+    }
+  }
+
+  @Test
+  public void sameAsSequential_defaultChunkSize() throws IOException {
+    assertArrayEquals(serialise(GraphCompiler.createGraph(text, 2)),
+        serialise(GraphCompiler.createGraph(text, 2, pool)));
+  }
+
+  @Test
+  public void sameAsSequential_emptyText() throws IOException {
+    assertArrayEquals(serialise(GraphCompiler.createGraph("", 1)),
+        serialise(GraphCompiler.createGraph("", 1, pool, 1)));
+  }
+}
@@ -0,0 +1,95 @@
+package org.abatons.markov;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.abatons.markov.compiler.GraphCompiler;
+import org.abatons.markov.graph.Graph;
+import org.abatons.markov.graph.ParodyBatch;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ParallelParodyCollaborationTest {
+  private static final String text = "She sells sea shells by the sea shore. The shells she sells are surely "
+      + "seashells! So if she sells shells on the seashore, I'm sure she sells seashore shells. Mr. Foo said \"Who "
+      + "sells sea shells?\" and she said \"She sells sea shells by the sea shore.\" She sells.";
+
+  private static ForkJoinPool pool;
+  private static Graph graph;
+
+  @BeforeClass
+  public static void setup() throws IOException {
+    pool = new ForkJoinPool(4);
+    graph = GraphCompiler.createGraph(text, 1);
+  }
+
+  @AfterClass
+  public static void shutdownPool() {
+    pool.shutdown();
+  }
+
+  private static ParodyBatch.Request[] requests(final int inNumRequests) {
+    final int[] fromShe = new int[] { graph.getDictionary().getWordId("She") };
+
+    final ParodyBatch.Request[] requests = new ParodyBatch.Request[inNumRequests];
+    for (int i = 0; i < inNumRequests; i++) {
+      requests[i] = new ParodyBatch.Request(fromShe, 20, i, i % 2 == 0);
+    }
+
+    return requests;
+  }
+
+  @Test
+  public void sameForTheSameSeeds_howeverManyThreads() {
+    final ParodyBatch.Request[] requests = requests(500);
+
+    final String[] parallel = new ParodyBatch(graph, pool).generate(requests);
+
+    final ForkJoinPool singleThread = new ForkJoinPool(1);
+    final String[] single = new ParodyBatch(graph, singleThread).generate(requests);
+    singleThread.shutdown();
+
+    assertArrayEquals(single, parallel);
+    assertArrayEquals(parallel, new ParodyBatch(graph, pool).generate(requests));
+
+    for (int i = 0; i < requests.length; i++) {
+      assertEquals(parallel[i], new ParodyBatch(graph).generate(requests[i]));
+    }
+  }
+
+  @Test
+  public void differentSeedsGiveDifferentParodies() {
+    final Set<String> distinct = new HashSet<String>();
+    for (final String parody : new ParodyBatch(graph, pool).generate(requests(100))) {
+      distinct.add(parody);
+    }
+
+    assertTrue(distinct.size() > 10);
+  }
+
+  @Test
+  public void stopsAtTheEndOfTheSentence() {
+    final String[] parodies = new ParodyBatch(graph, pool).generate(requests(100));
+
+    for (int i = 0; i < parodies.length; i += 2) {
+      final String[] words = parodies[i].split(" ");
+
+      assertTrue(words.length <= 20);
+      for (int w = 0; w < words.length - 1; w++) {
+        assertTrue(parodies[i], !words[w].matches("[.?!]\"?"));
+      }
+    }
+  }
+
+  @Test
+  public void emptyBatch() {
+    assertEquals(0, new ParodyBatch(graph, pool).generate(new ParodyBatch.Request[0]).length);
+  }
+}
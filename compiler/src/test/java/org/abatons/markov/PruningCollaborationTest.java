@@ -0,0 +1,139 @@
+package org.abatons.markov;
+
+import static org.abatons.markov.SerialisedGraphs.serialise;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+
+import org.abatons.markov.compiler.GraphCompiler;
+import org.abatons.markov.compiler.Pruning;
+import org.abatons.markov.compiler.PruningReport;
+import org.abatons.markov.compiler.TextSource;
+import org.abatons.markov.graph.Graph;
+import org.abatons.markov.graph.TransitionProbability;
+import org.abatons.markov.graph.Transitions;
+import org.abatons.markov.graph.dictionary.DictionaryLookup;
+import org.junit.Test;
+
+public class PruningCollaborationTest {
+  private static final String text = "She sells sea shells by the sea shore. The shells she sells are surely seashells! "
+      + "So if she sells shells on the seashore, I'm sure she sells seashore shells. Aardvarks sell sea shells too.";
+
+  @Test
+  public void unchanged_whenNothingIsPruned() throws IOException {
+    for (int order = 1; order < 4; order++) {
+      assertArrayEquals(serialise(GraphCompiler.createGraph(text, order)),
+          serialise(GraphCompiler.createGraph(text, order, Pruning.NONE)));
+      assertArrayEquals(serialise(GraphCompiler.createGraph(text, order)),
+          serialise(GraphCompiler.createGraph(text, order, new Pruning(1, 0, false))));
+    }
+  }
+
+  @Test
+  public void dropsHistoriesSeenTooFewTimes() throws IOException {
+    final Graph full = GraphCompiler.createGraph(text, 1);
+    final PruningReport report = new PruningReport();
+    final Graph pruned = GraphCompiler.createGraphs(Collections.singletonList(TextSource.fromString(text)),
+        new Pruning(3, 0, false), report, 1)[0];
+
+    int expectedHistories = 0;
+    for (final int[] history : full.getWordHistories()) {
+      if (full.getTransitions(history).get(0).getDenominator() >= 3) {
+        expectedHistories++;
+      }
+    }
+    assertTrue(expectedHistories > 0);
+    assertEquals(expectedHistories, pruned.getWordHistories().length);
+
+    for (final int[] history : pruned.getWordHistories()) {
+      assertTrue(pruned.getTransitions(history).get(0).getDenominator() >= 3);
+    }
+
+    // "sells" is followed by four different words
+    final DictionaryLookup dict = pruned.getDictionary();
+    assertEquals(4, pruned.getTransitions(new int[] { dict.getWordId("sells") }).getNumberTransitions());
+
+    assertEquals(full.getWordHistories().length, report.getNumHistories());
+    assertEquals(full.getWordHistories().length - expectedHistories, report.getHistoriesBelowMinCount());
+    assertEquals(0, report.getTransitionsOverMax());
+    assertEquals(0, report.getUnreachableWords());
+    assertTrue(report.getBytesBelowMinCount() > 0);
+  }
+
+  @Test
+  public void keepsOnlyTheMostFrequentTransitions() throws IOException {
+    final Graph full = GraphCompiler.createGraph(text, 1);
+    final Graph pruned = GraphCompiler.createGraph(text, 1, new Pruning(0, 1, false));
+
+    assertEquals(full.getWordHistories().length, pruned.getWordHistories().length);
+
+    for (final int[] history : pruned.getWordHistories()) {
+      final Transitions transitions = pruned.getTransitions(history);
+      final TransitionProbability mostFrequent = full.getTransitions(history).get(0);
+
+      assertEquals(1, transitions.getNumberTransitions());
+      assertEquals(mostFrequent.targetWordId, transitions.get(0).targetWordId);
+      assertEquals(mostFrequent.getNumerator(), transitions.get(0).getNumerator());
+      assertEquals(transitions.get(0).getNumerator(), transitions.get(0).getDenominator());
+    }
+  }
+
+  @Test
+  public void compactsTheDictionary_whenWordsAreLeftUnreachable() throws IOException {
+    final Graph full = GraphCompiler.createGraph(text, 2);
+    final PruningReport report = new PruningReport();
+    final Graph pruned = GraphCompiler.createGraphs(Collections.singletonList(TextSource.fromString(text)),
+        new Pruning(2, 1, true), report, 2)[0];
+
+    final DictionaryLookup dict = pruned.getDictionary();
+    assertTrue(dict.getNumUniqueWords() < full.getDictionary().getNumUniqueWords());
+    assertEquals(full.getDictionary().getNumUniqueWords() - dict.getNumUniqueWords(), report.getUnreachableWords());
+
+    // Every word left is in a history or transition, and they're still sorted
+    final boolean[] referenced = new boolean[dict.getNumUniqueWords()];
+    for (final int[] history : pruned.getWordHistories()) {
+      for (final int wordId : history) {
+        referenced[wordId] = true;
+      }
+      for (final TransitionProbability tp : pruned.getTransitions(history)) {
+        referenced[tp.targetWordId] = true;
+      }
+    }
+    for (int wordId = 0; wordId < referenced.length; wordId++) {
+      assertTrue(dict.getWord(wordId), referenced[wordId]);
+      assertEquals(wordId, dict.getWordId(dict.getWord(wordId)).intValue());
+      if (wordId > 0) {
+        assertTrue(dict.getWord(wordId - 1).compareTo(dict.getWord(wordId)) < 0);
+      }
+    }
+
+    // "sea shells" is seen three times, followed by different words, so the one first alphabetically is kept
+    final Transitions fromSeaShells = pruned.getTransitions(new int[] { dict.getWordId("sea"),
+        dict.getWordId("shells") });
+    assertEquals(1, fromSeaShells.getNumberTransitions());
+    assertEquals("by", dict.getWord(fromSeaShells.get(0).targetWordId));
+    assertEquals(1, fromSeaShells.get(0).getDenominator());
+
+    assertEquals(report.getNumBytes() - report.getBytesBelowMinCount() - report.getBytesOverMax()
+        - report.getBytesUnreachable(), report.getNumBytesLeft());
+  }
+
+  @Test
+  public void sameWhetherPrunedInParallelOrNot() throws IOException {
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    final Pruning pruning = new Pruning(2, 2, true);
+
+    try {
+      for (int order = 1; order < 4; order++) {
+        assertArrayEquals(serialise(GraphCompiler.createGraph(text, order, pruning)),
+            serialise(GraphCompiler.createGraphs(text, new int[] { order }, pool, pruning, null)[0]));
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
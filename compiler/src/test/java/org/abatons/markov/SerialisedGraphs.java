@@ -0,0 +1,23 @@
+package org.abatons.markov;
+
+import java.io.ByteArrayOutputStream;
+
+import org.abatons.markov.graph.Graph;
+import org.abatons.markov.graph.GraphPersistenceRaw;
+
+/**
+ * Graphs are compared by the bytes they save as, which only match if their dictionaries, histories and transitions
+ * all do.
+ */
+final class SerialisedGraphs {
+  private SerialisedGraphs() {
+  }
+
+  static byte[] serialise(final Graph inGraph) {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    new GraphPersistenceRaw(null, bytes).save(inGraph);
+
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,101 @@
+package org.abatons.markov;
+
+import static org.abatons.markov.SerialisedGraphs.serialise;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import org.abatons.markov.compiler.GraphCompiler;
+import org.abatons.markov.compiler.TextSource;
+import org.abatons.markov.graph.Graph;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamingCompilationCollaborationTest {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final String firstText = "She sells sea shells by the sea shore. \u00C7a sells?";
+  private static final String secondText = "The shells she sells are surely seashells!\n\"\u00C7a?\" she sells.";
+
+  private File directory;
+
+  @Before
+  public void createFiles() throws IOException {
+    directory = File.createTempFile("StreamingCompilationCollaborationTest", "");
+    directory.delete();
+    directory.mkdir();
+
+    write(new File(directory, "1.txt"), firstText);
+
+    final File subdirectory = new File(directory, "2");
+    subdirectory.mkdir();
+    write(new File(subdirectory, "2.txt"), secondText);
+  }
+
+  @After
+  public void deleteFiles() {
+    new File(directory, "1.txt").delete();
+    new File(new File(directory, "2"), "2.txt").delete();
+    new File(directory, "2").delete();
+    directory.delete();
+  }
+
+  @Test
+  public void directory_sameAsTheConcatenatedText() throws IOException {
+    final List<TextSource> sources = TextSource.fromFileOrDirectory(directory, UTF8);
+    assertEquals(2, sources.size());
+
+    final int[] orders = new int[] { 1, 2, 3 };
+
+    final Graph[] streamed = GraphCompiler.createGraphs(sources, orders);
+    final Graph[] inMemory = GraphCompiler.createGraphs(firstText + " " + secondText, orders);
+
+    for (int i = 0; i < orders.length; i++) {
+      assertArrayEquals(serialise(inMemory[i]), serialise(streamed[i]));
+    }
+
+    assertNotNull(streamed[0].getDictionary().getWordId("\u00C7a"));
+  }
+
+  @Test
+  public void readerFactory_sameAsTheText() throws IOException {
+    final TextSource source = TextSource.fromReaderFactory(new TextSource.ReaderFactory() {
+      @Override
+      public Reader newReader() {
+        return new StringReader(secondText);
+      }
+    });
+
+    final Graph streamed = GraphCompiler.createGraphs(Arrays.asList(source), 2)[0];
+
+    assertArrayEquals(serialise(GraphCompiler.createGraph(secondText, 2)), serialise(streamed));
+  }
+
+  @Test
+  public void reader_sameAsTheText() throws IOException {
+    final TextSource source = TextSource.fromReader(new StringReader(firstText));
+
+    final Graph streamed = GraphCompiler.createGraphs(Arrays.asList(source), 1)[0];
+
+    assertArrayEquals(serialise(GraphCompiler.createGraph(firstText, 1)), serialise(streamed));
+  }
+
+  private static void write(final File inFile, final String inText) throws IOException {
+    final FileOutputStream out = new FileOutputStream(inFile);
+    try {
+      out.write(inText.getBytes(UTF8));
+    } finally {
+      out.close();
+    }
+  }
+}
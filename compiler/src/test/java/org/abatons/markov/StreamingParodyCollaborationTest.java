@@ -0,0 +1,102 @@
+package org.abatons.markov;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.CharBuffer;
+
+import org.abatons.markov.compiler.GraphCompiler;
+import org.abatons.markov.graph.Graph;
+import org.abatons.markov.graph.Parody;
+import org.abatons.markov.graph.dictionary.DictionaryLookup;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamingParodyCollaborationTest {
+  private Graph graph;
+  private DictionaryLookup dict;
+
+  @Before
+  public void before() throws IOException {
+    // Always choosing the first transition goes round and round the two sentences
+    this.graph = GraphCompiler.createGraph("She sells sea shells. The end.", 1);
+    this.dict = this.graph.getDictionary();
+  }
+
+  private Parody fromShe() {
+    return new Parody(this.graph, new int[] { this.dict.getWordId("She") }, new NonRandomNG());
+  }
+
+  @Test
+  public void generate_stopsAtTheEndOfTheSentence() throws IOException {
+    final StringBuilder out = new StringBuilder();
+
+    assertEquals(4, fromShe().generate(out, 100, true));
+    assertEquals("sells sea shells .", out.toString());
+  }
+
+  @Test
+  public void generate_stopsAtTheWordCount() throws IOException {
+    final StringBuilder out = new StringBuilder();
+
+    assertEquals(3, fromShe().generate(out, 3, true));
+    assertEquals("sells sea shells", out.toString());
+  }
+
+  @Test
+  public void generate_carriesOnPastTheEndOfTheSentence() throws IOException {
+    final StringWriter out = new StringWriter();
+
+    assertEquals(7, fromShe().generate(out, 7, false));
+    assertEquals("sells sea shells . The end .", out.toString());
+  }
+
+  @Test
+  public void generate_intoACharBuffer() throws IOException {
+    final CharBuffer out = CharBuffer.allocate(64);
+
+    final Parody p = fromShe();
+    p.generate(out, 100, true);
+
+    // Carries on from where it stopped
+    out.append(' ');
+    p.generate(out, 100, true);
+
+    out.flip();
+    assertEquals("sells sea shells . The end .", out.toString());
+  }
+
+  @Test
+  public void generate_stopsWhereNoWordsFollow() throws IOException {
+    final Graph tongueTwister = GraphCompiler.createGraph("She sells sea shells by the sea shore.", 1);
+    final int[] fromShore = new int[] { tongueTwister.getDictionary().getWordId("shore") };
+
+    final StringBuilder out = new StringBuilder();
+    assertEquals(1, new Parody(tongueTwister, fromShore, new NonRandomNG()).generate(out, 10, false));
+    assertEquals(".", out.toString());
+
+    assertEquals(".", new Parody(tongueTwister, fromShore, new NonRandomNG()).generateParody(10));
+  }
+
+  @Test
+  public void generateWordIds() {
+    final int[] into = new int[10];
+
+    assertEquals(4, fromShe().generateWordIds(into, 1, 9, true));
+
+    assertEquals(0, into[0]);
+    assertEquals(this.dict.getWordId("sells").intValue(), into[1]);
+    assertEquals(this.dict.getWordId("sea").intValue(), into[2]);
+    assertEquals(this.dict.getWordId("shells").intValue(), into[3]);
+    assertEquals(this.dict.getWordId(".").intValue(), into[4]);
+    assertEquals(0, into[5]);
+
+    assertEquals(9, fromShe().generateWordIds(into, 1, 9, false));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void generateWordIds_noRoomInTheArray() {
+    fromShe().generateWordIds(new int[3], 1, 3, false);
+  }
+}
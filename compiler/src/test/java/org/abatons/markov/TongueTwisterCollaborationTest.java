@@ -19,14 +19,14 @@ import org.junit.Test;
 public class TongueTwisterCollaborationTest {
   Graph graphOrder1;
 
-  char idShe;
-  char idSells;
-  char idSea;
-  char idShells;
-  char idBy;
-  char idThe;
-  char idShore;
-  char idFullStop;
+  int idShe;
+  int idSells;
+  int idSea;
+  int idShells;
+  int idBy;
+  int idThe;
+  int idShore;
+  int idFullStop;
 
   @Before
   public void setupTongueTwister() throws IOException {
@@ -49,10 +49,10 @@ public class TongueTwisterCollaborationTest {
 
   @Test
   public void transitionsSummedProbabilitesAllGood() {
-    final char[] allIds = new char[] { idShe, idSells, idSea, idShells, idBy, idThe, idShore, idFullStop };
+    final int[] allIds = new int[] { idShe, idSells, idSea, idShells, idBy, idThe, idShore, idFullStop };
 
-    for (final char id : allIds) {
-      final Transitions t = graphOrder1.getTransitions("" + id);
+    for (final int id : allIds) {
+      final Transitions t = graphOrder1.getTransitions(new int[] { id });
       checkSummedProbability(t);
     }
   }
@@ -69,8 +69,8 @@ public class TongueTwisterCollaborationTest {
     checkNumTransitions(idFullStop, 0);
   }
 
-  private void checkNumTransitions(final char inId, final int inExpectedNumTransitions) {
-    final String order1WordHistory = "" + inId;
+  private void checkNumTransitions(final int inId, final int inExpectedNumTransitions) {
+    final int[] order1WordHistory = new int[] { inId };
     final Transitions t = graphOrder1.getTransitions(order1WordHistory);
 
     assertEquals(inExpectedNumTransitions, t.getNumberTransitions());
@@ -80,27 +80,27 @@ public class TongueTwisterCollaborationTest {
   public void isCaseSensitive() {
     final DictionaryLookup dict = graphOrder1.getDictionary();
       
-    assertEquals(1, graphOrder1.getTransitions(""+dict.getWordId("She")).getNumberTransitions());
-    assertEquals(0, graphOrder1.getTransitions(""+dict.getWordId("she")).getNumberTransitions());
-    assertEquals(0, graphOrder1.getTransitions(""+dict.getWordId("shE")).getNumberTransitions());
+    assertEquals(1, graphOrder1.getTransitions(new int[] { dict.getWordId("She") }).getNumberTransitions());
+    assertNull(dict.getWordId("she"));
+    assertNull(dict.getWordId("shE"));
     
-    assertEquals(0, graphOrder1.getTransitions(""+dict.getWordId("SEA")).getNumberTransitions());
+    assertNull(dict.getWordId("SEA"));
   }
   
   @Test
   public void getNextWord_hasTransitionsToFullstops() {
-    assertTrue(contains(graphOrder1, ".", graphOrder1.getTransitions(""+idShore)));
+    assertTrue(contains(graphOrder1, ".", graphOrder1.getTransitions(new int[] { idShore })));
   }
   
   @Test
   public void getNextWord_noTransitionsFromFullstops() {
-    assertEquals(0, graphOrder1.getTransitions(""+idFullStop).getNumberTransitions());
+    assertEquals(0, graphOrder1.getTransitions(new int[] { idFullStop }).getNumberTransitions());
   }
 
   @Test
   public void getNextWord_checkAllNextWords() {
     final NonRandomNG controllableRNG = new NonRandomNG();
-    final String startingWordHistory = "" + graphOrder1.getDictionary().getWordId("She");
+    final int[] startingWordHistory = new int[] { graphOrder1.getDictionary().getWordId("She") };
     final Parody parody = new Parody(graphOrder1, startingWordHistory, controllableRNG);
 
     assertEquals("sells", parody.getNextWord());
@@ -123,7 +123,7 @@ public class TongueTwisterCollaborationTest {
   @Test
   public void nextWordFromUnknownWordHistoryIsNull() {
     final NonRandomNG controllableRNG = new NonRandomNG();
-    final Parody parody = new Parody(graphOrder1, "rascal", controllableRNG);
+    final Parody parody = new Parody(graphOrder1, new int[] { graphOrder1.getDictionary().getNumUniqueWords() }, controllableRNG);
 
     assertNull(parody.getNextWord());
   }
@@ -137,22 +137,22 @@ public class TongueTwisterCollaborationTest {
 
     final NonRandomNG rng = new NonRandomNG();
 
-    final char wordIdThe = g.getDictionary().getWordId("the");
+    final int wordIdThe = g.getDictionary().getWordId("the");
 
     rng.unrandomTarget = 0;
-    Parody p = new Parody(g, "" + wordIdThe, rng);
+    Parody p = new Parody(g, new int[] { wordIdThe }, rng);
     assertEquals("earth", p.getNextWord());
 
     rng.unrandomTarget = 1;
-    p = new Parody(g, "" + wordIdThe, rng);
+    p = new Parody(g, new int[] { wordIdThe }, rng);
     assertEquals("earth", p.getNextWord());
 
     rng.unrandomTarget = 2;
-    p = new Parody(g, "" + wordIdThe, rng);
+    p = new Parody(g, new int[] { wordIdThe }, rng);
     assertNotSame("earth", p.getNextWord());
 
     rng.unrandomTarget = 3;
-    p = new Parody(g, "" + wordIdThe, rng);
+    p = new Parody(g, new int[] { wordIdThe }, rng);
     assertNotSame("earth", p.getNextWord());
   }
 
@@ -163,10 +163,10 @@ public class TongueTwisterCollaborationTest {
 
     final Graph g = GraphCompiler.createGraph(source, 1);
 
-    final char wordIdThe = g.getDictionary().getWordId("the");
-    final char wordIdEarth = g.getDictionary().getWordId("earth");
+    final int wordIdThe = g.getDictionary().getWordId("the");
+    final int wordIdEarth = g.getDictionary().getWordId("earth");
 
-    final Transitions theTransitions = g.getTransitions("" + wordIdThe);
+    final Transitions theTransitions = g.getTransitions(new int[] { wordIdThe });
 
     checkSummedProbability(theTransitions);
 
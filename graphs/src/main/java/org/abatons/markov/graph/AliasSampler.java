@@ -0,0 +1,66 @@
+package org.abatons.markov.graph;
+
+/**
+ * <p>An optional sampling engine for {@link Parody} that trades memory for speed on the histories with the most
+ * transitions. The first time a history with at least the minimum fan-out is visited, an {@link AliasTable} is built
+ * for it and cached, so every later visit chooses the next word in constant time. Histories below the minimum
+ * fan-out continue to use the roulette wheel, which is cheap enough for them and costs no extra memory.</p>
+ *
+ * <p>One sampler can be shared by all of the Parody objects navigating the same graph, but not across threads.</p>
+ */
+public class AliasSampler {
+    /**
+     * Below this many transitions, the roulette wheel is about as quick as the alias table.
+     */
+    public static final int DEFAULT_MIN_FAN_OUT = 32;
+
+    private final int minFanOut;
+    private HistoryTable<AliasTable> tables;
+
+    /**
+     * @param inMinFanOut Only histories with at least this many transitions have an alias table built. Use 1 to
+     *          build them for every history.
+     */
+    public AliasSampler(final int inMinFanOut) {
+        this.minFanOut = Math.max(1, inMinFanOut);
+    }
+
+    public AliasSampler() {
+        this(DEFAULT_MIN_FAN_OUT);
+    }
+
+    public int getMinFanOut() {
+        return this.minFanOut;
+    }
+
+    /**
+     * @return The number of alias tables built and cached so far
+     */
+    public int getNumCachedTables() {
+        return (this.tables == null) ? 0 : this.tables.size();
+    }
+
+    /**
+     * @param inWordHistory The history that the transitions follow, used as the cache key
+     * @param inTransitions The transitions following the history
+     * @return The alias table for the history, or null if it has too few transitions to be worth one.
+     */
+    public AliasTable getAliasTable(final int[] inWordHistory, final Transitions inTransitions) {
+        if (inTransitions.getNumberTransitions() < this.minFanOut) {
+            return null;
+        }
+
+        if (this.tables == null) {
+            // The graph's order is only known once the first history is seen
+            this.tables = new HistoryTable<AliasTable>(inWordHistory.length);
+        }
+
+        AliasTable table = this.tables.get(inWordHistory);
+        if (table == null) {
+            table = new AliasTable(inTransitions);
+            this.tables.put(inWordHistory, table);
+        }
+
+        return table;
+    }
+}
@@ -0,0 +1,111 @@
+package org.abatons.markov.graph;
+
+import java.util.Random;
+
+/**
+ * <p>An immutable Walker/Vose alias table for the transitions following a single word history. Once built, choosing
+ * a target word takes constant time however many transitions there are, rather than the linear roulette wheel scan
+ * done in {@link Parody#getNextWord()}.</p>
+ *
+ * <p>Everything is done in integer arithmetic, so the chance of each target word is exactly its numerator out of
+ * the sum of all numerators, i.e. the same distribution as the roulette wheel.</p>
+ *
+ * <p>Each of the n columns of the table has a threshold out of the total count. To choose a target, a column is
+ * picked uniformly, then a second number below the total decides between the column's own target word and its
+ * alias.</p>
+ */
+public class AliasTable {
+    private final int[] targetWordIds;
+    private final int[] aliasWordIds;
+    private final int[] thresholds;
+    private final int total;
+
+    public AliasTable(final Transitions inTransitions) {
+        final int n = inTransitions.getNumberTransitions();
+
+        this.targetWordIds = new int[n];
+        this.aliasWordIds = new int[n];
+        this.thresholds = new int[n];
+
+        // Each column's weight is scaled up by n, so that the average column weight is exactly the total
+        final long[] scaled = new long[n];
+
+        int numTargets = 0;
+        int sum = 0;
+        for (final TransitionProbability tp : inTransitions) {
+            this.targetWordIds[numTargets] = tp.targetWordId;
+            scaled[numTargets] = (long) tp.getNumerator() * n;
+            sum += tp.getNumerator();
+            numTargets++;
+        }
+        this.total = sum;
+
+        // Work lists of the columns with less than, and at least, the average weight
+        final int[] small = new int[n];
+        final int[] large = new int[n];
+        int numSmall = 0;
+        int numLarge = 0;
+
+        for (int i = 0; i < n; i++) {
+            if (scaled[i] < sum) {
+                small[numSmall++] = i;
+            } else {
+                large[numLarge++] = i;
+            }
+        }
+
+        while (numSmall > 0 && numLarge > 0) {
+            final int less = small[--numSmall];
+            final int more = large[--numLarge];
+
+            // The under-full column is topped up by the over-full one
+            this.thresholds[less] = (int) scaled[less];
+            this.aliasWordIds[less] = this.targetWordIds[more];
+
+            scaled[more] -= (sum - scaled[less]);
+
+            if (scaled[more] < sum) {
+                small[numSmall++] = more;
+            } else {
+                large[numLarge++] = more;
+            }
+        }
+
+        // What's left over is exactly full. Their alias will never be chosen.
+        while (numLarge > 0) {
+            final int full = large[--numLarge];
+            this.thresholds[full] = sum;
+            this.aliasWordIds[full] = this.targetWordIds[full];
+        }
+        while (numSmall > 0) {
+            final int full = small[--numSmall];
+            this.thresholds[full] = sum;
+            this.aliasWordIds[full] = this.targetWordIds[full];
+        }
+    }
+
+    public int getNumberTransitions() {
+        return this.targetWordIds.length;
+    }
+
+    /**
+     * Chooses a target word in constant time.
+     *
+     * @param inRng Two numbers are drawn from this
+     * @return The ID of the chosen target word
+     * @throws IllegalStateException If there are no transitions to choose from
+     */
+    public int chooseTargetWordId(final Random inRng) {
+        if (this.total < 1) {
+            throw new IllegalStateException("There are no transitions to choose from");
+        }
+
+        final int column = inRng.nextInt(this.targetWordIds.length);
+
+        if (inRng.nextInt(this.total) < this.thresholds[column]) {
+            return this.targetWordIds[column];
+        }
+
+        return this.aliasWordIds[column];
+    }
+}
@@ -1,52 +1,90 @@
 package org.abatons.markov.graph;
 
 import java.util.Arrays;
-import java.util.Map;
+import java.util.Iterator;
 
 import org.abatons.markov.graph.dictionary.DictionaryLookup;
 
+/**
+ * <p>The histories of words in a corpus, and the transitions to the words that can follow each of them.</p>
+ *
+ * <p>A Graph is only ever read once it's been constructed, so any number of threads can navigate the same Graph at
+ * once, e.g. with a {@link Parody} each or through a {@link ParodyBatch}. Every implementation, and the dictionaries
+ * they're given, must be safe for such concurrent readers, though an implementation may serialize them internally
+ * where it has to, as {@link GraphSqlite} does around its cache and its database connection. The HistoryTable (and
+ * the Transitions in it) given to the constructor must be fully built beforehand and not changed afterwards. They're
+ * then safely published to every thread by the Graph's final fields, however the Graph itself is handed to them.</p>
+ *
+ * <p>A {@link Parody} keeps the history it's walking, so each thread needs its own.</p>
+ */
 public class Graph {
-    private final Map<String, Transitions> wordHistoryToTransitions;
+    private final HistoryTable<Transitions> wordHistoryToTransitions;
     private final DictionaryLookup dictionary;
     
-    public Graph(final DictionaryLookup inDictionary, final Map<String, Transitions> inWordHistoryToTransitions) {
+    public Graph(final DictionaryLookup inDictionary, final HistoryTable<Transitions> inWordHistoryToTransitions) {
         this.dictionary = inDictionary;
 
         this.wordHistoryToTransitions = inWordHistoryToTransitions; 
     }
     
+    /**
+     * For use by Graph implementations that keep their transitions in something other than a HistoryTable. Such 
+     * subclasses must override {@link #getOrder()}, {@link #getTransitions(int[])}, 
+     * {@link #getAWordHistoryForTesting()} and {@link #getWordHistories()}.
+     */
+    protected Graph(final DictionaryLookup inDictionary) {
+        this(inDictionary, null);
+    }
+    
     public DictionaryLookup getDictionary() {
         return this.dictionary;
     }
     
+    /**
+     * @return The number of words in every history of this graph.
+     */
+    public int getOrder() {
+        return this.wordHistoryToTransitions.getOrder();
+    }
+    
     /**
      * Get the transitions to words following on from a certain point in the graph (pinpointed by the history of words)
      * 
-     * @param inFollowingThisWordHistory The history of words (which will be equal to the graph order) leading up to the current point
-     * @return Never null - if the word history is unknown, an empty list of transitions is returned. Otherwise, all of the words that are known to come after the history of words are returned.
+     * @param inFollowingThisWordHistory The IDs of the history of words (which will be equal to the graph order) leading up to the current point, oldest first
+     * @return Never null - if the word history is unknown, {@link Transitions#EMPTY} is returned. Otherwise, all of the words that are known to come after the history of words are returned.
      */
-    public Transitions getTransitions(final String inFollowingThisWordHistory) {
+    public Transitions getTransitions(final int[] inFollowingThisWordHistory) {
         final Transitions foundTransitions = this.wordHistoryToTransitions.get(inFollowingThisWordHistory);
         
         if(foundTransitions == null) {
-            // Just return an empty list of transitions
-            return new Transitions();
+            // Just return the shared empty list of transitions
+            return Transitions.EMPTY;
         }
         
         return foundTransitions;
     }
     
-    public String getAWordHistoryForTesting() {
-        return this.wordHistoryToTransitions.keySet().iterator().next();
+    public int[] getAWordHistoryForTesting() {
+        return this.wordHistoryToTransitions.getAHistory();
     }
     
     /**
      * Slow and memory intensive. Not for use on a resource limited device like a mobile.
      * 
-     * @return Array of word histories, for use in persisting this graph.
+     * @return Array of word histories, for use in persisting this graph. They're sorted by {@link HistoryTable#HISTORY_ORDER}.
+     */
+    public int[][] getWordHistories() {
+      return this.wordHistoryToTransitions.getHistories();
+    }
+    
+    /**
+     * As {@link #getWordHistories()}, but one history at a time, so that implementations that don't keep their
+     * histories in memory (e.g. {@link GraphMapped}) needn't read all of them at once. This one sorts them all up front.
+     * 
+     * @return Every word history, sorted by {@link HistoryTable#HISTORY_ORDER}.
      */
-    public String[] getWordHistories() {
-      return this.wordHistoryToTransitions.keySet().toArray(new String[]{});
+    public Iterator<int[]> getWordHistoryIterator() {
+      return Arrays.asList(getWordHistories()).iterator();
     }
     
     /**
@@ -56,11 +94,10 @@ public class Graph {
         int targetWordCount = 0;
         int maxTargetWords = 0;
         
-        final String[] sortedHistorySigs = wordHistoryToTransitions.keySet().toArray(new String[0]);
-        Arrays.sort(sortedHistorySigs);
-        for(final String indexHistory : sortedHistorySigs) {
+        final int[][] sortedHistorySigs = getWordHistories();
+        for(final int[] indexHistory : sortedHistorySigs) {
             int numTargetWords = 0;
-            for(@SuppressWarnings("unused") final TransitionProbability transition : wordHistoryToTransitions.get(indexHistory)) {
+            for(@SuppressWarnings("unused") final TransitionProbability transition : getTransitions(indexHistory)) {
                 numTargetWords++;
             }
             
@@ -0,0 +1,377 @@
+package org.abatons.markov.graph;
+
+import java.util.Arrays;
+
+import org.abatons.markov.graph.dictionary.DictionaryLookup;
+
+/**
+ * <p>An immutable Graph holding the histories and transitions of every order from 1 up to its own in one trie,
+ * which backs off to a shorter history whenever a history is unknown, or has been seen too few times to be trusted.
+ * Below order 1 is the root, whose transitions are to every word in proportion to how often it appears, so a
+ * {@link Parody} of a backoff trie never runs out of words to follow, wherever it starts.</p>
+ *
+ * <p>The trie is keyed on the history from its most recent word backwards, so each node is a history, and its
+ * children are that history with one older word in front. A history of order <code>k</code> then shares its path
+ * with its suffixes of every lower order, and looking up a history of the highest order walks past each of the
+ * shorter histories it backs off to on the way. The nodes are numbered breadth first, so all of a node's children
+ * are together, sorted by word ID, and laid out in flat primitive arrays, as {@link GraphCompressedRows} are:</p>
+ * <ul>
+ * <li><code>nodeWordIds</code> - The word that each node adds to its parent's history. The root's is unused.</li>
+ * <li><code>childOffsets</code> - The children of node <code>n</code> are nodes <code>childOffsets[n]</code> up to
+ * (but excluding) <code>childOffsets[n + 1]</code>. Only nodes below the highest order can have children, and as
+ * they're numbered first, the array stops at the first node of the highest order.</li>
+ * <li><code>rowOffsets</code>, <code>targetWordIds</code>, <code>numerators</code> and <code>denominators</code> -
+ * Each node's transitions, as the rows of a GraphCompressedRows.</li>
+ * </ul>
+ *
+ * <p>A history is stored as a single word ID in the trie, rather than all of its words in each graph, so the trie
+ * takes less memory than the graphs of every order it's built from, despite holding the transitions of all of
+ * them (see {@link #getSizeInBytes()}).</p>
+ */
+public class GraphBackoffTrie extends Graph {
+    private static final int ROOT = 0;
+
+    private final int order;
+    private final int minHistoryCount;
+
+    private final int[] nodeWordIds;
+    private final int[] childOffsets;
+    private final int[] rowOffsets;
+    private final int[] targetWordIds;
+    private final int[] numerators;
+    private final int[] denominators;
+
+    /**
+     * Copies all of the histories and transitions out of the given graphs, e.g. as compiled together by
+     * GraphCompiler.createGraphs. The given graphs can be discarded afterwards.
+     *
+     * @param inGraphs At least one graph, of each order from 1 upwards, in order, all with the same word IDs. Every
+     *            history of each order above 1 must have its suffix in the graph of the order below, as is the case for
+     *            graphs compiled from the same text.
+     * @param inMinHistoryCount A history seen fewer than this many times (its transitions' denominator) is backed
+     *            off from, to the longest of its suffixes that's been seen enough. One only backs off from unknown
+     *            histories.
+     */
+    public GraphBackoffTrie(final Graph[] inGraphs, final int inMinHistoryCount) {
+        super(firstDictionary(inGraphs));
+
+        for (int i = 0; i < inGraphs.length; i++) {
+            if (inGraphs[i].getOrder() != i + 1) {
+                throw new IllegalArgumentException("There must be a graph of each order from 1 upwards, in order, but "
+                        + "graph " + i + " is of order " + inGraphs[i].getOrder());
+            }
+            if (inGraphs[i].getDictionary().getNumUniqueWords() != getDictionary().getNumUniqueWords()) {
+                throw new IllegalArgumentException("The graphs must all share the same dictionary");
+            }
+        }
+
+        this.order = inGraphs.length;
+        this.minHistoryCount = Math.max(1, inMinHistoryCount);
+
+        // The root's transitions are every word, counted each time it follows another
+        final TransitionsBuilder unigrams = new TransitionsBuilder();
+        for (final int[] history : inGraphs[0].getWordHistories()) {
+            for (final TransitionProbability tp : inGraphs[0].getTransitions(history)) {
+                unigrams.recordTransitions(tp.targetWordId, tp.getNumerator());
+            }
+        }
+        final Transitions rootTransitions = unigrams.freeze();
+
+        // Each order's histories, most recent word first, sorted so that each node's children come together
+        final int[][][] reversedHistories = new int[this.order][][];
+
+        int numNodes = 1;
+        long numTransitions = rootTransitions.getNumberTransitions();
+        for (int i = 0; i < this.order; i++) {
+            final int[][] histories = inGraphs[i].getWordHistories();
+
+            for (int h = 0; h < histories.length; h++) {
+                numTransitions += inGraphs[i].getTransitions(histories[h]).getNumberTransitions();
+                histories[h] = reverse(histories[h]);
+            }
+            Arrays.sort(histories, HistoryTable.HISTORY_ORDER);
+
+            reversedHistories[i] = histories;
+            numNodes += histories.length;
+        }
+
+        if (numTransitions > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The graphs have too many transitions for one trie: " + numTransitions);
+        }
+
+        final int firstOfHighestOrder = numNodes - reversedHistories[this.order - 1].length;
+
+        this.nodeWordIds = new int[numNodes];
+        this.childOffsets = new int[firstOfHighestOrder + 1];
+        this.rowOffsets = new int[numNodes + 1];
+        this.targetWordIds = new int[(int) numTransitions];
+        this.numerators = new int[(int) numTransitions];
+        this.denominators = new int[numNodes];
+
+        addTransitions(ROOT, rootTransitions);
+        this.childOffsets[ROOT] = ROOT + 1;
+
+        // The first node of the order below the one being added, and the next node to number, breadth first
+        int firstOfParentOrder = ROOT;
+        int node = ROOT + 1;
+
+        final int[][] noHistory = new int[][] { new int[0] };
+
+        for (int i = 0; i < this.order; i++) {
+            final int[][] parents = (i == 0) ? noHistory : reversedHistories[i - 1];
+            final int[][] histories = reversedHistories[i];
+
+            final int[] numChildren = new int[parents.length];
+
+            int parent = 0;
+            for (final int[] reversed : histories) {
+                // Both orders are sorted, so each history's parent is at or after the previous history's
+                while (parent < parents.length && compareSuffix(parents[parent], reversed) < 0) {
+                    parent++;
+                }
+                if (parent == parents.length || compareSuffix(parents[parent], reversed) != 0) {
+                    throw new IllegalArgumentException("The history " + Arrays.toString(reverse(reversed))
+                            + " has no suffix in the graph of order " + i);
+                }
+
+                numChildren[parent]++;
+
+                this.nodeWordIds[node] = reversed[i];
+                addTransitions(node, inGraphs[i].getTransitions(reverse(reversed)));
+                node++;
+            }
+
+            // The parents are numbered in order, so each one's children follow on from the previous one's
+            for (int p = 0; p < parents.length; p++) {
+                final int parentNode = firstOfParentOrder + p;
+
+                this.childOffsets[parentNode + 1] = this.childOffsets[parentNode] + numChildren[p];
+            }
+
+            firstOfParentOrder += parents.length;
+
+            if (i > 0) {
+                reversedHistories[i - 1] = null;
+            }
+        }
+    }
+
+    private void addTransitions(final int inNode, final Transitions inTransitions) {
+        int i = this.rowOffsets[inNode];
+
+        for (final TransitionProbability tp : inTransitions) {
+            this.targetWordIds[i] = tp.targetWordId;
+            this.numerators[i] = tp.getNumerator();
+            this.denominators[inNode] = tp.getDenominator();
+            i++;
+        }
+
+        this.rowOffsets[inNode + 1] = i;
+    }
+
+    /**
+     * @return The dictionary of the first of the given graphs, which must be at least one
+     */
+    private static DictionaryLookup firstDictionary(final Graph[] inGraphs) {
+        if (inGraphs.length == 0) {
+            throw new IllegalArgumentException("There must be at least one graph");
+        }
+
+        return inGraphs[0].getDictionary();
+    }
+
+    private static int[] reverse(final int[] inHistory) {
+        final int[] reversed = new int[inHistory.length];
+
+        for (int i = 0; i < inHistory.length; i++) {
+            reversed[i] = inHistory[inHistory.length - 1 - i];
+        }
+
+        return reversed;
+    }
+
+    /**
+     * Compares a history with the same history less its oldest word (as a parent node would have), both most recent
+     * word first.
+     */
+    private static int compareSuffix(final int[] inParent, final int[] inReversed) {
+        for (int i = 0; i < inParent.length; i++) {
+            if (inParent[i] != inReversed[i]) {
+                return (inParent[i] < inReversed[i]) ? -1 : 1;
+            }
+        }
+
+        return 0;
+    }
+
+    @Override
+    public int getOrder() {
+        return this.order;
+    }
+
+    /**
+     * @return The number of histories of every order, plus one for the root
+     */
+    public int getNumNodes() {
+        return this.nodeWordIds.length;
+    }
+
+    /**
+     * @return The bytes taken by the trie's arrays
+     */
+    public long getSizeInBytes() {
+        return 4L * (this.nodeWordIds.length + this.childOffsets.length + this.rowOffsets.length
+                + this.targetWordIds.length + this.numerators.length + this.denominators.length);
+    }
+
+    /**
+     * Backs off to the longest suffix of the given history that's been seen at least the minimum number of times,
+     * which can be no history at all, in which case the transitions are to every word.
+     *
+     * @param inFollowingThisWordHistory Oldest first. Only the most recent words, up to the order, are used, so it
+     *            can be of any length, even empty.
+     * @return Never {@link Transitions#EMPTY}, unless there were no words at all
+     */
+    @Override
+    public Transitions getTransitions(final int[] inFollowingThisWordHistory) {
+        final int node = findNode(inFollowingThisWordHistory);
+
+        final int end = this.rowOffsets[node + 1];
+        if (end == this.rowOffsets[node]) {
+            return Transitions.EMPTY;
+        }
+
+        final Transitions found = new Transitions();
+        for (int i = this.rowOffsets[node]; i < end; i++) {
+            found.addTransition(this.targetWordIds[i], this.numerators[i], this.denominators[node], i == end - 1);
+        }
+
+        return found;
+    }
+
+    /**
+     * @return The number of words of the given history that are used by {@link #getTransitions(int[])}, i.e. the
+     *         order that it backs off to. Zero if it backs off to the root.
+     */
+    public int getBackoffOrder(final int[] inWordHistory) {
+        int length = 0;
+        for (int node = findNode(inWordHistory); node != ROOT; node = findParent(node)) {
+            length++;
+        }
+
+        return length;
+    }
+
+    /**
+     * Walks down the trie from the most recent word of the history.
+     *
+     * @return The deepest node seen enough times, which is the root if none are
+     */
+    private int findNode(final int[] inWordHistory) {
+        int node = ROOT;
+        int best = ROOT;
+
+        final int oldest = Math.max(0, inWordHistory.length - this.order);
+        for (int i = inWordHistory.length - 1; i >= oldest; i--) {
+            node = findChild(node, inWordHistory[i]);
+            if (node < 0) {
+                break;
+            }
+
+            if (this.denominators[node] >= this.minHistoryCount) {
+                best = node;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Binary searches the node's children.
+     *
+     * @return The child for the given word, or -1 if there isn't one.
+     */
+    private int findChild(final int inNode, final int inWordId) {
+        if (inNode >= this.childOffsets.length - 1) {
+            return -1;
+        }
+
+        int low = this.childOffsets[inNode];
+        int high = this.childOffsets[inNode + 1] - 1;
+
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int wordId = this.nodeWordIds[mid];
+
+            if (wordId < inWordId) {
+                low = mid + 1;
+            } else if (wordId > inWordId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Binary searches the child offsets, as the nodes are numbered breadth first.
+     */
+    private int findParent(final int inNode) {
+        int low = ROOT;
+        int high = this.childOffsets.length - 2;
+
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+
+            if (this.childOffsets[mid] <= inNode) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * @return A history of the highest order, or null if there are none
+     */
+    @Override
+    public int[] getAWordHistoryForTesting() {
+        final int[][] histories = getWordHistories();
+
+        return (histories.length > 0) ? histories[0] : null;
+    }
+
+    /**
+     * Only the histories of the highest order, which is what's saved if this is persisted, each with the
+     * transitions it backs off to.
+     *
+     * @return Every history of the highest order, sorted by {@link HistoryTable#HISTORY_ORDER}.
+     */
+    @Override
+    public int[][] getWordHistories() {
+        final int firstOfHighestOrder = this.childOffsets.length - 1;
+
+        final int[][] histories = new int[this.nodeWordIds.length - firstOfHighestOrder][];
+
+        for (int node = firstOfHighestOrder; node < this.nodeWordIds.length; node++) {
+            final int[] history = new int[this.order];
+
+            // Walking up from the node gives the words from the oldest onwards
+            int ancestor = node;
+            for (int i = 0; i < this.order; i++) {
+                history[i] = this.nodeWordIds[ancestor];
+                ancestor = findParent(ancestor);
+            }
+
+            histories[node - firstOfHighestOrder] = history;
+        }
+
+        Arrays.sort(histories, HistoryTable.HISTORY_ORDER);
+
+        return histories;
+    }
+}
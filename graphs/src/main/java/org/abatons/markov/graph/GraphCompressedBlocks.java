@@ -0,0 +1,523 @@
+package org.abatons.markov.graph;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.abatons.markov.graph.dictionary.DictionaryLookup;
+
+/**
+ * <p>An immutable Graph that keeps its histories and transitions as compressed blocks of bytes, for when the graph
+ * has to be as small as possible, e.g. to be sent over the air to a mobile.</p>
+ *
+ * <p>The sorted histories are split into blocks of a fixed number of histories. The first history of each block is
+ * kept uncompressed, so the block holding a history can be found with a binary search. Within a block:</p>
+ * <ul>
+ * <li>Each history after the first is written against the one before it, as a varint count of the leading word IDs
+ * they share, a varint gap from the previous history's next word ID to its own (which is always positive, as the
+ * histories are sorted), then the rest of its word IDs as varints.</li>
+ * <li>Each history's transitions follow as a varint numTransitions, then (if there are any) the shared varint
+ * denominator, then for each transition the signed varint gap from the previous transition's target word ID, and a
+ * varint numerator. Transitions with the same count are in word ID order, so most gaps are small.</li>
+ * </ul>
+ *
+ * <p>Blocks can also be deflated. Recently visited blocks are kept decoded, so a walk through the graph that keeps
+ * returning to the same histories, as a parody does, only pays for the decoding once.</p>
+ *
+ * <p>Safe for concurrent readers without any locking. The decoded blocks are kept in a small direct mapped cache,
+ * each block having one slot it can be kept in. A decoded block is never changed once it's in the cache, and a slot
+ * is replaced with a single atomic write, so two threads decoding the same block at once just both do the work.</p>
+ */
+public class GraphCompressedBlocks extends Graph {
+    static final int DEFAULT_HISTORIES_PER_BLOCK = 64;
+
+    private static final int NUM_CACHED_BLOCKS = 16;
+
+    private final int order;
+    private final int numHistories;
+    private final int historiesPerBlock;
+
+    private final int[] firstHistories; // The first history of each block, concatenated
+    private final byte[][] blocks;
+    private final int[] uncompressedLengths; // Null if the blocks aren't deflated
+
+    private final AtomicReferenceArray<CachedBlock> cache = new AtomicReferenceArray<CachedBlock>(NUM_CACHED_BLOCKS);
+
+    /**
+     * Compresses all of the histories and transitions of the given graph, with the default number of histories in
+     * each block. The given graph can be discarded afterwards.
+     *
+     * @param inDeflate Whether to deflate each block too
+     */
+    public GraphCompressedBlocks(final Graph inGraph, final boolean inDeflate) {
+        this(inGraph, DEFAULT_HISTORIES_PER_BLOCK, inDeflate);
+    }
+
+    /**
+     * @param inHistoriesPerBlock More histories to a block compresses better, but each lookup has to decode more.
+     * @param inDeflate Whether to deflate each block too
+     */
+    public GraphCompressedBlocks(final Graph inGraph, final int inHistoriesPerBlock, final boolean inDeflate) {
+        super(inGraph.getDictionary());
+
+        assert (inHistoriesPerBlock > 0);
+
+        final int[][] sortedHistories = inGraph.getWordHistories();
+
+        this.order = inGraph.getOrder();
+        this.numHistories = sortedHistories.length;
+        this.historiesPerBlock = inHistoriesPerBlock;
+
+        final int numBlocks = (this.numHistories + inHistoriesPerBlock - 1) / inHistoriesPerBlock;
+        this.firstHistories = new int[numBlocks * this.order];
+        this.blocks = new byte[numBlocks][];
+        this.uncompressedLengths = inDeflate ? new int[numBlocks] : null;
+
+        for (int block = 0; block < numBlocks; block++) {
+            final int firstRow = block * inHistoriesPerBlock;
+            final int endRow = Math.min(firstRow + inHistoriesPerBlock, this.numHistories);
+
+            System.arraycopy(sortedHistories[firstRow], 0, this.firstHistories, block * this.order, this.order);
+
+            final byte[] encoded = encodeBlock(inGraph, sortedHistories, firstRow, endRow);
+
+            if (inDeflate) {
+                this.uncompressedLengths[block] = encoded.length;
+                this.blocks[block] = deflate(encoded);
+            } else {
+                this.blocks[block] = encoded;
+            }
+        }
+    }
+
+    /**
+     * For loading, where the blocks have already been encoded.
+     */
+    GraphCompressedBlocks(final DictionaryLookup inDictionary, final int inOrder, final int inNumHistories,
+                          final int inHistoriesPerBlock, final int[] inFirstHistories, final byte[][] inBlocks,
+                          final int[] inUncompressedLengths) {
+        super(inDictionary);
+
+        this.order = inOrder;
+        this.numHistories = inNumHistories;
+        this.historiesPerBlock = inHistoriesPerBlock;
+        this.firstHistories = inFirstHistories;
+        this.blocks = inBlocks;
+        this.uncompressedLengths = inUncompressedLengths;
+    }
+
+    @Override
+    public int getOrder() {
+        return this.order;
+    }
+
+    public int getNumWordHistories() {
+        return this.numHistories;
+    }
+
+    int getHistoriesPerBlock() {
+        return this.historiesPerBlock;
+    }
+
+    boolean isDeflated() {
+        return this.uncompressedLengths != null;
+    }
+
+    int getNumBlocks() {
+        return this.blocks.length;
+    }
+
+    int[] getFirstHistory(final int inBlock) {
+        return Arrays.copyOfRange(this.firstHistories, inBlock * this.order, (inBlock + 1) * this.order);
+    }
+
+    /**
+     * @return The block as stored, so deflated if the blocks are deflated.
+     */
+    byte[] getBlock(final int inBlock) {
+        return this.blocks[inBlock];
+    }
+
+    int getUncompressedLength(final int inBlock) {
+        return this.uncompressedLengths[inBlock];
+    }
+
+    @Override
+    public Transitions getTransitions(final int[] inFollowingThisWordHistory) {
+        final int block = findBlock(inFollowingThisWordHistory);
+        if (block < 0) {
+            return Transitions.EMPTY;
+        }
+
+        final DecodedBlock decoded = getDecodedBlock(block);
+
+        final int row = decoded.findRow(inFollowingThisWordHistory);
+        if (row < 0) {
+            return Transitions.EMPTY;
+        }
+
+        final Transitions found = new Transitions();
+
+        final int end = decoded.rowOffsets[row + 1];
+        for (int i = decoded.rowOffsets[row]; i < end; i++) {
+            found.addTransition(decoded.targetWordIds[i], decoded.numerators[i], decoded.denominators[row],
+                    i == end - 1);
+        }
+
+        return found;
+    }
+
+    @Override
+    public int[] getAWordHistoryForTesting() {
+        return (this.numHistories > 0) ? getFirstHistory(0) : null;
+    }
+
+    /**
+     * Decodes every block, without disturbing the cache.
+     *
+     * @return Every word history, in sorted order.
+     */
+    @Override
+    public int[][] getWordHistories() {
+        final int[][] histories = new int[this.numHistories][];
+
+        for (int block = 0; block < this.blocks.length; block++) {
+            final DecodedBlock decoded = decodeBlock(block);
+
+            for (int row = 0; row < decoded.numHistories; row++) {
+                histories[block * this.historiesPerBlock + row] = Arrays.copyOfRange(decoded.historyKeys, row
+                        * this.order, (row + 1) * this.order);
+            }
+        }
+
+        return histories;
+    }
+
+    /**
+     * Decodes one block at a time, as it's reached, without disturbing the cache.
+     */
+    @Override
+    public Iterator<int[]> getWordHistoryIterator() {
+        return new Iterator<int[]>() {
+            private int block = -1;
+            private DecodedBlock decoded;
+            private int row;
+
+            @Override
+            public boolean hasNext() {
+                return (this.decoded != null && this.row < this.decoded.numHistories)
+                        || this.block + 1 < GraphCompressedBlocks.this.blocks.length;
+            }
+
+            @Override
+            public int[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                if (this.decoded == null || this.row == this.decoded.numHistories) {
+                    this.decoded = decodeBlock(++this.block);
+                    this.row = 0;
+                }
+
+                final int start = this.row++ * GraphCompressedBlocks.this.order;
+                return Arrays.copyOfRange(this.decoded.historyKeys, start, start + GraphCompressedBlocks.this.order);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private DecodedBlock getDecodedBlock(final int inBlock) {
+        final int slot = inBlock % NUM_CACHED_BLOCKS;
+
+        final CachedBlock cached = this.cache.get(slot);
+        if (cached != null && cached.block == inBlock) {
+            return cached.decoded;
+        }
+
+        final DecodedBlock decoded = decodeBlock(inBlock);
+
+        this.cache.set(slot, new CachedBlock(inBlock, decoded));
+
+        return decoded;
+    }
+
+    /**
+     * Binary searches the first history of each block.
+     *
+     * @return The only block that could hold the given history, or -1 if it's before the first block or of the
+     *         wrong order.
+     */
+    private int findBlock(final int[] inWordHistory) {
+        if (inWordHistory.length != this.order) {
+            return -1;
+        }
+
+        int low = 0;
+        int high = this.blocks.length - 1;
+        int found = -1;
+
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+
+            if (compareFirstHistory(mid, inWordHistory) <= 0) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return found;
+    }
+
+    private int compareFirstHistory(final int inBlock, final int[] inWordHistory) {
+        return compareHistory(this.firstHistories, inBlock * this.order, inWordHistory, this.order);
+    }
+
+    private static int compareHistory(final int[] inHistoryKeys, final int inStart, final int[] inWordHistory,
+                                      final int inOrder) {
+        for (int i = 0; i < inOrder; i++) {
+            final int wordId = inHistoryKeys[inStart + i];
+            final int other = inWordHistory[i];
+
+            if (wordId != other) {
+                return (wordId < other) ? -1 : 1;
+            }
+        }
+
+        return 0;
+    }
+
+    private byte[] encodeBlock(final Graph inGraph, final int[][] inSortedHistories, final int inFirstRow,
+                               final int inEndRow) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream dos = new DataOutputStream(bytes);
+
+        try {
+            for (int row = inFirstRow; row < inEndRow; row++) {
+                final int[] history = inSortedHistories[row];
+
+                if (history.length != this.order) {
+                    throw new IllegalArgumentException("All word histories must be of the same order (" + this.order
+                            + "), but one was of order " + history.length);
+                }
+
+                if (row > inFirstRow) {
+                    final int[] previous = inSortedHistories[row - 1];
+
+                    if (HistoryTable.HISTORY_ORDER.compare(previous, history) >= 0) {
+                        throw new IllegalArgumentException("The word histories must be unique and sorted");
+                    }
+
+                    int shared = 0;
+                    while (history[shared] == previous[shared]) {
+                        shared++;
+                    }
+
+                    Varints.writeVarint(dos, shared);
+                    Varints.writeVarint(dos, history[shared] - previous[shared]);
+                    for (int i = shared + 1; i < this.order; i++) {
+                        Varints.writeVarint(dos, history[i]);
+                    }
+                }
+
+                final Transitions t = inGraph.getTransitions(history);
+
+                Varints.writeVarint(dos, t.getNumberTransitions());
+                if (t.getNumberTransitions() > 0) {
+                    Varints.writeVarint(dos, t.iterator().next().getDenominator());
+                }
+
+                int previousTargetWordId = 0;
+                for (final TransitionProbability tp : t) {
+                    Varints.writeSignedVarint(dos, tp.targetWordId - previousTargetWordId);
+                    Varints.writeVarint(dos, tp.getNumerator());
+
+                    previousTargetWordId = tp.targetWordId;
+                }
+            }
+
+            dos.flush();
+        } catch (final IOException cannotHappen) {
+            throw new IllegalStateException(cannotHappen);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private DecodedBlock decodeBlock(final int inBlock) {
+        final byte[] encoded = isDeflated() ? inflate(this.blocks[inBlock], this.uncompressedLengths[inBlock])
+                : this.blocks[inBlock];
+
+        final int numRows = Math.min(this.historiesPerBlock, this.numHistories - inBlock * this.historiesPerBlock);
+
+        final DecodedBlock decoded = new DecodedBlock(numRows, this.order);
+        final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(encoded));
+
+        try {
+            System.arraycopy(this.firstHistories, inBlock * this.order, decoded.historyKeys, 0, this.order);
+
+            int numTransitions = 0;
+            for (int row = 0; row < numRows; row++) {
+                final int start = row * this.order;
+
+                if (row > 0) {
+                    final int shared = Varints.readVarint(dis);
+
+                    System.arraycopy(decoded.historyKeys, start - this.order, decoded.historyKeys, start, shared);
+                    decoded.historyKeys[start + shared] = decoded.historyKeys[start - this.order + shared]
+                            + Varints.readVarint(dis);
+                    for (int i = shared + 1; i < this.order; i++) {
+                        decoded.historyKeys[start + i] = Varints.readVarint(dis);
+                    }
+                }
+
+                final int rowTransitions = Varints.readVarint(dis);
+                decoded.denominators[row] = (rowTransitions > 0) ? Varints.readVarint(dis) : 0;
+                decoded.ensureTransitionCapacity(numTransitions + rowTransitions);
+
+                int targetWordId = 0;
+                for (int i = 0; i < rowTransitions; i++) {
+                    targetWordId += Varints.readSignedVarint(dis);
+
+                    decoded.targetWordIds[numTransitions] = targetWordId;
+                    decoded.numerators[numTransitions] = Varints.readVarint(dis);
+                    numTransitions++;
+                }
+
+                decoded.rowOffsets[row + 1] = numTransitions;
+            }
+        } catch (final IOException corrupt) {
+            throw new IllegalStateException("Block " + inBlock + " is corrupt", corrupt);
+        }
+
+        return decoded;
+    }
+
+    private static byte[] deflate(final byte[] inBytes) {
+        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(inBytes);
+            deflater.finish();
+
+            final ByteArrayOutputStream deflated = new ByteArrayOutputStream(inBytes.length / 2 + 16);
+            final byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                deflated.write(buffer, 0, deflater.deflate(buffer));
+            }
+
+            return deflated.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(final byte[] inBytes, final int inUncompressedLength) {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(inBytes);
+
+            final byte[] inflated = new byte[inUncompressedLength];
+            int length = 0;
+            while (length < inUncompressedLength && !inflater.finished()) {
+                final int n = inflater.inflate(inflated, length, inUncompressedLength - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+
+            if (length != inUncompressedLength) {
+                throw new IllegalStateException("A deflated block is truncated");
+            }
+
+            return inflated;
+        } catch (final DataFormatException corrupt) {
+            throw new IllegalStateException("A deflated block is corrupt", corrupt);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * A decoded block and its index together, so that a reader can't see the index of one block with another block.
+     */
+    private static final class CachedBlock {
+        final int block;
+        final DecodedBlock decoded;
+
+        CachedBlock(final int inBlock, final DecodedBlock inDecoded) {
+            this.block = inBlock;
+            this.decoded = inDecoded;
+        }
+    }
+
+    /**
+     * One block laid out as compressed sparse rows, like {@link GraphCompressedRows}.
+     */
+    private static final class DecodedBlock {
+        final int numHistories;
+        final int order;
+        final int[] historyKeys;
+        final int[] rowOffsets;
+        final int[] denominators;
+        int[] targetWordIds;
+        int[] numerators;
+
+        DecodedBlock(final int inNumHistories, final int inOrder) {
+            this.numHistories = inNumHistories;
+            this.order = inOrder;
+            this.historyKeys = new int[inNumHistories * inOrder];
+            this.rowOffsets = new int[inNumHistories + 1];
+            this.denominators = new int[inNumHistories];
+            this.targetWordIds = new int[inNumHistories * 4];
+            this.numerators = new int[inNumHistories * 4];
+        }
+
+        void ensureTransitionCapacity(final int inCapacity) {
+            if (inCapacity > this.targetWordIds.length) {
+                final int capacity = Math.max(inCapacity, this.targetWordIds.length * 2);
+
+                this.targetWordIds = Arrays.copyOf(this.targetWordIds, capacity);
+                this.numerators = Arrays.copyOf(this.numerators, capacity);
+            }
+        }
+
+        /**
+         * @return The row of the given history, or -1 if it isn't in this block.
+         */
+        int findRow(final int[] inWordHistory) {
+            int low = 0;
+            int high = this.numHistories - 1;
+
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int cmp = compareHistory(this.historyKeys, mid * this.order, inWordHistory, this.order);
+
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+
+            return -1;
+        }
+    }
+}
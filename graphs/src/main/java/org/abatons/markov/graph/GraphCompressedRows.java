@@ -0,0 +1,231 @@
+package org.abatons.markov.graph;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.abatons.markov.graph.dictionary.DictionaryLookup;
+
+/**
+ * <p>An immutable Graph that keeps all of its histories and transitions in a handful of flat primitive arrays,
+ * laid out as compressed sparse rows (CSR). There's no per-history or per-transition object, so the heap used is
+ * a small fraction of the map backed Graph, and there's next to nothing for the garbage collector to trace.</p>
+ *
+ * <p>The layout is as follows, where each history is one row:</p>
+ * <ul>
+ * <li><code>historyKeys</code> - The word IDs of every history, sorted and concatenated. Every history has the same
+ * length (the graph order), so the history for row <code>r</code> starts at <code>r * order</code>.</li>
+ * <li><code>rowOffsets</code> - Row <code>r</code>'s transitions are at indicies <code>rowOffsets[r]</code> up to
+ * (but excluding) <code>rowOffsets[r + 1]</code> of the following two arrays.</li>
+ * <li><code>targetWordIds</code> and <code>numerators</code> - The target word and its count, in the same order as
+ * the original Transitions' iterator.</li>
+ * <li><code>denominators</code> - The total count for each row, as it's the same for all transitions in a row.</li>
+ * </ul>
+ *
+ * <p>Histories are found with a binary search, and a Transitions object is only created for the row that's
+ * asked for.</p>
+ */
+public class GraphCompressedRows extends Graph {
+    private final int order;
+    private final int[] historyKeys;
+    private final int[] rowOffsets;
+    private final int[] targetWordIds;
+    private final int[] numerators;
+    private final int[] denominators;
+
+    /**
+     * Copies all of the histories and transitions out of the given graph. The given graph can be discarded
+     * afterwards.
+     *
+     * @param inGraph Every one of its word histories must be the same length.
+     */
+    public GraphCompressedRows(final Graph inGraph) {
+        super(inGraph.getDictionary());
+
+        final int[][] sortedHistories = inGraph.getWordHistories();
+
+        final int numHistories = sortedHistories.length;
+
+        this.order = inGraph.getOrder();
+        this.historyKeys = new int[numHistories * this.order];
+        this.rowOffsets = new int[numHistories + 1];
+        this.denominators = new int[numHistories];
+
+        int numTransitions = 0;
+        for (int row = 0; row < numHistories; row++) {
+            final int[] history = sortedHistories[row];
+
+            if (history.length != this.order) {
+                throw new IllegalArgumentException("All word histories must be of the same order (" + this.order
+                        + "), but one was of order " + history.length);
+            }
+            if (row > 0 && HistoryTable.HISTORY_ORDER.compare(sortedHistories[row - 1], history) >= 0) {
+                throw new IllegalArgumentException("The word histories must be unique and sorted");
+            }
+
+            System.arraycopy(history, 0, this.historyKeys, row * this.order, this.order);
+
+            numTransitions += inGraph.getTransitions(history).getNumberTransitions();
+            this.rowOffsets[row + 1] = numTransitions;
+        }
+
+        this.targetWordIds = new int[numTransitions];
+        this.numerators = new int[numTransitions];
+
+        for (int row = 0; row < numHistories; row++) {
+            final Iterator<TransitionProbability> it = inGraph.getTransitions(sortedHistories[row]).iterator();
+
+            for (int i = this.rowOffsets[row]; it.hasNext(); i++) {
+                final TransitionProbability tp = it.next();
+
+                if (i > this.rowOffsets[row] && tp.getDenominator() != this.denominators[row]) {
+                    throw new IllegalArgumentException("The transitions following a word history must all share the "
+                            + "same denominator, but " + Arrays.toString(sortedHistories[row]) + " does not");
+                }
+
+                this.targetWordIds[i] = tp.targetWordId;
+                this.numerators[i] = tp.getNumerator();
+                this.denominators[row] = tp.getDenominator();
+            }
+        }
+    }
+
+    /**
+     * For loading, where the arrays have already been filled in the layout described above. They're kept rather
+     * than copied.
+     */
+    GraphCompressedRows(final DictionaryLookup inDictionary, final int inOrder, final int[] inHistoryKeys,
+                        final int[] inRowOffsets, final int[] inTargetWordIds, final int[] inNumerators,
+                        final int[] inDenominators) {
+        super(inDictionary);
+
+        this.order = inOrder;
+        this.historyKeys = inHistoryKeys;
+        this.rowOffsets = inRowOffsets;
+        this.targetWordIds = inTargetWordIds;
+        this.numerators = inNumerators;
+        this.denominators = inDenominators;
+    }
+
+    @Override
+    public int getOrder() {
+        return this.order;
+    }
+
+    public int getNumWordHistories() {
+        return this.denominators.length;
+    }
+
+    @Override
+    public Transitions getTransitions(final int[] inFollowingThisWordHistory) {
+        final int row = findRow(inFollowingThisWordHistory);
+        if (row < 0) {
+            return Transitions.EMPTY;
+        }
+
+        final Transitions found = new Transitions();
+
+        final int end = this.rowOffsets[row + 1];
+        for (int i = this.rowOffsets[row]; i < end; i++) {
+            found.addTransition(this.targetWordIds[i], this.numerators[i], this.denominators[row], i == end - 1);
+        }
+
+        return found;
+    }
+
+    @Override
+    public int[] getAWordHistoryForTesting() {
+        return (getNumWordHistories() > 0) ? getWordHistory(0) : null;
+    }
+
+    /**
+     * @return Every word history, in sorted order.
+     */
+    @Override
+    public int[][] getWordHistories() {
+        final int[][] histories = new int[getNumWordHistories()][];
+
+        for (int row = 0; row < histories.length; row++) {
+            histories[row] = getWordHistory(row);
+        }
+
+        return histories;
+    }
+
+    /**
+     * Reads each history from its row as it's reached.
+     */
+    @Override
+    public Iterator<int[]> getWordHistoryIterator() {
+        return new Iterator<int[]>() {
+            private int row;
+
+            @Override
+            public boolean hasNext() {
+                return this.row < getNumWordHistories();
+            }
+
+            @Override
+            public int[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                return getWordHistory(this.row++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private int[] getWordHistory(final int inRow) {
+        return Arrays.copyOfRange(this.historyKeys, inRow * this.order, (inRow + 1) * this.order);
+    }
+
+    /**
+     * Binary searches the sorted history keys.
+     *
+     * @return The row of the given history, or -1 if it isn't in this graph.
+     */
+    private int findRow(final int[] inWordHistory) {
+        if (inWordHistory.length != this.order) {
+            return -1;
+        }
+
+        int low = 0;
+        int high = getNumWordHistories() - 1;
+
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = compareHistoryAt(mid, inWordHistory);
+
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -1;
+    }
+
+    private int compareHistoryAt(final int inRow, final int[] inWordHistory) {
+        final int start = inRow * this.order;
+
+        for (int i = 0; i < this.order; i++) {
+            final int wordId = this.historyKeys[start + i];
+            final int other = inWordHistory[i];
+
+            if (wordId != other) {
+                return (wordId < other) ? -1 : 1;
+            }
+        }
+
+        return 0;
+    }
+}
@@ -0,0 +1,206 @@
+package org.abatons.markov.graph;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.abatons.markov.graph.dictionary.DictionaryLookupMapped;
+
+/**
+ * <p>A read only Graph that's a view over a buffer in the raw v2 format (see {@link GraphPersistenceRawMapped}),
+ * which will typically be a memory mapped file.</p>
+ *
+ * <p>Construction only reads the header, so it's constant time regardless of the graph size. Each lookup binary
+ * searches the fixed width history records, then reads just the one row of transitions, so only the pages holding
+ * the histories actually visited are ever touched.</p>
+ *
+ * <p>Only absolute reads are made on the buffer, so it's safe for concurrent readers.</p>
+ */
+public class GraphMapped extends Graph {
+    private final ByteBuffer buffer;
+
+    private final int order;
+    private final int numHistories;
+
+    private final int historyKeysStart;
+    private final int rowOffsetsStart;
+    private final int denominatorsStart;
+    private final int transitionsStart;
+
+    /**
+     * @param inBuffer Holds the whole of a raw v2 file, starting at position 0.
+     * @throws IllegalArgumentException If the buffer isn't in the raw v2 format.
+     */
+    public GraphMapped(final ByteBuffer inBuffer) {
+        super(createDictionary(inBuffer));
+
+        this.buffer = inBuffer;
+
+        this.order = inBuffer.getInt(2 * 4);
+        final int numWords = inBuffer.getInt(3 * 4);
+        this.numHistories = inBuffer.getInt(4 * 4);
+        final int numTransitions = inBuffer.getInt(5 * 4);
+        final int numWordBytes = inBuffer.getInt(6 * 4);
+
+        final int wordBytesStart = GraphPersistenceRawMapped.HEADER_SIZE + (numWords + 1) * 4;
+
+        this.historyKeysStart = wordBytesStart + numWordBytes + GraphPersistenceRawMapped.padding(numWordBytes);
+        this.rowOffsetsStart = this.historyKeysStart + this.numHistories * this.order * 4;
+        this.denominatorsStart = this.rowOffsetsStart + (this.numHistories + 1) * 4;
+        this.transitionsStart = this.denominatorsStart + this.numHistories * 4;
+
+        if (inBuffer.limit() < this.transitionsStart + numTransitions * GraphPersistenceRawMapped.TRANSITION_SIZE) {
+            throw new IllegalArgumentException("The buffer is truncated");
+        }
+    }
+
+    private static DictionaryLookupMapped createDictionary(final ByteBuffer inBuffer) {
+        if (inBuffer.limit() < GraphPersistenceRawMapped.HEADER_SIZE
+                || inBuffer.getInt(0) != GraphPersistenceRawMapped.MAGIC
+                || inBuffer.getInt(4) != GraphPersistenceRawMapped.VERSION) {
+            throw new IllegalArgumentException("The buffer is not in the raw v2 format");
+        }
+
+        final int numWords = inBuffer.getInt(3 * 4);
+        final int wordOffsetsStart = GraphPersistenceRawMapped.HEADER_SIZE;
+        final int wordBytesStart = wordOffsetsStart + (numWords + 1) * 4;
+
+        return new DictionaryLookupMapped(inBuffer, numWords, wordOffsetsStart, wordBytesStart);
+    }
+
+    @Override
+    public int getOrder() {
+        return this.order;
+    }
+
+    public int getNumWordHistories() {
+        return this.numHistories;
+    }
+
+    @Override
+    public Transitions getTransitions(final int[] inFollowingThisWordHistory) {
+        final int row = findRow(inFollowingThisWordHistory);
+        if (row < 0) {
+            return Transitions.EMPTY;
+        }
+
+        final Transitions found = new Transitions();
+
+        final int denominator = this.buffer.getInt(this.denominatorsStart + row * 4);
+
+        final int start = this.buffer.getInt(this.rowOffsetsStart + row * 4);
+        final int end = this.buffer.getInt(this.rowOffsetsStart + (row + 1) * 4);
+        for (int i = start; i < end; i++) {
+            final int at = this.transitionsStart + i * GraphPersistenceRawMapped.TRANSITION_SIZE;
+
+            found.addTransition(this.buffer.getInt(at), this.buffer.getInt(at + 4), denominator, i == end - 1);
+        }
+
+        return found;
+    }
+
+    @Override
+    public int[] getAWordHistoryForTesting() {
+        return (this.numHistories > 0) ? getWordHistory(0) : null;
+    }
+
+    /**
+     * Reads every history from the buffer, so this will page in the whole history section.
+     *
+     * @return Every word history, in sorted order.
+     */
+    @Override
+    public int[][] getWordHistories() {
+        final int[][] histories = new int[this.numHistories][];
+
+        for (int row = 0; row < histories.length; row++) {
+            histories[row] = getWordHistory(row);
+        }
+
+        return histories;
+    }
+
+    /**
+     * Reads each history from its row as it's reached.
+     */
+    @Override
+    public Iterator<int[]> getWordHistoryIterator() {
+        return new Iterator<int[]>() {
+            private int row;
+
+            @Override
+            public boolean hasNext() {
+                return this.row < GraphMapped.this.numHistories;
+            }
+
+            @Override
+            public int[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                return getWordHistory(this.row++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private int[] getWordHistory(final int inRow) {
+        final int[] history = new int[this.order];
+
+        final int start = this.historyKeysStart + inRow * this.order * 4;
+        for (int i = 0; i < this.order; i++) {
+            history[i] = this.buffer.getInt(start + i * 4);
+        }
+
+        return history;
+    }
+
+    /**
+     * Binary searches the sorted history records.
+     *
+     * @return The row of the given history, or -1 if it isn't in this graph.
+     */
+    private int findRow(final int[] inWordHistory) {
+        if (inWordHistory.length != this.order) {
+            return -1;
+        }
+
+        int low = 0;
+        int high = this.numHistories - 1;
+
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = compareHistoryAt(mid, inWordHistory);
+
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -1;
+    }
+
+    private int compareHistoryAt(final int inRow, final int[] inWordHistory) {
+        final int start = this.historyKeysStart + inRow * this.order * 4;
+
+        for (int i = 0; i < this.order; i++) {
+            final int wordId = this.buffer.getInt(start + i * 4);
+            final int other = inWordHistory[i];
+
+            if (wordId != other) {
+                return (wordId < other) ? -1 : 1;
+            }
+        }
+
+        return 0;
+    }
+}
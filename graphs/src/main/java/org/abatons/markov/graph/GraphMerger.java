@@ -0,0 +1,266 @@
+package org.abatons.markov.graph;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.abatons.markov.graph.dictionary.Dictionary;
+import org.abatons.markov.graph.dictionary.DictionaryLookupCached;
+
+/**
+ * <p>Combines graphs of the same order that were compiled separately, e.g. from different sources on different
+ * machines, into the one graph, as if their texts had been compiled as separate documents of the one corpus.</p>
+ *
+ * <p>The dictionaries are unioned with a k-way merge of their sorted words, giving each graph a remapping from its
+ * word IDs to those of the union. As every dictionary is sorted, the remapping keeps the order of the word IDs, so
+ * each graph's sorted histories are still sorted once remapped. The histories are then k-way merged too, reading
+ * each graph's histories one at a time (see {@link Graph#getWordHistoryIterator()}), and the counts (numerators) of
+ * the transitions of each history are summed across the graphs that have it.</p>
+ *
+ * <p>Only the current history of each graph is held at once, so graphs that aren't kept in memory, like a
+ * {@link GraphMapped}, are never read into it. The merged graph is built up as a {@link GraphCompressedRows}.</p>
+ */
+public final class GraphMerger {
+    private GraphMerger() {
+    }
+
+    /**
+     * @param inGraphs At least one graph, all of the same order
+     * @return A new graph, counting the transitions of all of the given graphs
+     * @throws IllegalArgumentException If there are no graphs, or they aren't all of the same order
+     */
+    public static Graph merge(final List<Graph> inGraphs) {
+        if (inGraphs.isEmpty()) {
+            throw new IllegalArgumentException("There must be at least one graph to merge");
+        }
+
+        final int order = inGraphs.get(0).getOrder();
+        for (final Graph graph : inGraphs) {
+            if (graph.getOrder() != order) {
+                throw new IllegalArgumentException("All of the graphs must be of the same order (" + order
+                        + "), but one was of order " + graph.getOrder());
+            }
+        }
+
+        final int[][] remappings = new int[inGraphs.size()][];
+        final String[] words = mergeDictionaries(inGraphs, remappings);
+
+        final Rows rows = new Rows(order);
+
+        final PriorityQueue<HistoryCursor> heads = new PriorityQueue<HistoryCursor>(inGraphs.size(),
+                new Comparator<HistoryCursor>() {
+                    @Override
+                    public int compare(final HistoryCursor a, final HistoryCursor b) {
+                        return HistoryTable.HISTORY_ORDER.compare(a.remapped, b.remapped);
+                    }
+                });
+        for (int i = 0; i < inGraphs.size(); i++) {
+            final HistoryCursor cursor = new HistoryCursor(inGraphs.get(i), remappings[i]);
+            if (cursor.advance()) {
+                heads.add(cursor);
+            }
+        }
+
+        while (!heads.isEmpty()) {
+            final int[] history = heads.peek().remapped.clone();
+
+            final TransitionsBuilder counts = new TransitionsBuilder();
+
+            // Every graph that has the same history is at the head of the queue
+            while (!heads.isEmpty() && Arrays.equals(heads.peek().remapped, history)) {
+                final HistoryCursor cursor = heads.poll();
+
+                for (final TransitionProbability tp : cursor.graph.getTransitions(cursor.original)) {
+                    counts.recordTransitions(cursor.remapping[tp.targetWordId], tp.getNumerator());
+                }
+
+                if (cursor.advance()) {
+                    heads.add(cursor);
+                }
+            }
+
+            rows.add(history, counts.freeze());
+        }
+
+        return rows.toGraph(new DictionaryLookupCached(words));
+    }
+
+    /**
+     * @param inRemappings Filled in with the remapping from each graph's word IDs to those of the union
+     * @return Every word of all of the dictionaries, sorted alphabetically, without duplicates
+     */
+    private static String[] mergeDictionaries(final List<Graph> inGraphs, final int[][] inRemappings) {
+        final PriorityQueue<WordCursor> heads = new PriorityQueue<WordCursor>(inGraphs.size(),
+                new Comparator<WordCursor>() {
+                    @Override
+                    public int compare(final WordCursor a, final WordCursor b) {
+                        return a.word.compareTo(b.word);
+                    }
+                });
+
+        int maxWords = 0;
+        for (int i = 0; i < inGraphs.size(); i++) {
+            final Dictionary dictionary = inGraphs.get(i).getDictionary();
+
+            inRemappings[i] = new int[dictionary.getNumUniqueWords()];
+            maxWords += dictionary.getNumUniqueWords();
+
+            final WordCursor cursor = new WordCursor(dictionary, inRemappings[i]);
+            if (cursor.advance()) {
+                heads.add(cursor);
+            }
+        }
+
+        final String[] words = new String[maxWords];
+        int numWords = 0;
+
+        while (!heads.isEmpty()) {
+            final WordCursor cursor = heads.poll();
+
+            if (numWords == 0 || !words[numWords - 1].equals(cursor.word)) {
+                words[numWords++] = cursor.word;
+            }
+            cursor.remapping[cursor.wordId] = numWords - 1;
+
+            if (cursor.advance()) {
+                heads.add(cursor);
+            }
+        }
+
+        return Arrays.copyOf(words, numWords);
+    }
+
+    /**
+     * Where one of the graphs is up to in the merge of the dictionaries.
+     */
+    private static final class WordCursor {
+        final Dictionary dictionary;
+        final int[] remapping;
+        int wordId = -1;
+        String word;
+
+        WordCursor(final Dictionary inDictionary, final int[] inRemapping) {
+            this.dictionary = inDictionary;
+            this.remapping = inRemapping;
+        }
+
+        /**
+         * @return False if there are no words left
+         */
+        boolean advance() {
+            if (++this.wordId == this.dictionary.getNumUniqueWords()) {
+                return false;
+            }
+
+            final String next = this.dictionary.getWord(this.wordId);
+            if (this.word != null && this.word.compareTo(next) >= 0) {
+                throw new IllegalArgumentException("The words of every dictionary must be unique and sorted, but "
+                        + next + " isn't");
+            }
+
+            this.word = next;
+            return true;
+        }
+    }
+
+    /**
+     * Where one of the graphs is up to in the merge of the histories.
+     */
+    private static final class HistoryCursor {
+        final Graph graph;
+        final int[] remapping;
+        final Iterator<int[]> histories;
+        int[] original;
+        final int[] remapped;
+
+        HistoryCursor(final Graph inGraph, final int[] inRemapping) {
+            this.graph = inGraph;
+            this.remapping = inRemapping;
+            this.histories = inGraph.getWordHistoryIterator();
+            this.remapped = new int[inGraph.getOrder()];
+        }
+
+        /**
+         * @return False if there are no histories left
+         */
+        boolean advance() {
+            if (!this.histories.hasNext()) {
+                return false;
+            }
+
+            this.original = this.histories.next();
+            for (int i = 0; i < this.remapped.length; i++) {
+                this.remapped[i] = this.remapping[this.original[i]];
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * The merged histories and transitions, in the arrays of a {@link GraphCompressedRows}, grown as they're added.
+     */
+    private static final class Rows {
+        private final int order;
+
+        private int numHistories;
+        private int[] historyKeys;
+        private int[] rowOffsets;
+        private int[] denominators;
+
+        private int numTransitions;
+        private int[] targetWordIds;
+        private int[] numerators;
+
+        Rows(final int inOrder) {
+            this.order = inOrder;
+
+            this.historyKeys = new int[64 * inOrder];
+            this.rowOffsets = new int[65];
+            this.denominators = new int[64];
+            this.targetWordIds = new int[256];
+            this.numerators = new int[256];
+        }
+
+        void add(final int[] inHistory, final Transitions inTransitions) {
+            if (this.numHistories == this.denominators.length) {
+                final int capacity = this.numHistories * 2;
+
+                this.historyKeys = Arrays.copyOf(this.historyKeys, capacity * this.order);
+                this.rowOffsets = Arrays.copyOf(this.rowOffsets, capacity + 1);
+                this.denominators = Arrays.copyOf(this.denominators, capacity);
+            }
+
+            final int needed = this.numTransitions + inTransitions.getNumberTransitions();
+            if (needed > this.targetWordIds.length) {
+                final int capacity = Math.max(needed, this.targetWordIds.length * 2);
+
+                this.targetWordIds = Arrays.copyOf(this.targetWordIds, capacity);
+                this.numerators = Arrays.copyOf(this.numerators, capacity);
+            }
+
+            System.arraycopy(inHistory, 0, this.historyKeys, this.numHistories * this.order, this.order);
+
+            for (final TransitionProbability tp : inTransitions) {
+                this.targetWordIds[this.numTransitions] = tp.targetWordId;
+                this.numerators[this.numTransitions] = tp.getNumerator();
+                this.denominators[this.numHistories] = tp.getDenominator();
+                this.numTransitions++;
+            }
+
+            this.numHistories++;
+            this.rowOffsets[this.numHistories] = this.numTransitions;
+        }
+
+        Graph toGraph(final DictionaryLookupCached inDictionary) {
+            return new GraphCompressedRows(inDictionary, this.order,
+                    Arrays.copyOf(this.historyKeys, this.numHistories * this.order),
+                    Arrays.copyOf(this.rowOffsets, this.numHistories + 1),
+                    Arrays.copyOf(this.targetWordIds, this.numTransitions),
+                    Arrays.copyOf(this.numerators, this.numTransitions),
+                    Arrays.copyOf(this.denominators, this.numHistories));
+        }
+    }
+}
@@ -4,4 +4,12 @@ package org.abatons.markov.graph;
 public interface GraphPersistence {
 	Graph load();
 	void save(Graph inGraph);
+
+	/**
+	 * Counts scaled down when they were saved (see {@link Transitions#scaledToPrecision(int)}) aren't the counts of
+	 * the text any more, so counting more text into them, or merging them with others, would skew them.
+	 * 
+	 * @return Whether the saved graph's counts were scaled down. False if there's no saved graph.
+	 */
+	boolean hasScaledCounts();
 }
@@ -1,36 +1,117 @@
 package org.abatons.markov.graph;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 import org.abatons.markov.graph.dictionary.Dictionary;
 import org.abatons.markov.graph.dictionary.DictionaryLookup;
 import org.abatons.markov.graph.dictionary.DictionaryLookupBinarySearch;
 
+/**
+ * <p>Persists graphs in the compact "raw" format, which has to be read in full to reconstitute the graph. Word IDs,
+ * counts and lengths are all written as varints (see {@link Varints}), so small values take a single byte.</p>
+ *
+ * <p>The file is made up of:</p>
+ * <ol>
+ * <li>Header - int magic, int version, then (unless quantized) a byte of the bits of precision that the counts were
+ * scaled to (see below), or 0 if they're exact</li>
+ * <li>Dictionary - varint numWords, then each word in alphabetical order, in modified UTF-8 (as DataOutput does)</li>
+ * <li>Histories - varint order, varint numHistories, then for each history: order varint word IDs, varint
+ * numTransitions, then (if there are any transitions) their shared varint denominator, then for each transition a
+ * varint target word ID and numerator</li>
+ * </ol>
+ *
+ * <p>Counts are exact by default. As a varint grows by a byte for every seven bits, the counts of very common
+ * histories can instead be scaled down to a given number of bits of precision when saving (see
+ * {@link Transitions#scaledToPrecision(int)}), which only changes those histories with a count that doesn't fit.</p>
+ *
+ * <p>Alternatively, the counts can be quantized (see {@link TransitionQuantizer}), in which case the version is 2,
+ * the header is followed by a byte of the number of bits and a byte that's 1 for the log scale, and each history's
+ * transitions are its varint numTransitions, then (if there are any) its varint total count, then for each
+ * transition a varint target word ID and a single byte code. A quantized file is loaded as a {@link GraphQuantized},
+ * and a GraphQuantized saved with the same quantizer keeps its codes exactly.</p>
+ */
 public class GraphPersistenceRaw implements GraphPersistence {
+   static final int MAGIC = 0x4D4B5652; // "MKVR"
+   static final int VERSION = 1;
+   static final int QUANTIZED_VERSION = 2;
+
    private final String filename;
    private final InputStream inputStream;
    private final OutputStream outputStream;
+   private final int countPrecisionBits;
+   private final TransitionQuantizer quantizer;
 
    public GraphPersistenceRaw(final String inFilename) {
+      this(inFilename, 0);
+   }
+
+   /**
+    * @param inQuantizer When saving, the counts are quantized by this
+    */
+   public GraphPersistenceRaw(final String inFilename, final TransitionQuantizer inQuantizer) {
+      this.filename = inFilename;
+
+      this.inputStream = null;
+      this.outputStream = null;
+      this.countPrecisionBits = 0;
+      this.quantizer = inQuantizer;
+   }
+
+   /**
+    * @param inCountPrecisionBits When saving, the counts of each history are scaled down so that none takes more
+    *           than this many bits, between 1 and 30. Zero saves the exact counts.
+    */
+   public GraphPersistenceRaw(final String inFilename, final int inCountPrecisionBits) {
+      assert (inCountPrecisionBits >= 0 && inCountPrecisionBits < 31);
+
       this.filename = inFilename;
       
       this.inputStream = null;
       this.outputStream = null;
+      this.countPrecisionBits = inCountPrecisionBits;
+      this.quantizer = null;
    }
 
    public GraphPersistenceRaw(final InputStream inInputStream, final OutputStream inOutputStream) {
+      this(inInputStream, inOutputStream, 0);
+   }
+
+   /**
+    * @param inCountPrecisionBits As {@link #GraphPersistenceRaw(String, int)}
+    */
+   public GraphPersistenceRaw(final InputStream inInputStream, final OutputStream inOutputStream,
+                              final int inCountPrecisionBits) {
+      assert (inCountPrecisionBits >= 0 && inCountPrecisionBits < 31);
+
       this.filename = null;
       
       this.inputStream = inInputStream;
       this.outputStream = inOutputStream;
+      this.countPrecisionBits = inCountPrecisionBits;
+      this.quantizer = null;
+   }
+
+   /**
+    * @param inQuantizer As {@link #GraphPersistenceRaw(String, TransitionQuantizer)}
+    */
+   public GraphPersistenceRaw(final InputStream inInputStream, final OutputStream inOutputStream,
+                              final TransitionQuantizer inQuantizer) {
+      this.filename = null;
+
+      this.inputStream = inInputStream;
+      this.outputStream = inOutputStream;
+      this.countPrecisionBits = 0;
+      this.quantizer = inQuantizer;
    }
    
    @Override
@@ -47,40 +128,61 @@ public class GraphPersistenceRaw implements GraphPersistence {
             if(this.outputStream != null) {
                outputStreamToUse = this.outputStream;
             } else {
-               outputStreamToUse = new FileOutputStream(new File(this.filename));
+               outputStreamToUse = new BufferedOutputStream(new FileOutputStream(new File(this.filename)), 1 << 16);
             }
             
             dos = new DataOutputStream(outputStreamToUse);
          }
          
+         dos.writeInt(MAGIC);
+         if (this.quantizer != null) {
+            dos.writeInt(QUANTIZED_VERSION);
+            dos.writeByte(this.quantizer.getBits());
+            dos.writeByte(this.quantizer.isLogScale() ? 1 : 0);
+         } else {
+            dos.writeInt(VERSION);
+            dos.writeByte(this.countPrecisionBits);
+         }
+         
          final Dictionary dict = inGraph.getDictionary();
 
          final int numWords = dict.getNumUniqueWords();
-         assert(numWords <= Character.MAX_VALUE);
-         dos.writeChar(dict.getNumUniqueWords());
+         Varints.writeVarint(dos, numWords);
          
-         for (char wordId = 0; wordId < numWords; wordId++) {
+         for (int wordId = 0; wordId < numWords; wordId++) {
             dos.writeUTF(dict.getWord(wordId));
          }
 
-         final String allWordHistories[] = inGraph.getWordHistories();
-         dos.writeInt(allWordHistories.length);
+         Varints.writeVarint(dos, inGraph.getOrder());
+         
+         final int allWordHistories[][] = inGraph.getWordHistories();
+         Varints.writeVarint(dos, allWordHistories.length);
          
          for (int historiesIndex = 0; historiesIndex < allWordHistories.length; historiesIndex++) {
-            final String wordHistory = allWordHistories[historiesIndex];
+            final int[] wordHistory = allWordHistories[historiesIndex];
             
-            dos.writeUTF(wordHistory);
+            for (final int wordId : wordHistory) {
+               Varints.writeVarint(dos, wordId);
+            }
+            
+            if (this.quantizer != null) {
+               writeQuantized(dos, inGraph, historiesIndex, wordHistory);
+               continue;
+            }
             
-            final Transitions t = inGraph.getTransitions(wordHistory);
+            Transitions t = inGraph.getTransitions(wordHistory);
+            if (this.countPrecisionBits > 0) {
+               t = t.scaledToPrecision(this.countPrecisionBits);
+            }
             
-            final int numTransitions = t.getNumberTransitions();
-            assert(numTransitions <= Character.MAX_VALUE);
-            dos.writeChar(numTransitions);
+            Varints.writeVarint(dos, t.getNumberTransitions());
+            if (t.getNumberTransitions() > 0) {
+               Varints.writeVarint(dos, t.iterator().next().getDenominator());
+            }
              
             for(final TransitionProbability tp : t) {
-               dos.writeChar(tp.targetWordId);
-               dos.writeChar(tp.getNumerator());
-               dos.writeChar(tp.getDenominator());
+               Varints.writeVarint(dos, tp.targetWordId);
+               Varints.writeVarint(dos, tp.getNumerator());
             }
          }
 
@@ -96,6 +198,41 @@ public class GraphPersistenceRaw implements GraphPersistence {
       }
    }
 
+   private void writeQuantized(final DataOutputStream inOut, final Graph inGraph, final int inRow,
+                               final int[] inWordHistory) throws IOException {
+      final int[] targetWordIds;
+      final byte[] codes;
+      final int total;
+
+      if (inGraph instanceof GraphQuantized && this.quantizer.equals(((GraphQuantized) inGraph).getQuantizer())) {
+         final GraphQuantized quantized = (GraphQuantized) inGraph;
+
+         targetWordIds = quantized.getTargetWordIds(inRow);
+         codes = quantized.getCodes(inRow);
+         total = quantized.getTotal(inRow);
+      } else {
+         final Transitions t = inGraph.getTransitions(inWordHistory);
+
+         targetWordIds = new int[t.getNumberTransitions()];
+         for (int i = 0; i < targetWordIds.length; i++) {
+            targetWordIds[i] = t.get(i).targetWordId;
+         }
+
+         codes = new byte[targetWordIds.length];
+         total = this.quantizer.quantize(t, codes, 0);
+      }
+
+      Varints.writeVarint(inOut, targetWordIds.length);
+      if (targetWordIds.length > 0) {
+         Varints.writeVarint(inOut, total);
+      }
+
+      for (int i = 0; i < targetWordIds.length; i++) {
+         Varints.writeVarint(inOut, targetWordIds[i]);
+         inOut.writeByte(codes[i]);
+      }
+   }
+
    @Override
    public Graph load() {
       final long startTime = System.currentTimeMillis();
@@ -115,39 +252,63 @@ public class GraphPersistenceRaw implements GraphPersistence {
                   return null;
                }
                
-               inputStreamToUse = new FileInputStream(file);
+               inputStreamToUse = new BufferedInputStream(new FileInputStream(file), 1 << 16);
             }
             
             dis = new DataInputStream(inputStreamToUse);
          }
          
-         final char numWords = dis.readChar();
+         final int version = (dis.readInt() == MAGIC) ? dis.readInt() : -1;
+         if (version != VERSION && version != QUANTIZED_VERSION) {
+            System.out.println(filename + " is not in the raw format");
+            return null;
+         }
+         
+         final TransitionQuantizer quantized = (version == QUANTIZED_VERSION) ? new TransitionQuantizer(
+               dis.readUnsignedByte(), dis.readUnsignedByte() == 1) : null;
+         if (quantized == null) {
+            dis.readUnsignedByte(); // The count precision bits, only needed by hasScaledCounts
+         }
+         
+         final int numWords = Varints.readVarint(dis);
          final String uniqueAndSortedWords[] = new String[numWords];
-         for (char wordId = 0; wordId < numWords; wordId++) {
+         for (int wordId = 0; wordId < numWords; wordId++) {
             uniqueAndSortedWords[wordId] = dis.readUTF();
          }
          
          final DictionaryLookup dict = new DictionaryLookupBinarySearch(uniqueAndSortedWords);
          
-         final int numWordHistories = dis.readInt();
+         final int order = Varints.readVarint(dis);
+         final int numWordHistories = Varints.readVarint(dis);
          
-         // Choose the hashmap's initial capacity to be enough for all the words (and include 
-         // a little more spare capacity to cover the default load factor of 0.75).
-         final int initialCapacity = (numWordHistories + (numWordHistories / 4));
+         if (quantized != null) {
+            final Graph reconstituted = loadQuantized(dis, dict, quantized, order, numWordHistories);
+            
+            System.out.println("Loading from "+filename+" took " + (System.currentTimeMillis() - startTime) + "ms");
+            
+            return reconstituted;
+         }
          
-         final Map<String, Transitions> wordHistoryToTransitions = new HashMap<String, Transitions>(initialCapacity);
+         final HistoryTable<Transitions> wordHistoryToTransitions = new HistoryTable<Transitions>(order, numWordHistories);
          
+         final int[] wordHistory = new int[order];
          for (int historiesIndex = 0; historiesIndex < numWordHistories; historiesIndex++) {
+            for (int i = 0; i < order; i++) {
+               wordHistory[i] = Varints.readVarint(dis);
+            }
+            
             final Transitions t = new Transitions();
             
-            wordHistoryToTransitions.put(dis.readUTF(), t);
+            wordHistoryToTransitions.put(wordHistory, t);
             
-            for(char stillToRead = dis.readChar(); stillToRead > 0; stillToRead--) {
-               final char targetWordId = dis.readChar();
-               final char numerator = dis.readChar();
-               final char denominator = dis.readChar();
+            final int numTransitions = Varints.readVarint(dis);
+            final int denominator = (numTransitions > 0) ? Varints.readVarint(dis) : 0;
+            
+            for(int stillToRead = numTransitions; stillToRead > 0; stillToRead--) {
+               final int targetWordId = Varints.readVarint(dis);
+               final int numerator = Varints.readVarint(dis);
                
-               t.addTransition(targetWordId, numerator, denominator, stillToRead > 1);
+               t.addTransition(targetWordId, numerator, denominator, stillToRead == 1);
             }
          }
          
@@ -167,4 +328,84 @@ public class GraphPersistenceRaw implements GraphPersistence {
          }
       }
    }
+
+   /**
+    * Reads the histories of a quantized file straight into the arrays of a {@link GraphQuantized}. The number of
+    * transitions isn't known up front, so those arrays are grown as they're read.
+    */
+   private static Graph loadQuantized(final DataInputStream inIn, final DictionaryLookup inDict,
+                                      final TransitionQuantizer inQuantizer, final int inOrder,
+                                      final int inNumWordHistories) throws IOException {
+      final int[] historyKeys = new int[inNumWordHistories * inOrder];
+      final int[] rowOffsets = new int[inNumWordHistories + 1];
+      final int[] totals = new int[inNumWordHistories];
+
+      int[] targetWordIds = new int[Math.max(16, inNumWordHistories)];
+      byte[] codes = new byte[targetWordIds.length];
+
+      for (int row = 0; row < inNumWordHistories; row++) {
+         for (int i = 0; i < inOrder; i++) {
+            historyKeys[row * inOrder + i] = Varints.readVarint(inIn);
+         }
+
+         final int numTransitions = Varints.readVarint(inIn);
+         final int start = rowOffsets[row];
+         rowOffsets[row + 1] = start + numTransitions;
+
+         if (numTransitions > 0) {
+            totals[row] = Varints.readVarint(inIn);
+         }
+
+         if (start + numTransitions > targetWordIds.length) {
+            final int capacity = Math.max(start + numTransitions, targetWordIds.length * 2);
+
+            targetWordIds = Arrays.copyOf(targetWordIds, capacity);
+            codes = Arrays.copyOf(codes, capacity);
+         }
+
+         for (int i = start; i < start + numTransitions; i++) {
+            targetWordIds[i] = Varints.readVarint(inIn);
+            codes[i] = inIn.readByte();
+         }
+      }
+
+      final int numTransitions = rowOffsets[inNumWordHistories];
+
+      return new GraphQuantized(inDict, inQuantizer, inOrder, historyKeys, rowOffsets,
+            Arrays.copyOf(targetWordIds, numTransitions), Arrays.copyOf(codes, numTransitions), totals);
+   }
+
+   /**
+    * Reads just the header of the file.
+    * 
+    * @throws IllegalStateException If this persists to streams rather than a file, as the header would be read off
+    *            the stream.
+    */
+   @Override
+   public boolean hasScaledCounts() {
+      if (this.filename == null) {
+         throw new IllegalStateException("Only a file's header can be read on its own");
+      }
+
+      final File file = new File(this.filename);
+      if (!file.exists()) {
+         return false;
+      }
+
+      DataInputStream dis = null;
+      try {
+         dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+         return dis.readInt() == MAGIC && dis.readInt() == VERSION && dis.readUnsignedByte() > 0;
+      } catch (final IOException unreadable) {
+         return false;
+      } finally {
+         if (dis != null) {
+            try {
+               dis.close();
+            } catch (Throwable anything) {
+            }
+         }
+      }
+   }
 }
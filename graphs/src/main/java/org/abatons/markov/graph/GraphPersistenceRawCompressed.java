@@ -0,0 +1,199 @@
+package org.abatons.markov.graph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+
+import org.abatons.markov.graph.dictionary.Dictionary;
+import org.abatons.markov.graph.dictionary.DictionaryLookup;
+import org.abatons.markov.graph.dictionary.DictionaryLookupFrontCoded;
+import org.abatons.markov.graph.dictionary.DictionaryLookupPerfectHash;
+import org.abatons.markov.graph.dictionary.MinimalPerfectHash;
+
+/**
+ * <p>Persists graphs in the "compressed raw" format, which is as small as can be for sending over the air. The
+ * histories and transitions are kept as the blocks of a {@link GraphCompressedBlocks}, which loading returns, so the
+ * blocks are only decoded as they're visited. The loaded dictionary is a {@link DictionaryLookupFrontCoded}, so it
+ * stays small in memory too, behind a {@link DictionaryLookupPerfectHash} for O(1) word ID lookups. The hash is
+ * built when saving, so loading doesn't have to.</p>
+ *
+ * <p>The file is made up of:</p>
+ * <ol>
+ * <li>Header - int magic, int version</li>
+ * <li>Dictionary - varint numWords, then each word in alphabetical order, in modified UTF-8 (as DataOutput does)</li>
+ * <li>Word hash - a {@link MinimalPerfectHash} of the words, as written by {@link MinimalPerfectHash#writeTo}</li>
+ * <li>Graph - varint order, varint numHistories, varint historiesPerBlock, byte 1 if the blocks are deflated or 0 if
+ * not</li>
+ * <li>Blocks - for each block: order varint word IDs of its first history, then if deflated its varint uncompressed
+ * length, then its varint stored length and the stored bytes</li>
+ * </ol>
+ */
+public class GraphPersistenceRawCompressed implements GraphPersistence {
+   static final int MAGIC = 0x4D4B565A; // "MKVZ"
+   static final int VERSION = 1;
+
+   private final String filename;
+   private final boolean deflate;
+
+   /**
+    * Saves with deflated blocks
+    */
+   public GraphPersistenceRawCompressed(final String inFilename) {
+      this(inFilename, true);
+   }
+
+   /**
+    * @param inDeflate Whether to deflate the blocks when saving. It's ignored when saving a
+    *           {@link GraphCompressedBlocks}, whose blocks are saved as they are.
+    */
+   public GraphPersistenceRawCompressed(final String inFilename, final boolean inDeflate) {
+      this.filename = inFilename;
+      this.deflate = inDeflate;
+   }
+
+   @Override
+   public void save(final Graph inGraph) {
+      final long startTime = System.currentTimeMillis();
+
+      DataOutputStream dos = null;
+
+      try {
+         final GraphCompressedBlocks compressed = (inGraph instanceof GraphCompressedBlocks) ? (GraphCompressedBlocks) inGraph
+               : new GraphCompressedBlocks(inGraph, this.deflate);
+
+         dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(this.filename)), 1 << 16));
+
+         dos.writeInt(MAGIC);
+         dos.writeInt(VERSION);
+
+         final Dictionary dict = compressed.getDictionary();
+
+         final int numWords = dict.getNumUniqueWords();
+         Varints.writeVarint(dos, numWords);
+
+         for (int wordId = 0; wordId < numWords; wordId++) {
+            dos.writeUTF(dict.getWord(wordId));
+         }
+
+         final MinimalPerfectHash hash = (dict instanceof DictionaryLookupPerfectHash) ? ((DictionaryLookupPerfectHash) dict)
+               .getHash() : MinimalPerfectHash.build(dict);
+         hash.writeTo(dos);
+
+         Varints.writeVarint(dos, compressed.getOrder());
+         Varints.writeVarint(dos, compressed.getNumWordHistories());
+         Varints.writeVarint(dos, compressed.getHistoriesPerBlock());
+         dos.writeByte(compressed.isDeflated() ? 1 : 0);
+
+         for (int block = 0; block < compressed.getNumBlocks(); block++) {
+            for (final int wordId : compressed.getFirstHistory(block)) {
+               Varints.writeVarint(dos, wordId);
+            }
+
+            if (compressed.isDeflated()) {
+               Varints.writeVarint(dos, compressed.getUncompressedLength(block));
+            }
+
+            final byte[] stored = compressed.getBlock(block);
+            Varints.writeVarint(dos, stored.length);
+            dos.write(stored);
+         }
+      } catch (final Exception anything) {
+         anything.printStackTrace();
+      } finally {
+         if (dos != null) {
+            try {
+               dos.close();
+            } catch (Throwable anything) {
+            }
+         }
+         System.out.println("Saving to " + filename + " took " + (System.currentTimeMillis() - startTime) + "ms");
+      }
+   }
+
+   /**
+    * Reads the blocks into memory as they are, without decoding them.
+    *
+    * @return A {@link GraphCompressedBlocks}, or null if the file doesn't exist or isn't in the compressed raw format.
+    */
+   @Override
+   public Graph load() {
+      final long startTime = System.currentTimeMillis();
+
+      final File file = new File(this.filename);
+      if (!file.exists()) {
+         return null;
+      }
+
+      DataInputStream dis = null;
+      try {
+         dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+
+         if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+            System.out.println(filename + " is not in the compressed raw format");
+            return null;
+         }
+
+         final int numWords = Varints.readVarint(dis);
+         final String uniqueAndSortedWords[] = new String[numWords];
+         for (int wordId = 0; wordId < numWords; wordId++) {
+            uniqueAndSortedWords[wordId] = dis.readUTF();
+         }
+
+         final DictionaryLookup words = new DictionaryLookupFrontCoded(uniqueAndSortedWords);
+         final DictionaryLookup dict = new DictionaryLookupPerfectHash(words, MinimalPerfectHash.readFrom(dis));
+
+         final int order = Varints.readVarint(dis);
+         final int numHistories = Varints.readVarint(dis);
+         final int historiesPerBlock = Varints.readVarint(dis);
+         final boolean deflated = dis.readByte() != 0;
+
+         final int numBlocks = (numHistories + historiesPerBlock - 1) / historiesPerBlock;
+
+         final int[] firstHistories = new int[numBlocks * order];
+         final byte[][] blocks = new byte[numBlocks][];
+         final int[] uncompressedLengths = deflated ? new int[numBlocks] : null;
+
+         for (int block = 0; block < numBlocks; block++) {
+            for (int i = 0; i < order; i++) {
+               firstHistories[block * order + i] = Varints.readVarint(dis);
+            }
+
+            if (deflated) {
+               uncompressedLengths[block] = Varints.readVarint(dis);
+            }
+
+            blocks[block] = new byte[Varints.readVarint(dis)];
+            dis.readFully(blocks[block]);
+         }
+
+         final Graph reconstituted = new GraphCompressedBlocks(dict, order, numHistories, historiesPerBlock,
+               firstHistories, blocks, uncompressedLengths);
+
+         System.out.println("Loading from " + filename + " took " + (System.currentTimeMillis() - startTime) + "ms");
+
+         return reconstituted;
+      } catch (final Exception anything) {
+         anything.printStackTrace();
+         return null;
+      } finally {
+         if (dis != null) {
+            try {
+               dis.close();
+            } catch (Throwable anything) {
+            }
+         }
+      }
+   }
+
+   /**
+    * @return Always false, as the counts are always saved exactly
+    */
+   @Override
+   public boolean hasScaledCounts() {
+      return false;
+   }
+}
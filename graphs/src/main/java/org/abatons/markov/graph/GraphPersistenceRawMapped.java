@@ -0,0 +1,188 @@
+package org.abatons.markov.graph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import org.abatons.markov.graph.dictionary.Dictionary;
+
+/**
+ * <p>Persists graphs in the "raw v2" format, which is laid out so that the file can be memory mapped and used
+ * directly as the graph without parsing any of it. Loading returns a {@link GraphMapped} view over the mapped file,
+ * so it opens in constant time, and only the parts of the file that are actually visited are paged in.</p>
+ *
+ * <p>All values are big endian. The file is made up of a fixed size header followed by a number of sections:</p>
+ * <ol>
+ * <li>Header - int magic, int version, int order, int numWords, int numHistories, int numTransitions,
+ * int numWordBytes, int reserved</li>
+ * <li>Word offsets - (numWords + 1) ints, the offset of each word within the word bytes</li>
+ * <li>Word bytes - the UTF-8 encoding of all words, in alphabetical order, then padded to a multiple of 4 bytes</li>
+ * <li>History keys - numHistories sorted records of order ints each, the word IDs of each history</li>
+ * <li>Row offsets - (numHistories + 1) ints, the index of each history's first transition</li>
+ * <li>Denominators - numHistories ints, the shared denominator of each history's transitions</li>
+ * <li>Transitions - numTransitions records of an int target word ID and an int numerator</li>
+ * </ol>
+ *
+ * <p>The whole file has to fit in a single mapping, so it's limited to 2GB.</p>
+ */
+public class GraphPersistenceRawMapped implements GraphPersistence {
+   static final int MAGIC = 0x4D4B5632; // "MKV2"
+   static final int VERSION = 1;
+   static final int HEADER_SIZE = 8 * 4;
+   static final int TRANSITION_SIZE = 4 + 4;
+
+   static final Charset UTF8 = Charset.forName("UTF-8");
+
+   private final String filename;
+
+   public GraphPersistenceRawMapped(final String inFilename) {
+      this.filename = inFilename;
+   }
+
+   @Override
+   public void save(final Graph inGraph) {
+      final long startTime = System.currentTimeMillis();
+
+      DataOutputStream dos = null;
+
+      try {
+         dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(this.filename)), 1 << 16));
+
+         final Dictionary dict = inGraph.getDictionary();
+         final int numWords = dict.getNumUniqueWords();
+
+         final byte[][] encodedWords = new byte[numWords][];
+         int numWordBytes = 0;
+         for (int wordId = 0; wordId < numWords; wordId++) {
+            encodedWords[wordId] = dict.getWord(wordId).getBytes(UTF8);
+            numWordBytes += encodedWords[wordId].length;
+         }
+
+         final int[][] sortedHistories = inGraph.getWordHistories();
+
+         final int order = inGraph.getOrder();
+
+         final int[] rowOffsets = new int[sortedHistories.length + 1];
+         for (int row = 0; row < sortedHistories.length; row++) {
+            assert (sortedHistories[row].length == order);
+            rowOffsets[row + 1] = rowOffsets[row] + inGraph.getTransitions(sortedHistories[row]).getNumberTransitions();
+         }
+
+         dos.writeInt(MAGIC);
+         dos.writeInt(VERSION);
+         dos.writeInt(order);
+         dos.writeInt(numWords);
+         dos.writeInt(sortedHistories.length);
+         dos.writeInt(rowOffsets[sortedHistories.length]);
+         dos.writeInt(numWordBytes);
+         dos.writeInt(0);
+
+         int wordOffset = 0;
+         dos.writeInt(wordOffset);
+         for (final byte[] encodedWord : encodedWords) {
+            wordOffset += encodedWord.length;
+            dos.writeInt(wordOffset);
+         }
+
+         for (final byte[] encodedWord : encodedWords) {
+            dos.write(encodedWord);
+         }
+         for (int padding = padding(numWordBytes); padding > 0; padding--) {
+            dos.writeByte(0);
+         }
+
+         for (final int[] history : sortedHistories) {
+            for (final int wordId : history) {
+               dos.writeInt(wordId);
+            }
+         }
+
+         for (final int rowOffset : rowOffsets) {
+            dos.writeInt(rowOffset);
+         }
+
+         for (final int[] history : sortedHistories) {
+            final Transitions t = inGraph.getTransitions(history);
+            dos.writeInt(t.getNumberTransitions() > 0 ? t.iterator().next().getDenominator() : 0);
+         }
+
+         for (final int[] history : sortedHistories) {
+            for (final TransitionProbability tp : inGraph.getTransitions(history)) {
+               dos.writeInt(tp.targetWordId);
+               dos.writeInt(tp.getNumerator());
+            }
+         }
+      } catch (final Exception anything) {
+         anything.printStackTrace();
+      } finally {
+         if (dos != null) {
+            try {
+               dos.close();
+            } catch (Throwable anything) {
+            }
+         }
+         System.out.println("Saving to " + filename + " took " + (System.currentTimeMillis() - startTime) + "ms");
+      }
+   }
+
+   /**
+    * Maps the file into memory and returns a view over it. Nothing is read from the file other than its header.
+    *
+    * @return A {@link GraphMapped}, or null if the file doesn't exist or isn't in the raw v2 format.
+    */
+   @Override
+   public Graph load() {
+      final long startTime = System.currentTimeMillis();
+
+      final File file = new File(this.filename);
+      if (!file.exists()) {
+         return null;
+      }
+
+      RandomAccessFile raf = null;
+      try {
+         raf = new RandomAccessFile(file, "r");
+
+         final FileChannel channel = raf.getChannel();
+
+         // The mapping remains valid after the channel is closed.
+         final ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+         final Graph reconstituted = new GraphMapped(mapped);
+
+         System.out.println("Loading from " + filename + " took " + (System.currentTimeMillis() - startTime) + "ms");
+
+         return reconstituted;
+      } catch (final Exception anything) {
+         anything.printStackTrace();
+         return null;
+      } finally {
+         if (raf != null) {
+            try {
+               raf.close();
+            } catch (Throwable anything) {
+            }
+         }
+      }
+   }
+
+   /**
+    * @return The number of bytes needed to bring the given length up to a multiple of 4
+    */
+   static int padding(final int inLength) {
+      return (4 - (inLength & 3)) & 3;
+   }
+
+   /**
+    * @return Always false, as the counts are always saved exactly
+    */
+   @Override
+   public boolean hasScaledCounts() {
+      return false;
+   }
+}
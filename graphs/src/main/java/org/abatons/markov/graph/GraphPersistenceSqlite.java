@@ -7,20 +7,43 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Map;
+import java.util.List;
 
 import org.abatons.markov.graph.dictionary.Dictionary;
 import org.abatons.markov.graph.dictionary.DictionaryLookup;
 import org.abatons.markov.graph.dictionary.DictionaryLookupBinarySearch;
 
+/**
+ * Persists graphs in a SQLite database. Each history is kept as the text of its word IDs separated by spaces, oldest
+ * first, e.g. "12 7 3". Counts are kept as SQLite integers, which take only as many bytes as the value needs.
+ * 
+ * <p>A saved graph can either be loaded into memory, or opened with {@link #loadLazily(int)} so that its transitions
+ * are only queried as they're visited.</p>
+ * 
+ * <p>Saving is a bulk load. The inserts are executed in batches of a bounded number of rows, in one transaction,
+ * with foreign keys unchecked and the sync to disk skipped. The unique and lookup indexes are only built once all of
+ * the rows are in.</p>
+ */
 public class GraphPersistenceSqlite implements GraphPersistence {
    private final String filename;
+   private final int countPrecisionBits;
 
    public GraphPersistenceSqlite(final String inFilename) {
+      this(inFilename, 0);
+   }
+
+   /**
+    * @param inCountPrecisionBits When saving, the counts of each history are scaled down so that none takes more
+    *           than this many bits (see {@link Transitions#scaledToPrecision(int)}), between 1 and 30. Zero saves
+    *           the exact counts.
+    */
+   public GraphPersistenceSqlite(final String inFilename, final int inCountPrecisionBits) {
+      assert (inCountPrecisionBits >= 0 && inCountPrecisionBits < 31);
+
       this.filename = inFilename;
+      this.countPrecisionBits = inCountPrecisionBits;
    }
 
    @Override
@@ -28,82 +51,196 @@ public class GraphPersistenceSqlite implements GraphPersistence {
       final long startTime = System.currentTimeMillis();
       
       try {
-         final Connection conn = getConnection(filename);
+         final Connection conn = getBulkLoadConnection(filename);
 
          createTables(conn);
-         conn.commit();
 
-         final PreparedStatement intoGraph = conn
-               .prepareStatement("INSERT INTO histories (id, history) VALUES (?, ?);");
-         final PreparedStatement intoTransitions = conn
-               .prepareStatement("INSERT INTO transitions (histories_id, target_words_id, sequence, numerator, denominator) VALUES (?, ?, ?, ?, ?);");
-         final PreparedStatement intoWord = conn
-               .prepareStatement("INSERT INTO words (id, word) VALUES (?, ?);");
+         final ChunkedBatch intoGraph = new ChunkedBatch(conn,
+               "INSERT INTO histories (id, history) VALUES (?, ?);");
+         final ChunkedBatch intoTransitions = new ChunkedBatch(conn,
+               "INSERT INTO transitions (histories_id, target_words_id, sequence, numerator, denominator) VALUES (?, ?, ?, ?, ?);");
+         final ChunkedBatch intoWord = new ChunkedBatch(conn, "INSERT INTO words (id, word) VALUES (?, ?);");
+
+         final PreparedStatement intoGraphOrder = conn.prepareStatement(
+               "INSERT INTO graph (graph_order, count_precision_bits) VALUES (?, ?);");
+         intoGraphOrder.setInt(1, inGraph.getOrder());
+         intoGraphOrder.setInt(2, this.countPrecisionBits);
+         intoGraphOrder.executeUpdate();
 
          final Dictionary dict = inGraph.getDictionary();
 
          final int numWords = dict.getNumUniqueWords();
-         for (char wordId = 0; wordId < numWords; wordId++) {
+         for (int wordId = 0; wordId < numWords; wordId++) {
             final String word = dict.getWord(wordId);
 
-            intoWord.setInt(1, wordId); // column id
-            intoWord.setString(2, word); // column word
-            intoWord.addBatch();
+            intoWord.statement.setInt(1, wordId); // column id
+            intoWord.statement.setString(2, word); // column word
+            intoWord.addRow();
          }
 
-         final String allWordHistories[] = inGraph.getWordHistories();
+         final int allWordHistories[][] = inGraph.getWordHistories();
          for (int historiesId = 0; historiesId < allWordHistories.length; historiesId++) {
-            final String wordHistory = allWordHistories[historiesId];
+            final int[] wordHistory = allWordHistories[historiesId];
 
-            intoGraph.setInt(1, historiesId); // column id
-            intoGraph.setString(2, wordHistory); // column history
-            intoGraph.addBatch();
+            intoGraph.statement.setInt(1, historiesId); // column id
+            intoGraph.statement.setString(2, toText(wordHistory)); // column history
+            intoGraph.addRow();
 
-            final Iterator<TransitionProbability> it = inGraph.getTransitions(wordHistory).iterator();
+            Transitions t = inGraph.getTransitions(wordHistory);
+            if (this.countPrecisionBits > 0) {
+               t = t.scaledToPrecision(this.countPrecisionBits);
+            }
+
+            final Iterator<TransitionProbability> it = t.iterator();
             for (int sequence = 0; it.hasNext(); sequence++) {
                final TransitionProbability tp = it.next();
 
-               intoTransitions.setInt(1, historiesId); // column histories_id
-               intoTransitions.setInt(2, tp.targetWordId); // column words_id
-               intoTransitions.setInt(3, sequence); // column sequence
-               intoTransitions.setInt(4, tp.getNumerator()); // column numerator
-               intoTransitions.setInt(5, tp.getDenominator()); // column denominator
-               intoTransitions.addBatch();
+               intoTransitions.statement.setInt(1, historiesId); // column histories_id
+               intoTransitions.statement.setInt(2, tp.targetWordId); // column words_id
+               intoTransitions.statement.setInt(3, sequence); // column sequence
+               intoTransitions.statement.setInt(4, tp.getNumerator()); // column numerator
+               intoTransitions.statement.setInt(5, tp.getDenominator()); // column denominator
+               intoTransitions.addRow();
             }
          }
 
-         intoGraph.executeBatch();
-         intoWord.executeBatch();
-         intoTransitions.executeBatch();
+         intoGraph.flush();
+         intoWord.flush();
+         intoTransitions.flush();
+
+         // Built after the rows are in, which is quicker than keeping them up to date with every insert
+         conn.createStatement().executeUpdate("CREATE UNIQUE INDEX histories_history ON histories (history);");
+         conn.createStatement().executeUpdate("CREATE UNIQUE INDEX words_word ON words (word);");
+         createTransitionsIndex(conn);
 
          conn.commit();
 
          conn.close();
          
-         System.out.println("Saving to "+filename+" took " + (System.currentTimeMillis() - startTime) + "ms");
+         final long numRows = intoGraph.getNumRows() + intoWord.getNumRows() + intoTransitions.getNumRows();
+         final long took = System.currentTimeMillis() - startTime;
+         System.out.println("Saving to " + filename + " took " + took + "ms, " + numRows + " rows at "
+               + (numRows * 1000 / Math.max(1, took)) + " rows/sec");
       } catch (final Exception anything) {
          anything.printStackTrace();
       }
    }
 
+   static String toText(final int[] inWordHistory) {
+      final StringBuilder text = new StringBuilder();
+
+      for (int i = 0; i < inWordHistory.length; i++) {
+         if (i > 0) {
+            text.append(' ');
+         }
+         text.append(inWordHistory[i]);
+      }
+
+      return text.toString();
+   }
+
+   static int[] fromText(final String inWordHistory, final int inOrder) {
+      final String[] wordIds = inWordHistory.split(" ");
+      if (wordIds.length != inOrder) {
+         throw new IllegalStateException("The history '" + inWordHistory + "' is not of order " + inOrder);
+      }
+
+      final int[] history = new int[inOrder];
+      for (int i = 0; i < inOrder; i++) {
+         history[i] = Integer.parseInt(wordIds[i]);
+      }
+
+      return history;
+   }
+
    private void createTables(final Connection conn) throws SQLException {
       final Statement stat = conn.createStatement();
 
+      stat.executeUpdate("DROP TABLE IF EXISTS graph;");
       stat.executeUpdate("DROP TABLE IF EXISTS histories;");
       stat.executeUpdate("DROP TABLE IF EXISTS transitions;");
       stat.executeUpdate("DROP TABLE IF EXISTS words;");
 
+      // The histories and words are unique, but that's enforced by the indexes built after the rows are in
+      stat.executeUpdate("CREATE TABLE graph (" + "  graph_order INTEGER NOT NULL, "
+            + "  count_precision_bits INTEGER NOT NULL " + ");");
+
       stat.executeUpdate("CREATE TABLE histories (" + "  id INTEGER PRIMARY KEY, "
-            + "  history STRING NOT NULL UNIQUE " + ");");
+            + "  history STRING NOT NULL " + ");");
 
-      stat.executeUpdate("CREATE TABLE transitions (" + "  id INTEGER PRIMARY KEY ASC AUTOINCREMENT, "
+      // The id is just the rowid, rather than AUTOINCREMENT's extra table of the largest id used
+      stat.executeUpdate("CREATE TABLE transitions (" + "  id INTEGER PRIMARY KEY, "
             + "  histories_id INTEGER NOT NULL, " + "  target_words_id INTEGER NOT NULL, "
             + "  sequence INTEGER NOT NULL, " + "  numerator INTEGER NOT NULL, "
             + "  denominator INTEGER NOT NULL, " + "  FOREIGN KEY (histories_id) REFERENCES histories (id), "
             + "  FOREIGN KEY (target_words_id) REFERENCES words (id) " + ");");
 
       stat.executeUpdate("CREATE TABLE words (" + "  id INTEGER PRIMARY KEY, "
-            + "  word TEXT NOT NULL UNIQUE" + ");");
+            + "  word TEXT NOT NULL" + ");");
+   }
+
+   /**
+    * So that the transitions of a single history can be queried without a scan of the whole table.
+    */
+   private static void createTransitionsIndex(final Connection conn) throws SQLException {
+      conn.createStatement().executeUpdate(
+            "CREATE INDEX IF NOT EXISTS transitions_histories_id ON transitions (histories_id, sequence);");
+   }
+
+   /**
+    * For saving. Neither the foreign keys nor the sync to disk after each write are worth their cost while a whole
+    * graph is being written in one go, and the rollback journal is kept in memory. These only last as long as the
+    * connection, and have to be set before its transaction starts.
+    */
+   static Connection getBulkLoadConnection(final String filename) throws ClassNotFoundException, SQLException {
+      Class.forName("org.sqlite.JDBC");
+
+      final Connection conn = DriverManager.getConnection("jdbc:sqlite:" + filename);
+
+      final Statement stat = conn.createStatement();
+      stat.executeUpdate("PRAGMA foreign_keys = OFF;");
+      stat.executeUpdate("PRAGMA synchronous = OFF;");
+      stat.execute("PRAGMA journal_mode = MEMORY;");
+      stat.close();
+
+      conn.setAutoCommit(false);
+
+      return conn;
+   }
+
+   /**
+    * Inserts rows in batches of at most {@link #ROWS_PER_BATCH}, so the driver never holds more than that many rows
+    * at once, however big the graph.
+    */
+   static final class ChunkedBatch {
+      static final int ROWS_PER_BATCH = 10000;
+
+      final PreparedStatement statement;
+      private long numRows;
+
+      ChunkedBatch(final Connection inConnection, final String inSql) throws SQLException {
+         this.statement = inConnection.prepareStatement(inSql);
+      }
+
+      /**
+       * Adds the row whose parameters have been set on the statement.
+       */
+      void addRow() throws SQLException {
+         this.statement.addBatch();
+
+         if (++this.numRows % ROWS_PER_BATCH == 0) {
+            this.statement.executeBatch();
+         }
+      }
+
+      void flush() throws SQLException {
+         this.statement.executeBatch();
+         this.statement.close();
+      }
+
+      long getNumRows() {
+         return this.numRows;
+      }
    }
 
    private Connection getConnection(final String filename) throws ClassNotFoundException, SQLException {
@@ -135,7 +272,7 @@ public class GraphPersistenceSqlite implements GraphPersistence {
 
          final DictionaryLookup dict = loadDictionary(stat);
 
-         final Map<String, Transitions> wordHistoryToTransitions = loadHistoryTransitionsMap(stat);
+         final HistoryTable<Transitions> wordHistoryToTransitions = loadHistoryTransitionsMap(stat, loadOrder(stat));
 
          conn.close();
 
@@ -149,8 +286,63 @@ public class GraphPersistenceSqlite implements GraphPersistence {
       }
    }
 
-   private Map<String, Transitions> loadHistoryTransitionsMap(final Statement stat) throws SQLException {
-      final Map<String, Transitions> wordHistoryToTransitions = new HashMap<String, Transitions>();
+   /**
+    * As {@link #loadLazily(int)}, caching the transitions of the last 1024 histories used.
+    */
+   public GraphSqlite loadLazily() {
+      return loadLazily(GraphSqlite.DEFAULT_NUM_CACHED_HISTORIES);
+   }
+
+   /**
+    * Opens the saved graph without loading its transitions, which are queried from the database as they're visited.
+    * Only the dictionary is loaded into memory. The graph must be closed when it's finished with.
+    * 
+    * @param inNumCachedHistories How many of the most recently used histories to keep the transitions of
+    * @return Null if the database doesn't exist or can't be read
+    */
+   public GraphSqlite loadLazily(final int inNumCachedHistories) {
+      final long startTime = System.currentTimeMillis();
+
+      if (!(new File(filename)).exists()) {
+         return null;
+      }
+
+      try {
+         final Connection conn = getConnection(filename);
+
+         conn.setAutoCommit(true);
+
+         final Statement stat = conn.createStatement();
+
+         final GraphSqlite opened = new GraphSqlite(loadDictionary(stat), conn, loadOrder(stat), inNumCachedHistories);
+
+         stat.close();
+
+         System.out.println("Opening " + filename + " took " + (System.currentTimeMillis() - startTime) + "ms");
+
+         return opened;
+      } catch (final Exception whatever) {
+         return null;
+      }
+   }
+
+   private int loadOrder(final Statement stat) throws SQLException {
+      final ResultSet rsGraph = stat.executeQuery("SELECT graph_order FROM graph;");
+
+      try {
+         if (!rsGraph.next()) {
+            throw new IllegalStateException("The graph's order is missing");
+         }
+
+         return rsGraph.getInt("graph_order");
+      } finally {
+         rsGraph.close();
+      }
+   }
+
+   private HistoryTable<Transitions> loadHistoryTransitionsMap(final Statement stat, final int inOrder)
+         throws SQLException {
+      final HistoryTable<Transitions> wordHistoryToTransitions = new HistoryTable<Transitions>(inOrder);
 
       final String sql = "SELECT h.history, t.target_words_id, t.numerator, t.denominator "
             + "FROM histories h, transitions t " + "WHERE h.id = t.histories_id "
@@ -165,15 +357,15 @@ public class GraphPersistenceSqlite implements GraphPersistence {
 
          while (hasResultsLeft) {
             final String wordHistory = rsTransitions.getString("history");
-            final char tagetWordId = (char) rsTransitions.getInt("target_words_id");
-            final char numerator = (char) rsTransitions.getInt("numerator");
-            final char denominator = (char) rsTransitions.getInt("denominator");
+            final int tagetWordId = rsTransitions.getInt("target_words_id");
+            final int numerator = rsTransitions.getInt("numerator");
+            final int denominator = rsTransitions.getInt("denominator");
 
             if (!wordHistory.equals(currentHistory)) {
                currentHistory = wordHistory;
                currentHistoryTransitions = new Transitions();
 
-               wordHistoryToTransitions.put(currentHistory, currentHistoryTransitions);
+               wordHistoryToTransitions.put(fromText(currentHistory, inOrder), currentHistoryTransitions);
             }
 
             hasResultsLeft = rsTransitions.next();
@@ -188,7 +380,7 @@ public class GraphPersistenceSqlite implements GraphPersistence {
    }
 
    private DictionaryLookup loadDictionary(final Statement stat) throws SQLException {
-      final LinkedList<String> wordList = new LinkedList<String>();
+      final List<String> wordList = new ArrayList<String>();
 
       final ResultSet rsWords = stat.executeQuery("SELECT id, word FROM words ORDER BY id ASC;");
 
@@ -202,4 +394,32 @@ public class GraphPersistenceSqlite implements GraphPersistence {
 
       return new DictionaryLookupBinarySearch(wordList.toArray(new String[0]));
    }
+
+   /**
+    * Reads just the graph table.
+    */
+   @Override
+   public boolean hasScaledCounts() {
+      if (!(new File(filename)).exists()) {
+         return false;
+      }
+
+      try {
+         final Connection conn = getConnection(filename);
+         try {
+            final Statement stat = conn.createStatement();
+            final ResultSet rsGraph = stat.executeQuery("SELECT count_precision_bits FROM graph;");
+            try {
+               return rsGraph.next() && rsGraph.getInt(1) > 0;
+            } finally {
+               rsGraph.close();
+               stat.close();
+            }
+         } finally {
+            conn.close();
+         }
+      } catch (final Exception whatever) {
+         return false;
+      }
+   }
 }
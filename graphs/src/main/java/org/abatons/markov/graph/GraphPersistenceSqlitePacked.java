@@ -0,0 +1,298 @@
+package org.abatons.markov.graph;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+
+import org.abatons.markov.graph.dictionary.Dictionary;
+import org.abatons.markov.graph.dictionary.DictionaryLookupBinarySearch;
+
+/**
+ * <p>Persists graphs in a SQLite database with a packed schema, which loads far quicker than the row per transition
+ * schema of {@link GraphPersistenceSqlite}. Loading returns a {@link GraphCompressedRows}.</p>
+ *
+ * <p>The tables are:</p>
+ * <ol>
+ * <li><code>graph</code> - a single row of the schema version, the order, the bits of precision that the counts
+ * were scaled to (or 0 if they're exact), and the number of words, histories and transitions, so the loader can size
+ * everything up front.</li>
+ * <li><code>words</code> - each word, by word ID.</li>
+ * <li><code>histories</code> - a row for each history, in sorted order, with the history as a BLOB of its word IDs
+ * as big-endian ints (which sort as the histories do) and its transitions packed into a BLOB, as varint
+ * numTransitions, then (if there are any) the shared varint denominator, then each transition's varint target word
+ * ID and varint numerator.</li>
+ * </ol>
+ *
+ * <p>Both the words and the histories are loaded in primary key order, which is the order the rows are kept in, so
+ * there's no join or sort, and they're streamed straight into presized arrays. Saving is a bulk load, as with
+ * {@link GraphPersistenceSqlite}.</p>
+ */
+public class GraphPersistenceSqlitePacked implements GraphPersistence {
+   static final int VERSION = 1;
+
+   private final String filename;
+   private final int countPrecisionBits;
+
+   public GraphPersistenceSqlitePacked(final String inFilename) {
+      this(inFilename, 0);
+   }
+
+   /**
+    * @param inCountPrecisionBits As {@link GraphPersistenceSqlite#GraphPersistenceSqlite(String, int)}
+    */
+   public GraphPersistenceSqlitePacked(final String inFilename, final int inCountPrecisionBits) {
+      assert (inCountPrecisionBits >= 0 && inCountPrecisionBits < 31);
+
+      this.filename = inFilename;
+      this.countPrecisionBits = inCountPrecisionBits;
+   }
+
+   @Override
+   public void save(final Graph inGraph) {
+      final long startTime = System.currentTimeMillis();
+
+      try {
+         final Connection conn = GraphPersistenceSqlite.getBulkLoadConnection(filename);
+
+         createTables(conn);
+
+         final GraphPersistenceSqlite.ChunkedBatch intoWords = new GraphPersistenceSqlite.ChunkedBatch(conn,
+               "INSERT INTO words (id, word) VALUES (?, ?);");
+         final GraphPersistenceSqlite.ChunkedBatch intoHistories = new GraphPersistenceSqlite.ChunkedBatch(conn,
+               "INSERT INTO histories (id, history, transitions) VALUES (?, ?, ?);");
+
+         final Dictionary dict = inGraph.getDictionary();
+         final int numWords = dict.getNumUniqueWords();
+         for (int wordId = 0; wordId < numWords; wordId++) {
+            intoWords.statement.setInt(1, wordId); // column id
+            intoWords.statement.setString(2, dict.getWord(wordId)); // column word
+            intoWords.addRow();
+         }
+
+         final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         final DataOutputStream dos = new DataOutputStream(bytes);
+
+         long numTransitions = 0;
+
+         final int allWordHistories[][] = inGraph.getWordHistories();
+         for (int historiesId = 0; historiesId < allWordHistories.length; historiesId++) {
+            final int[] wordHistory = allWordHistories[historiesId];
+
+            bytes.reset();
+            for (final int wordId : wordHistory) {
+               dos.writeInt(wordId);
+            }
+            intoHistories.statement.setInt(1, historiesId); // column id
+            intoHistories.statement.setBytes(2, bytes.toByteArray()); // column history
+
+            Transitions t = inGraph.getTransitions(wordHistory);
+            if (this.countPrecisionBits > 0) {
+               t = t.scaledToPrecision(this.countPrecisionBits);
+            }
+
+            bytes.reset();
+            writeTransitions(dos, t);
+            intoHistories.statement.setBytes(3, bytes.toByteArray()); // column transitions
+            intoHistories.addRow();
+
+            numTransitions += t.getNumberTransitions();
+         }
+
+         intoWords.flush();
+         intoHistories.flush();
+
+         if (numTransitions > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The graph has too many transitions to be loaded: " + numTransitions);
+         }
+
+         final Statement stat = conn.createStatement();
+         stat.executeUpdate("INSERT INTO graph (schema_version, graph_order, count_precision_bits, num_words, "
+               + "num_histories, num_transitions) VALUES (" + VERSION + ", " + inGraph.getOrder() + ", "
+               + this.countPrecisionBits + ", " + numWords + ", " + allWordHistories.length + ", " + numTransitions
+               + ");");
+
+         // Built after the rows are in, which is quicker than keeping them up to date with every insert
+         stat.executeUpdate("CREATE UNIQUE INDEX histories_history ON histories (history);");
+         stat.executeUpdate("CREATE UNIQUE INDEX words_word ON words (word);");
+         stat.close();
+
+         conn.commit();
+
+         conn.close();
+
+         final long numRows = 1 + intoWords.getNumRows() + intoHistories.getNumRows();
+         final long took = System.currentTimeMillis() - startTime;
+         System.out.println("Saving to " + filename + " took " + took + "ms, " + numRows + " rows at "
+               + (numRows * 1000 / Math.max(1, took)) + " rows/sec");
+      } catch (final Exception anything) {
+         anything.printStackTrace();
+      }
+   }
+
+   private static void writeTransitions(final DataOutputStream inOut, final Transitions inTransitions)
+         throws IOException {
+      Varints.writeVarint(inOut, inTransitions.getNumberTransitions());
+
+      final Iterator<TransitionProbability> it = inTransitions.iterator();
+      for (boolean first = true; it.hasNext(); first = false) {
+         final TransitionProbability tp = it.next();
+
+         if (first) {
+            Varints.writeVarint(inOut, tp.getDenominator());
+         }
+
+         Varints.writeVarint(inOut, tp.targetWordId);
+         Varints.writeVarint(inOut, tp.getNumerator());
+      }
+   }
+
+   private void createTables(final Connection conn) throws SQLException {
+      final Statement stat = conn.createStatement();
+
+      // Including the tables of the row per transition schema, so the two are never mixed up in the one database
+      stat.executeUpdate("DROP TABLE IF EXISTS graph;");
+      stat.executeUpdate("DROP TABLE IF EXISTS histories;");
+      stat.executeUpdate("DROP TABLE IF EXISTS transitions;");
+      stat.executeUpdate("DROP TABLE IF EXISTS words;");
+
+      stat.executeUpdate("CREATE TABLE graph (" + "  schema_version INTEGER NOT NULL, "
+            + "  graph_order INTEGER NOT NULL, " + "  count_precision_bits INTEGER NOT NULL, "
+            + "  num_words INTEGER NOT NULL, "
+            + "  num_histories INTEGER NOT NULL, " + "  num_transitions INTEGER NOT NULL " + ");");
+
+      stat.executeUpdate("CREATE TABLE words (" + "  id INTEGER PRIMARY KEY, " + "  word TEXT NOT NULL" + ");");
+
+      stat.executeUpdate("CREATE TABLE histories (" + "  id INTEGER PRIMARY KEY, " + "  history BLOB NOT NULL, "
+            + "  transitions BLOB NOT NULL " + ");");
+
+      stat.close();
+   }
+
+   /**
+    * @return Null if the database doesn't exist, or isn't in this version of the packed schema
+    */
+   @Override
+   public Graph load() {
+      final long startTime = System.currentTimeMillis();
+
+      if (!(new File(filename)).exists()) {
+         return null;
+      }
+
+      try {
+         Class.forName("org.sqlite.JDBC");
+
+         final Connection conn = DriverManager.getConnection("jdbc:sqlite:" + filename);
+
+         try {
+            final Statement stat = conn.createStatement();
+
+            final ResultSet rsGraph = stat.executeQuery("SELECT schema_version, graph_order, num_words, "
+                  + "num_histories, num_transitions FROM graph;");
+            if (!rsGraph.next() || rsGraph.getInt(1) != VERSION) {
+               throw new IllegalStateException("Not in version " + VERSION + " of the packed schema");
+            }
+            final int order = rsGraph.getInt(2);
+            final int numWords = rsGraph.getInt(3);
+            final int numHistories = rsGraph.getInt(4);
+            final int numTransitions = rsGraph.getInt(5);
+            rsGraph.close();
+
+            final String[] words = new String[numWords];
+
+            final ResultSet rsWords = stat.executeQuery("SELECT word FROM words ORDER BY id;");
+            for (int wordId = 0; rsWords.next(); wordId++) {
+               words[wordId] = rsWords.getString(1);
+            }
+            rsWords.close();
+
+            final int[] historyKeys = new int[numHistories * order];
+            final int[] rowOffsets = new int[numHistories + 1];
+            final int[] targetWordIds = new int[numTransitions];
+            final int[] numerators = new int[numTransitions];
+            final int[] denominators = new int[numHistories];
+
+            final ResultSet rsHistories = stat.executeQuery("SELECT history, transitions FROM histories ORDER BY id;");
+            int row = 0;
+            for (; rsHistories.next(); row++) {
+               final DataInputStream history = new DataInputStream(new ByteArrayInputStream(rsHistories.getBytes(1)));
+               for (int i = 0; i < order; i++) {
+                  historyKeys[row * order + i] = history.readInt();
+               }
+
+               final DataInputStream transitions = new DataInputStream(new ByteArrayInputStream(
+                     rsHistories.getBytes(2)));
+
+               final int numRowTransitions = Varints.readVarint(transitions);
+               final int start = rowOffsets[row];
+               rowOffsets[row + 1] = start + numRowTransitions;
+
+               if (numRowTransitions > 0) {
+                  denominators[row] = Varints.readVarint(transitions);
+               }
+               for (int i = start; i < start + numRowTransitions; i++) {
+                  targetWordIds[i] = Varints.readVarint(transitions);
+                  numerators[i] = Varints.readVarint(transitions);
+               }
+            }
+            rsHistories.close();
+            stat.close();
+
+            if (row != numHistories || rowOffsets[numHistories] != numTransitions) {
+               throw new IllegalStateException("The histories don't match the counts in the graph table");
+            }
+
+            final Graph reconstituted = new GraphCompressedRows(new DictionaryLookupBinarySearch(words), order,
+                  historyKeys, rowOffsets, targetWordIds, numerators, denominators);
+
+            System.out.println("Loading from " + filename + " took " + (System.currentTimeMillis() - startTime)
+                  + "ms");
+
+            return reconstituted;
+         } finally {
+            conn.close();
+         }
+      } catch (final Exception whatever) {
+         return null;
+      }
+   }
+
+   /**
+    * Reads just the graph table.
+    */
+   @Override
+   public boolean hasScaledCounts() {
+      if (!(new File(filename)).exists()) {
+         return false;
+      }
+
+      try {
+         Class.forName("org.sqlite.JDBC");
+
+         final Connection conn = DriverManager.getConnection("jdbc:sqlite:" + filename);
+         try {
+            final Statement stat = conn.createStatement();
+            final ResultSet rsGraph = stat.executeQuery("SELECT count_precision_bits FROM graph;");
+            try {
+               return rsGraph.next() && rsGraph.getInt(1) > 0;
+            } finally {
+               rsGraph.close();
+               stat.close();
+            }
+         } finally {
+            conn.close();
+         }
+      } catch (final Exception whatever) {
+         return false;
+      }
+   }
+}
@@ -0,0 +1,237 @@
+package org.abatons.markov.graph;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.abatons.markov.graph.dictionary.DictionaryLookup;
+
+/**
+ * <p>An immutable Graph laid out as compressed sparse rows, as {@link GraphCompressedRows} is, but with each
+ * transition's count quantized to a single byte by a {@link TransitionQuantizer}, and only the total count of each
+ * history kept exactly. That's five bytes a transition (the target word ID and its code) rather than eight, at the
+ * cost of approximate probabilities, within the quantizer's documented error.</p>
+ *
+ * <p>The transitions of a history are dequantized when they're asked for, so the numerators are approximate counts
+ * adding up to about the history's total.</p>
+ */
+public class GraphQuantized extends Graph {
+    private final TransitionQuantizer quantizer;
+
+    private final int order;
+    private final int[] historyKeys;
+    private final int[] rowOffsets;
+    private final int[] targetWordIds;
+    private final byte[] codes;
+    private final int[] totals;
+
+    /**
+     * Quantizes all of the histories and transitions of the given graph. The given graph can be discarded
+     * afterwards.
+     *
+     * @param inGraph Every one of its word histories must be the same length.
+     */
+    public GraphQuantized(final Graph inGraph, final TransitionQuantizer inQuantizer) {
+        super(inGraph.getDictionary());
+
+        this.quantizer = inQuantizer;
+
+        final int[][] sortedHistories = inGraph.getWordHistories();
+
+        final int numHistories = sortedHistories.length;
+
+        this.order = inGraph.getOrder();
+        this.historyKeys = new int[numHistories * this.order];
+        this.rowOffsets = new int[numHistories + 1];
+        this.totals = new int[numHistories];
+
+        int numTransitions = 0;
+        for (int row = 0; row < numHistories; row++) {
+            final int[] history = sortedHistories[row];
+
+            if (history.length != this.order) {
+                throw new IllegalArgumentException("All word histories must be of the same order (" + this.order
+                        + "), but one was of order " + history.length);
+            }
+
+            System.arraycopy(history, 0, this.historyKeys, row * this.order, this.order);
+
+            numTransitions += inGraph.getTransitions(history).getNumberTransitions();
+            this.rowOffsets[row + 1] = numTransitions;
+        }
+
+        this.targetWordIds = new int[numTransitions];
+        this.codes = new byte[numTransitions];
+
+        for (int row = 0; row < numHistories; row++) {
+            final Transitions transitions = inGraph.getTransitions(sortedHistories[row]);
+
+            for (int i = 0; i < transitions.getNumberTransitions(); i++) {
+                this.targetWordIds[this.rowOffsets[row] + i] = transitions.get(i).targetWordId;
+            }
+
+            this.totals[row] = inQuantizer.quantize(transitions, this.codes, this.rowOffsets[row]);
+        }
+    }
+
+    /**
+     * For loading, where the arrays have already been filled in the layout described above, with the codes and
+     * totals given by the quantizer. They're kept rather than copied.
+     */
+    GraphQuantized(final DictionaryLookup inDictionary, final TransitionQuantizer inQuantizer, final int inOrder,
+                   final int[] inHistoryKeys, final int[] inRowOffsets, final int[] inTargetWordIds,
+                   final byte[] inCodes, final int[] inTotals) {
+        super(inDictionary);
+
+        this.quantizer = inQuantizer;
+        this.order = inOrder;
+        this.historyKeys = inHistoryKeys;
+        this.rowOffsets = inRowOffsets;
+        this.targetWordIds = inTargetWordIds;
+        this.codes = inCodes;
+        this.totals = inTotals;
+    }
+
+    public TransitionQuantizer getQuantizer() {
+        return this.quantizer;
+    }
+
+    @Override
+    public int getOrder() {
+        return this.order;
+    }
+
+    public int getNumWordHistories() {
+        return this.totals.length;
+    }
+
+    @Override
+    public Transitions getTransitions(final int[] inFollowingThisWordHistory) {
+        final int row = findRow(inFollowingThisWordHistory);
+        if (row < 0) {
+            return Transitions.EMPTY;
+        }
+
+        return this.quantizer.dequantize(this.targetWordIds, this.codes, this.rowOffsets[row],
+                this.rowOffsets[row + 1] - this.rowOffsets[row], this.totals[row]);
+    }
+
+    /**
+     * For saving the codes exactly as they are, rather than quantizing the dequantized counts again.
+     *
+     * @param inRow The index of the history in {@link #getWordHistories()}
+     */
+    byte[] getCodes(final int inRow) {
+        return Arrays.copyOfRange(this.codes, this.rowOffsets[inRow], this.rowOffsets[inRow + 1]);
+    }
+
+    /**
+     * @param inRow The index of the history in {@link #getWordHistories()}
+     */
+    int[] getTargetWordIds(final int inRow) {
+        return Arrays.copyOfRange(this.targetWordIds, this.rowOffsets[inRow], this.rowOffsets[inRow + 1]);
+    }
+
+    /**
+     * @param inRow The index of the history in {@link #getWordHistories()}
+     */
+    int getTotal(final int inRow) {
+        return this.totals[inRow];
+    }
+
+    @Override
+    public int[] getAWordHistoryForTesting() {
+        return (getNumWordHistories() > 0) ? getWordHistory(0) : null;
+    }
+
+    /**
+     * @return Every word history, in sorted order.
+     */
+    @Override
+    public int[][] getWordHistories() {
+        final int[][] histories = new int[getNumWordHistories()][];
+
+        for (int row = 0; row < histories.length; row++) {
+            histories[row] = getWordHistory(row);
+        }
+
+        return histories;
+    }
+
+    /**
+     * Reads each history from its row as it's reached.
+     */
+    @Override
+    public Iterator<int[]> getWordHistoryIterator() {
+        return new Iterator<int[]>() {
+            private int row;
+
+            @Override
+            public boolean hasNext() {
+                return this.row < getNumWordHistories();
+            }
+
+            @Override
+            public int[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                return getWordHistory(this.row++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private int[] getWordHistory(final int inRow) {
+        return Arrays.copyOfRange(this.historyKeys, inRow * this.order, (inRow + 1) * this.order);
+    }
+
+    /**
+     * Binary searches the sorted history keys.
+     *
+     * @return The row of the given history, or -1 if it isn't in this graph.
+     */
+    private int findRow(final int[] inWordHistory) {
+        if (inWordHistory.length != this.order) {
+            return -1;
+        }
+
+        int low = 0;
+        int high = getNumWordHistories() - 1;
+
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = compareHistoryAt(mid, inWordHistory);
+
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -1;
+    }
+
+    private int compareHistoryAt(final int inRow, final int[] inWordHistory) {
+        final int start = inRow * this.order;
+
+        for (int i = 0; i < this.order; i++) {
+            final int wordId = this.historyKeys[start + i];
+            final int other = inWordHistory[i];
+
+            if (wordId != other) {
+                return (wordId < other) ? -1 : 1;
+            }
+        }
+
+        return 0;
+    }
+}
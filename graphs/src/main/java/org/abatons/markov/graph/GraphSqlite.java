@@ -0,0 +1,301 @@
+package org.abatons.markov.graph;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.abatons.markov.graph.dictionary.DictionaryLookup;
+
+/**
+ * <p>A read only Graph that leaves its transitions in a SQLite database (see {@link GraphPersistenceSqlite}), and
+ * only queries a history's transitions when they're asked for, so the heap used doesn't grow with the size of the
+ * graph. The connection is kept open until {@link #close()}.</p>
+ *
+ * <p>Each lookup is a single prepared query on the indexed history and history ID columns. The transitions of the
+ * most recently used histories are kept in a bounded LRU cache, including those of unknown histories, so a walk
+ * through the graph that keeps returning to the same histories, as a parody does, only queries each of them once.
+ * The cache's hits and misses are counted, to help choose its size.</p>
+ *
+ * <p>Safe for concurrent readers, but a JDBC connection can only run one query at a time, so misses are made one at
+ * a time, as are updates to the cache's LRU order.</p>
+ *
+ * <p>The histories can be iterated over a page at a time (see {@link #getWordHistoryIterator()}), e.g. to merge the
+ * graph with others, without reading all of them into the heap.</p>
+ */
+public class GraphSqlite extends Graph implements Closeable {
+    static final int DEFAULT_NUM_CACHED_HISTORIES = 1024;
+
+    /**
+     * How many histories {@link #getWordHistoryIterator()} queries at a time
+     */
+    static final int HISTORY_PAGE_SIZE = 1024;
+
+    private final Connection connection;
+    private final PreparedStatement selectTransitions;
+    private final PreparedStatement selectHistoryPage;
+
+    private final int order;
+
+    private final Map<String, Transitions> cache;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param inConnection Left open until {@link #close()}. Only read from.
+     * @param inNumCachedHistories How many of the most recently used histories to keep the transitions of. Zero
+     *            keeps none.
+     */
+    GraphSqlite(final DictionaryLookup inDictionary, final Connection inConnection, final int inOrder,
+                final int inNumCachedHistories) throws SQLException {
+        super(inDictionary);
+
+        this.connection = inConnection;
+        this.order = inOrder;
+
+        this.selectTransitions = inConnection.prepareStatement("SELECT t.target_words_id, t.numerator, t.denominator "
+                + "FROM histories h, transitions t WHERE h.history = ? AND t.histories_id = h.id "
+                + "ORDER BY t.sequence ASC;");
+        this.selectHistoryPage = inConnection.prepareStatement("SELECT id, history FROM histories WHERE id > ? "
+                + "ORDER BY id ASC LIMIT " + HISTORY_PAGE_SIZE + ";");
+
+        this.cache = new LinkedHashMap<String, Transitions>(inNumCachedHistories * 2, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Transitions> inEldest) {
+                return size() > inNumCachedHistories;
+            }
+        };
+    }
+
+    @Override
+    public int getOrder() {
+        return this.order;
+    }
+
+    /**
+     * @return Never null. {@link Transitions#EMPTY} if the history is unknown.
+     * @throws IllegalStateException If the database can't be queried, e.g. as it's been closed.
+     */
+    @Override
+    public Transitions getTransitions(final int[] inFollowingThisWordHistory) {
+        if (inFollowingThisWordHistory.length != this.order) {
+            return Transitions.EMPTY;
+        }
+
+        final String key = GraphPersistenceSqlite.toText(inFollowingThisWordHistory);
+
+        synchronized (this.cache) {
+            final Transitions cached = this.cache.get(key);
+            if (cached != null) {
+                this.hits.incrementAndGet();
+                return cached;
+            }
+        }
+
+        this.misses.incrementAndGet();
+
+        final Transitions transitions = query(key);
+
+        synchronized (this.cache) {
+            this.cache.put(key, transitions);
+        }
+
+        return transitions;
+    }
+
+    private Transitions query(final String inKey) {
+        try {
+            synchronized (this.selectTransitions) {
+                this.selectTransitions.setString(1, inKey);
+
+                final ResultSet rs = this.selectTransitions.executeQuery();
+                try {
+                    if (!rs.next()) {
+                        return Transitions.EMPTY;
+                    }
+
+                    final Transitions transitions = new Transitions();
+
+                    boolean hasResultsLeft = true;
+                    while (hasResultsLeft) {
+                        final int targetWordId = rs.getInt(1);
+                        final int numerator = rs.getInt(2);
+                        final int denominator = rs.getInt(3);
+
+                        hasResultsLeft = rs.next();
+
+                        transitions.addTransition(targetWordId, numerator, denominator, !hasResultsLeft);
+                    }
+
+                    return transitions;
+                } finally {
+                    rs.close();
+                }
+            }
+        } catch (final SQLException cannotQuery) {
+            throw new IllegalStateException("Couldn't query the transitions of " + inKey, cannotQuery);
+        }
+    }
+
+    /**
+     * @return The number of lookups that found the history's transitions in the cache
+     */
+    public long getCacheHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return The number of lookups that had to query the database
+     */
+    public long getCacheMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * @return The number of histories whose transitions are currently cached
+     */
+    public int getNumCachedHistories() {
+        synchronized (this.cache) {
+            return this.cache.size();
+        }
+    }
+
+    @Override
+    public int[] getAWordHistoryForTesting() {
+        final List<int[]> histories = selectHistories("SELECT history FROM histories LIMIT 1;");
+
+        return histories.isEmpty() ? null : histories.get(0);
+    }
+
+    /**
+     * Queries every history, without disturbing the cache.
+     */
+    @Override
+    public int[][] getWordHistories() {
+        final int[][] histories = selectHistories("SELECT history FROM histories;").toArray(new int[0][]);
+
+        Arrays.sort(histories, HistoryTable.HISTORY_ORDER);
+
+        return histories;
+    }
+
+    /**
+     * Queries the histories a page at a time, as they're reached, without disturbing the cache. They're saved with
+     * their IDs in sorted order (see {@link GraphPersistenceSqlite#save(Graph)}), so they're paged through by ID,
+     * which is the primary key.
+     *
+     * @throws IllegalStateException From the iterator, if the database can't be queried.
+     */
+    @Override
+    public Iterator<int[]> getWordHistoryIterator() {
+        return new Iterator<int[]>() {
+            private final List<int[]> page = new ArrayList<int[]>(HISTORY_PAGE_SIZE);
+            private int row;
+            private long lastId = -1;
+            private boolean lastPage;
+
+            @Override
+            public boolean hasNext() {
+                if (this.row == this.page.size() && !this.lastPage) {
+                    this.page.clear();
+                    this.row = 0;
+                    this.lastId = selectHistoryPage(this.lastId, this.page);
+                    this.lastPage = this.page.size() < HISTORY_PAGE_SIZE;
+                }
+
+                return this.row < this.page.size();
+            }
+
+            @Override
+            public int[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                return this.page.get(this.row++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * @param outPage Filled in with the histories of the page after the given ID
+     * @return The ID of the last history of the page
+     */
+    private long selectHistoryPage(final long inAfterId, final List<int[]> outPage) {
+        try {
+            synchronized (this.selectTransitions) {
+                this.selectHistoryPage.setLong(1, inAfterId);
+
+                final ResultSet rs = this.selectHistoryPage.executeQuery();
+                try {
+                    long lastId = inAfterId;
+                    while (rs.next()) {
+                        lastId = rs.getLong(1);
+                        outPage.add(GraphPersistenceSqlite.fromText(rs.getString(2), this.order));
+                    }
+
+                    return lastId;
+                } finally {
+                    rs.close();
+                }
+            }
+        } catch (final SQLException cannotQuery) {
+            throw new IllegalStateException("Couldn't query the histories", cannotQuery);
+        }
+    }
+
+    private List<int[]> selectHistories(final String inSql) {
+        try {
+            synchronized (this.selectTransitions) {
+                final Statement stat = this.connection.createStatement();
+                try {
+                    final ResultSet rs = stat.executeQuery(inSql);
+
+                    final List<int[]> histories = new ArrayList<int[]>();
+                    while (rs.next()) {
+                        histories.add(GraphPersistenceSqlite.fromText(rs.getString(1), this.order));
+                    }
+
+                    return histories;
+                } finally {
+                    stat.close();
+                }
+            }
+        } catch (final SQLException cannotQuery) {
+            throw new IllegalStateException("Couldn't query the histories", cannotQuery);
+        }
+    }
+
+    /**
+     * Closes the connection to the database. The transitions already cached can still be looked up, but any other
+     * lookup will fail.
+     */
+    @Override
+    public void close() {
+        try {
+            synchronized (this.selectTransitions) {
+                this.connection.close();
+            }
+        } catch (final SQLException ignored) {
+            // Nothing more can be done
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package org.abatons.markov.graph;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * <p>An open addressing hash table from word histories to values, where every history is of the same order. The word
+ * IDs of all of the histories are packed back to back into a single int array, so there's no key object for each
+ * history, and a history can be looked up straight from an array of word IDs without building a key.</p>
+ *
+ * <p>A history of order n is n word IDs, the first being the oldest word.</p>
+ *
+ * <p>Not thread safe while it's being built. Once it's no longer changed, and has been safely published (e.g. by
+ * being given to a {@link Graph}), any number of threads can read it at once.</p>
+ *
+ * @param <V> The type of the value kept for each history
+ */
+public class HistoryTable<V> {
+    private static final int INITIAL_CAPACITY = 16; // Must be a power of two
+
+    /**
+     * Sorts histories by their first word ID, then by their second, and so on.
+     */
+    public static final Comparator<int[]> HISTORY_ORDER = new Comparator<int[]>() {
+        @Override
+        public int compare(final int[] a, final int[] b) {
+            final int length = Math.min(a.length, b.length);
+
+            for (int i = 0; i < length; i++) {
+                if (a[i] != b[i]) {
+                    return (a[i] < b[i]) ? -1 : 1;
+                }
+            }
+
+            return a.length - b.length;
+        }
+    };
+
+    private final int order;
+
+    private int[] keys; // The history in slot s is at indicies s * order up to (s + 1) * order
+    private Object[] values; // A null value marks an empty slot
+    private int size;
+
+    /**
+     * @param inOrder The number of words in every history. Must be at least 1.
+     */
+    public HistoryTable(final int inOrder) {
+        this(inOrder, 0);
+    }
+
+    /**
+     * @param inOrder The number of words in every history. Must be at least 1.
+     * @param inExpectedSize Enough room is made for this many histories up front.
+     */
+    public HistoryTable(final int inOrder, final int inExpectedSize) {
+        assert (inOrder > 0);
+
+        this.order = inOrder;
+
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < inExpectedSize * 2) {
+            capacity *= 2;
+        }
+
+        this.keys = new int[capacity * inOrder];
+        this.values = new Object[capacity];
+    }
+
+    public int getOrder() {
+        return this.order;
+    }
+
+    /**
+     * @return The number of histories in the table
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return The value for the given history, or null if the history isn't in the table. Histories of a different
+     *         order are never in the table.
+     */
+    public V get(final int[] inWordHistory) {
+        if (inWordHistory.length != this.order) {
+            return null;
+        }
+
+        return get(inWordHistory, 0);
+    }
+
+    /**
+     * @param inWordIds Holds the history to look up
+     * @param inOffset The index of the history's first (oldest) word. The history is the order number of words from
+     *           here.
+     * @return The value for the history, or null if the history isn't in the table.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(final int[] inWordIds, final int inOffset) {
+        return (V) this.values[findSlot(this.keys, this.values, inWordIds, inOffset)];
+    }
+
+    /**
+     * Sets the value for a history, replacing any value it already had. The history is copied.
+     *
+     * @param inValue Must not be null
+     */
+    public void put(final int[] inWordHistory, final V inValue) {
+        assert (inWordHistory.length == this.order);
+
+        put(inWordHistory, 0, inValue);
+    }
+
+    /**
+     * As {@link #put(int[], Object)}, for the order number of words from the given offset.
+     */
+    public void put(final int[] inWordIds, final int inOffset, final V inValue) {
+        assert (inValue != null);
+
+        // Keep the load factor at or below a half
+        if ((this.size + 1) * 2 > this.values.length) {
+            grow();
+        }
+
+        final int slot = findSlot(this.keys, this.values, inWordIds, inOffset);
+        if (this.values[slot] == null) {
+            System.arraycopy(inWordIds, inOffset, this.keys, slot * this.order, this.order);
+            this.size++;
+        }
+
+        this.values[slot] = inValue;
+    }
+
+    /**
+     * Slow and memory intensive. Not for use on a resource limited device like a mobile.
+     *
+     * @return Every history in the table, sorted by {@link #HISTORY_ORDER}.
+     */
+    public int[][] getHistories() {
+        final int[][] histories = new int[this.size][];
+
+        int i = 0;
+        for (int slot = 0; slot < this.values.length; slot++) {
+            if (this.values[slot] != null) {
+                histories[i++] = getHistoryAt(slot);
+            }
+        }
+
+        Arrays.sort(histories, HISTORY_ORDER);
+
+        return histories;
+    }
+
+    /**
+     * @return Any one of the histories in the table, or null if it's empty.
+     */
+    public int[] getAHistory() {
+        for (int slot = 0; slot < this.values.length; slot++) {
+            if (this.values[slot] != null) {
+                return getHistoryAt(slot);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * For visiting every history in the table without sorting them. Slots are numbered from zero up to (but
+     * excluding) this, and empty slots have a null value.
+     */
+    public int getNumSlots() {
+        return this.values.length;
+    }
+
+    /**
+     * @return The value in the given slot, or null if the slot is empty.
+     */
+    @SuppressWarnings("unchecked")
+    public V getValueAt(final int inSlot) {
+        return (V) this.values[inSlot];
+    }
+
+    /**
+     * @return A copy of the history in the given slot, which must not be empty.
+     */
+    public int[] getHistoryAt(final int inSlot) {
+        assert (this.values[inSlot] != null);
+
+        return Arrays.copyOfRange(this.keys, inSlot * this.order, (inSlot + 1) * this.order);
+    }
+
+    private void grow() {
+        final int[] oldKeys = this.keys;
+        final Object[] oldValues = this.values;
+
+        this.keys = new int[oldKeys.length * 2];
+        this.values = new Object[oldValues.length * 2];
+
+        for (int slot = 0; slot < oldValues.length; slot++) {
+            if (oldValues[slot] != null) {
+                final int newSlot = findSlot(this.keys, this.values, oldKeys, slot * this.order);
+
+                System.arraycopy(oldKeys, slot * this.order, this.keys, newSlot * this.order, this.order);
+                this.values[newSlot] = oldValues[slot];
+            }
+        }
+    }
+
+    /**
+     * Linear probing from a hash of the history's word IDs.
+     *
+     * @return The slot holding the given history, or the empty slot where it should go.
+     */
+    private int findSlot(final int[] inKeys, final Object[] inValues, final int[] inWordIds, final int inOffset) {
+        final int mask = inValues.length - 1;
+
+        int hash = 0;
+        for (int i = 0; i < this.order; i++) {
+            hash = (hash ^ inWordIds[inOffset + i]) * 0x9E3779B9;
+        }
+
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (inValues[slot] != null && !historyEquals(inKeys, slot * this.order, inWordIds, inOffset)) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    private boolean historyEquals(final int[] inKeys, final int inKeyOffset, final int[] inWordIds,
+                                  final int inOffset) {
+        for (int i = 0; i < this.order; i++) {
+            if (inKeys[inKeyOffset + i] != inWordIds[inOffset + i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -1,21 +1,53 @@
 package org.abatons.markov.graph;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Random;
 
+/**
+ * A walk through a Graph, one word at a time, from a starting history. The walk's current history is kept in the
+ * Parody, so one mustn't be shared between threads, but many can walk the same Graph at once (see {@link Graph}).
+ */
 public class Parody {
+  /**
+   * The words that end a sentence, as split off by the compiler.
+   */
+  private static final String[] SENTENCE_ENDS = new String[] { ".", "?", "!", ".\"", "?\"", "!\"" };
+
   private final Graph graph;
   private final Random rng;
+  private final AliasSampler aliasSampler;
 
-  private final StringBuilder currentWordHistory;
+  /**
+   * The IDs of the words in the current history, oldest first
+   */
+  private final int[] currentWordHistory;
 
-  public Parody(final Graph inGraph, final String inStartingWordHistory, final Random inRng) {
+  /**
+   * The IDs of those of the {@link #SENTENCE_ENDS} in the graph's dictionary,
+   * only looked up when first needed.
+   */
+  private int[] sentenceEndWordIds;
+
+  /**
+   * @param inAliasSampler If not null, the next word following a history with
+   *          enough transitions is chosen in constant time using the sampler's
+   *          alias tables, rather than by the roulette wheel.
+   */
+  public Parody(final Graph inGraph, final int[] inStartingWordHistory, final Random inRng,
+                final AliasSampler inAliasSampler) {
     this.graph = inGraph;
     this.rng = inRng;
+    this.aliasSampler = inAliasSampler;
+
+    this.currentWordHistory = inStartingWordHistory.clone();
+  }
 
-    this.currentWordHistory = new StringBuilder(inStartingWordHistory);
+  public Parody(final Graph inGraph, final int[] inStartingWordHistory, final Random inRng) {
+    this(inGraph, inStartingWordHistory, inRng, null);
   }
 
-  public Parody(final Graph inGraph, final String inStartingWordHistory) {
+  public Parody(final Graph inGraph, final int[] inStartingWordHistory) {
     this(inGraph, inStartingWordHistory, new Random());
   }
 
@@ -32,7 +64,9 @@ public class Parody {
    * 
    * <p>Chooses a random chance and runs a roulette wheel selection algorithm to
    * select the next word from the ordered list of potential words following the
-   * current word history.</p>
+   * current word history. If this Parody was given an {@link AliasSampler}, and
+   * the current word history has enough transitions, its alias table is used
+   * instead, which chooses with the same chances in constant time.</p>
    * 
    * <p>This new selected word's ID is then appended to the word current word
    * history.</p>
@@ -49,7 +83,25 @@ public class Parody {
    *         </ol>
    */
   public String getNextWord() {
-    final Transitions transitions = this.graph.getTransitions(this.currentWordHistory.toString());
+    final int wordId = getNextWordId();
+
+    return (wordId < 0) ? null : this.graph.getDictionary().getWord(wordId);
+  }
+
+  /**
+   * <p>As {@link #getNextWord()}, but gives the ID of the next word rather
+   * than the word itself.</p>
+   * 
+   * <p>When navigating a Graph backed by a HistoryTable (as compiled or loaded
+   * by GraphPersistenceRaw or GraphPersistenceSqlite), this allocates nothing:
+   * the history is looked up in place, a miss gives the shared
+   * {@link Transitions#EMPTY}, and the transitions are walked by index.</p>
+   * 
+   * @return The ID of the next word in the parody, or -1 in the same cases that
+   *         {@link #getNextWord()} returns null.
+   */
+  public int getNextWordId() {
+    final Transitions transitions = this.graph.getTransitions(this.currentWordHistory);
 
     final int numTargets = transitions.getNumberTransitions();
 
@@ -60,32 +112,154 @@ public class Parody {
       // was instantiated with an unknown word history?)
       // or 2) This sequence of words is actually the last few words of the
       // entire original text!
-      return null;
+      return -1;
+    }
+
+    if (this.aliasSampler != null) {
+      final AliasTable aliasTable = this.aliasSampler.getAliasTable(this.currentWordHistory, transitions);
+
+      if (aliasTable != null) {
+        return moveTo(aliasTable.chooseTargetWordId(rng));
+      }
     }
 
-    final int chosenChanceNumerator = rng.nextInt(numTargets);
+    // All transitions share the same denominator, being the total number of
+    // times the word history was followed by any word.
+    final int chosenChanceNumerator = rng.nextInt(transitions.get(0).getDenominator());
     int culuativeNumerators = 0;
-    for (final TransitionProbability t : transitions) {
+    for (int i = 0; i < numTargets; i++) {
+      final TransitionProbability t = transitions.get(i);
+
       culuativeNumerators += t.getNumerator();
       if (culuativeNumerators > chosenChanceNumerator) {
         // We're choosing this target word for the next word in the sentence
-        this.currentWordHistory.append(t.targetWordId);
-        this.currentWordHistory.deleteCharAt(0);
-
-        return this.graph.getDictionary().getWord(t.targetWordId);
+        return moveTo(t.targetWordId);
       }
     }
 
-    return null; // Fail
+    return -1; // Fail
   }
 
+  /**
+   * Appends the chosen word to the current word history, dropping the oldest.
+   * 
+   * @return The chosen word's ID
+   */
+  private int moveTo(final int inTargetWordId) {
+    final int last = this.currentWordHistory.length - 1;
+
+    System.arraycopy(this.currentWordHistory, 1, this.currentWordHistory, 0, last);
+    this.currentWordHistory[last] = inTargetWordId;
+
+    return inTargetWordId;
+  }
+
+  /**
+   * @return Up to the given number of words, separated by spaces. There are
+   *         fewer if the parody reaches a history with no words following it.
+   */
   public String generateParody(final int inNumWords) {
     final StringBuilder parodySentences = new StringBuilder();
-    for (int i = 0; i < inNumWords; i++) {
-      parodySentences.append(getNextWord());
-      parodySentences.append(" ");
+
+    try {
+      generate(parodySentences, inNumWords, false);
+    } catch (final IOException cannotHappen) {
+      throw new IllegalStateException(cannotHappen);
     }
 
     return parodySentences.toString();
   }
+
+  /**
+   * <p>Streams the next words of the parody straight to the given output, a
+   * space before each word but the first. Nothing is built up in memory, so any
+   * amount of text can be generated with a flat heap.</p>
+   * 
+   * @param inOut Where to write the words, e.g. a Writer, StringBuilder or
+   *          CharBuffer
+   * @param inMaxWords The most words to write
+   * @param inStopAtSentenceEnd If true, stops after writing a word that ends a
+   *          sentence (such as "." or "?")
+   * @return The number of words written. Fewer than the most asked for if a
+   *         sentence ended, or the parody reached a history with no words
+   *         following it.
+   * @throws IOException If the output throws it
+   */
+  public int generate(final Appendable inOut, final int inMaxWords, final boolean inStopAtSentenceEnd)
+      throws IOException {
+    for (int i = 0; i < inMaxWords; i++) {
+      final int wordId = getNextWordId();
+      if (wordId < 0) {
+        return i;
+      }
+
+      if (i > 0) {
+        inOut.append(' ');
+      }
+      inOut.append(this.graph.getDictionary().getWord(wordId));
+
+      if (inStopAtSentenceEnd && isSentenceEnd(wordId)) {
+        return i + 1;
+      }
+    }
+
+    return inMaxWords;
+  }
+
+  /**
+   * As {@link #generate(Appendable, int, boolean)}, but puts the IDs of the
+   * words into the given array. This allocates nothing when navigating a
+   * Graph backed by a HistoryTable (see {@link #getNextWordId()}).
+   * 
+   * @param inInto Where to put the word IDs, starting at inOffset
+   * @param inMaxWords The most words to generate. There must be room for this
+   *          many in the array.
+   * @return The number of word IDs put in the array
+   */
+  public int generateWordIds(final int[] inInto, final int inOffset, final int inMaxWords,
+                             final boolean inStopAtSentenceEnd) {
+    if (inOffset < 0 || inMaxWords < 0 || inOffset + inMaxWords > inInto.length) {
+      throw new IndexOutOfBoundsException("No room for " + inMaxWords + " words from " + inOffset + " in an array of "
+          + inInto.length);
+    }
+
+    for (int i = 0; i < inMaxWords; i++) {
+      final int wordId = getNextWordId();
+      if (wordId < 0) {
+        return i;
+      }
+
+      inInto[inOffset + i] = wordId;
+
+      if (inStopAtSentenceEnd && isSentenceEnd(wordId)) {
+        return i + 1;
+      }
+    }
+
+    return inMaxWords;
+  }
+
+  private boolean isSentenceEnd(final int inWordId) {
+    if (this.sentenceEndWordIds == null) {
+      int[] found = new int[0];
+      for (final String sentenceEnd : SENTENCE_ENDS) {
+        final Integer wordId = this.graph.getDictionary().getWordId(sentenceEnd);
+
+        if (wordId != null) {
+          found = Arrays.copyOf(found, found.length + 1);
+          found[found.length - 1] = wordId;
+        }
+      }
+
+      this.sentenceEndWordIds = found;
+    }
+
+    for (final int sentenceEnd : this.sentenceEndWordIds) {
+      if (sentenceEnd == inWordId) {
+        return true;
+      }
+    }
+
+    return false;
+  }
 }
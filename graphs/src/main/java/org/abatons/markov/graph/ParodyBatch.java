@@ -0,0 +1,155 @@
+package org.abatons.markov.graph;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>Generates many parodies at once, fanned out over a fork-join pool, all navigating the one shared Graph. The
+ * Graph is only ever read, and is safe for concurrent readers, so it's shared as it is (though some implementations,
+ * such as {@link GraphSqlite}, serialize their readers internally).</p>
+ *
+ * <p>Each parody gets a random number generator of its own, seeded from its request, rather than sharing one. So
+ * there's no contention between the threads, and each parody is the same for the same seed, however the work happens
+ * to be split up.</p>
+ */
+public class ParodyBatch {
+    /**
+     * Below this many requests, a task generates them itself rather than splitting them up further.
+     */
+    private static final int REQUESTS_PER_TASK = 16;
+
+    /**
+     * One parody to generate.
+     */
+    public static class Request {
+        private final int[] startingWordHistory;
+        private final int numWords;
+        private final long seed;
+        private final boolean stopAtSentenceEnd;
+
+        /**
+         * @param inStartingWordHistory As {@link Parody#Parody(Graph, int[], Random)}
+         * @param inNumWords The most words to generate
+         * @param inSeed The same seed always gives the same parody from the same starting history
+         * @param inStopAtSentenceEnd As {@link Parody#generate(Appendable, int, boolean)}
+         */
+        public Request(final int[] inStartingWordHistory, final int inNumWords, final long inSeed,
+                       final boolean inStopAtSentenceEnd) {
+            this.startingWordHistory = inStartingWordHistory.clone();
+            this.numWords = inNumWords;
+            this.seed = inSeed;
+            this.stopAtSentenceEnd = inStopAtSentenceEnd;
+        }
+
+        public Request(final int[] inStartingWordHistory, final int inNumWords, final long inSeed) {
+            this(inStartingWordHistory, inNumWords, inSeed, false);
+        }
+    }
+
+    private final Graph graph;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param inGraph Shared by all of the threads, so its reads must be thread safe.
+     * @param inPool The pool to generate the parodies in
+     */
+    public ParodyBatch(final Graph inGraph, final ForkJoinPool inPool) {
+        this.graph = inGraph;
+        this.pool = inPool;
+    }
+
+    /**
+     * Uses the common pool, which has a thread for each core.
+     */
+    public ParodyBatch(final Graph inGraph) {
+        this(inGraph, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @return The parody for each request, in the same sequence, as from {@link Parody#generateParody(int)}
+     */
+    public String[] generate(final Request[] inRequests) {
+        final String[] parodies = new String[inRequests.length];
+
+        this.pool.invoke(new GenerateTask(inRequests, parodies, 0, inRequests.length));
+
+        return parodies;
+    }
+
+    /**
+     * @return The parody for a single request, exactly as it would be generated as part of a batch
+     */
+    public String generate(final Request inRequest) {
+        final StringBuilder parody = new StringBuilder();
+
+        try {
+            new Parody(this.graph, inRequest.startingWordHistory, new SplittableRandomAdapter(inRequest.seed))
+                    .generate(parody, inRequest.numWords, inRequest.stopAtSentenceEnd);
+        } catch (final IOException cannotHappen) {
+            throw new IllegalStateException(cannotHappen);
+        }
+
+        return parody.toString();
+    }
+
+    /**
+     * Splits the requests in half until there are few enough to generate in one go.
+     */
+    @SuppressWarnings("serial")
+    private class GenerateTask extends RecursiveAction {
+        private final Request[] requests;
+        private final String[] parodies;
+        private final int start;
+        private final int end;
+
+        GenerateTask(final Request[] inRequests, final String[] inParodies, final int inStart, final int inEnd) {
+            this.requests = inRequests;
+            this.parodies = inParodies;
+            this.start = inStart;
+            this.end = inEnd;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.end - this.start <= REQUESTS_PER_TASK) {
+                for (int i = this.start; i < this.end; i++) {
+                    this.parodies[i] = generate(this.requests[i]);
+                }
+                return;
+            }
+
+            final int middle = (this.start + this.end) >>> 1;
+            invokeAll(new GenerateTask(this.requests, this.parodies, this.start, middle),
+                    new GenerateTask(this.requests, this.parodies, middle, this.end));
+        }
+    }
+
+    /**
+     * Lets a {@link Parody}, which takes a {@link Random}, draw from a {@link SplittableRandom} instead. Unlike Random,
+     * there's no atomic update of a shared seed on every draw.
+     */
+    @SuppressWarnings("serial")
+    private static class SplittableRandomAdapter extends Random {
+        private final SplittableRandom rng;
+
+        SplittableRandomAdapter(final long inSeed) {
+            // Random() would update the seed uniquifier shared by every Random, which Random(long) doesn't
+            super(inSeed);
+
+            this.rng = new SplittableRandom(inSeed);
+        }
+
+        @Override
+        protected int next(final int inBits) {
+            return this.rng.nextInt() >>> (32 - inBits);
+        }
+
+        @Override
+        public int nextInt(final int inBound) {
+            return this.rng.nextInt(inBound);
+        }
+    }
+}
@@ -2,20 +2,20 @@ package org.abatons.markov.graph;
 
 
 public class TransitionProbability {
-    public final char targetWordId;
+    public final int targetWordId;
     
-    private char chanceNumerator;
-    private char chanceDenominator;
+    private int chanceNumerator;
+    private int chanceDenominator;
     
-    public TransitionProbability(final char inTargetWordId, final char inNumerator, final char inDenominator) {
+    public TransitionProbability(final int inTargetWordId, final int inNumerator, final int inDenominator) {
         this.targetWordId = inTargetWordId;
         setChance(inNumerator, inDenominator);
     }
 
-    public char getNumerator() { return chanceNumerator; }
-    public char getDenominator() { return chanceDenominator; }
+    public int getNumerator() { return chanceNumerator; }
+    public int getDenominator() { return chanceDenominator; }
     
-    public void setChance(final char inNumerator, final char inDenominator) {
+    public void setChance(final int inNumerator, final int inDenominator) {
         this.chanceNumerator = inNumerator;
         this.chanceDenominator = inDenominator;
     }
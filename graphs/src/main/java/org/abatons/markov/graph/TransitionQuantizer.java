@@ -0,0 +1,190 @@
+package org.abatons.markov.graph;
+
+/**
+ * <p>Quantizes the counts of a history's transitions to codes of a fixed number of bits, one byte each, for
+ * generating text from approximate probabilities with a fraction of the memory and disk space. Only the history's
+ * total count is kept exactly. Codes are relative to the history's most frequent transition, which has the highest
+ * code, and every code is at least 1, so no transition is lost. Transitions are kept in the same sequence, and as
+ * quantization never reorders counts, they stay sorted.</p>
+ *
+ * <p>There are two scales, with <code>M = 2<sup>bits</sup> - 1</code> codes:</p>
+ * <ul>
+ * <li>Linear - each count is scaled so that the largest is <code>M</code>, and rounded. Counts that already fit
+ * aren't scaled, so are kept exactly. Rare transitions of a history with a large count all become 1.</li>
+ * <li>Log - each code is a power of <code>&beta; = 2<sup>31 / (M - 1)</sup></code> down from the largest, which
+ * covers the range of any int count. Every transition keeps its count to within a factor of
+ * <code>&radic;&beta;</code> (about 4.4% for 8 bits), however rare. Needs at least 2 bits.</li>
+ * </ul>
+ *
+ * <p>Dequantizing gives each transition its share of the history's total, rounded to a whole count (but never
+ * below 1), so the numerators keep the scale of the counts, and the denominator is their sum. The distribution
+ * sampled from then differs from the exact one by a total variation distance (the most by which the probability of
+ * any set of transitions can differ) of at most {@link #getMaxError(int, long)}: for <code>n</code> transitions
+ * with a total count of <code>T</code>,</p>
+ * <ul>
+ * <li>Linear - <code>n / M</code>, or zero if <code>T</code> is no more than <code>M</code>, plus</li>
+ * <li>Log - <code>(&beta; - 1) / 2</code>, plus</li>
+ * <li>The rounding to whole counts, <code>n / T</code>. Histories seen only a few times have exact counts that are
+ * usually recovered by the rounding, so in practice this is far smaller.</li>
+ * </ul>
+ */
+public final class TransitionQuantizer {
+    private final int bits;
+    private final boolean logScale;
+
+    /**
+     * The highest code
+     */
+    private final int maxCode;
+
+    /**
+     * The ratio between neighbouring log codes, or 0 for the linear scale.
+     */
+    private final double base;
+    private final double logBase;
+
+    /**
+     * @param inBits Between 1 and 8, or 2 and 8 for the log scale
+     */
+    public TransitionQuantizer(final int inBits, final boolean inLogScale) {
+        if (inBits < (inLogScale ? 2 : 1) || inBits > 8) {
+            throw new IllegalArgumentException("Can't quantize to " + inBits + " bits");
+        }
+
+        this.bits = inBits;
+        this.logScale = inLogScale;
+        this.maxCode = (1 << inBits) - 1;
+
+        this.base = inLogScale ? Math.pow(2, 31.0 / (this.maxCode - 1)) : 0;
+        this.logBase = inLogScale ? Math.log(this.base) : 0;
+    }
+
+    public int getBits() {
+        return this.bits;
+    }
+
+    public boolean isLogScale() {
+        return this.logScale;
+    }
+
+    /**
+     * @param outCodes Filled in with the code of each transition, in sequence, from the given offset
+     * @return The total count of the transitions, i.e. their denominator. Zero if there are none.
+     */
+    public int quantize(final Transitions inTransitions, final byte[] outCodes, final int inOffset) {
+        final int numTransitions = inTransitions.getNumberTransitions();
+        if (numTransitions == 0) {
+            return 0;
+        }
+
+        int largest = 0;
+        for (int i = 0; i < numTransitions; i++) {
+            largest = Math.max(largest, inTransitions.get(i).getNumerator());
+        }
+
+        final double factor = Math.min(1.0, (double) this.maxCode / largest);
+
+        for (int i = 0; i < numTransitions; i++) {
+            final int count = inTransitions.get(i).getNumerator();
+
+            final long code;
+            if (this.logScale) {
+                code = this.maxCode - Math.round(Math.log((double) largest / count) / this.logBase);
+            } else {
+                code = Math.round(count * factor);
+            }
+
+            outCodes[inOffset + i] = (byte) Math.max(1, code);
+        }
+
+        return inTransitions.get(0).getDenominator();
+    }
+
+    /**
+     * @param inTargetWordIds The target word of each transition, in sequence
+     * @param inCodes As given by {@link #quantize(Transitions, byte[], int)}
+     * @param inOffset Where the transitions start in both arrays
+     * @param inTotal As returned by {@link #quantize(Transitions, byte[], int)}
+     */
+    public Transitions dequantize(final int[] inTargetWordIds, final byte[] inCodes, final int inOffset,
+                                  final int inNumTransitions, final int inTotal) {
+        if (inNumTransitions == 0) {
+            return Transitions.EMPTY;
+        }
+
+        double sumOfWeights = 0;
+        for (int i = inOffset; i < inOffset + inNumTransitions; i++) {
+            sumOfWeights += getWeight(inCodes[i]);
+        }
+
+        final int[] numerators = new int[inNumTransitions];
+        long denominator = 0;
+        for (int i = 0; i < inNumTransitions; i++) {
+            numerators[i] = (int) Math.max(1, Math.round(inTotal * getWeight(inCodes[inOffset + i]) / sumOfWeights));
+            denominator += numerators[i];
+        }
+
+        if (denominator > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many transitions to dequantize them");
+        }
+
+        final Transitions dequantized = new Transitions();
+        for (int i = 0; i < inNumTransitions; i++) {
+            dequantized.addTransition(inTargetWordIds[inOffset + i], numerators[i], (int) denominator,
+                    i == inNumTransitions - 1);
+        }
+
+        return dequantized;
+    }
+
+    /**
+     * @return The relative weight of the given code
+     */
+    private double getWeight(final byte inCode) {
+        final int code = inCode & 0xFF;
+
+        return this.logScale ? Math.pow(this.base, code - this.maxCode) : code;
+    }
+
+    /**
+     * @param inNumTransitions The number of transitions of a history
+     * @param inTotal Their total count
+     * @return The most by which the distribution of the dequantized transitions can differ from the exact one, as a
+     *         total variation distance
+     */
+    public double getMaxError(final int inNumTransitions, final long inTotal) {
+        if (inNumTransitions == 0) {
+            return 0;
+        }
+
+        final double quantization;
+        if (this.logScale) {
+            quantization = (this.base - 1) / 2;
+        } else {
+            quantization = (inTotal > this.maxCode) ? (double) inNumTransitions / this.maxCode : 0;
+        }
+
+        return Math.min(1, quantization + (double) inNumTransitions / inTotal);
+    }
+
+    @Override
+    public boolean equals(final Object inOther) {
+        if (!(inOther instanceof TransitionQuantizer)) {
+            return false;
+        }
+
+        final TransitionQuantizer other = (TransitionQuantizer) inOther;
+
+        return this.bits == other.bits && this.logScale == other.logScale;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.logScale ? -this.bits : this.bits;
+    }
+
+    @Override
+    public String toString() {
+        return this.bits + " bit " + (this.logScale ? "log" : "linear") + " quantization";
+    }
+}
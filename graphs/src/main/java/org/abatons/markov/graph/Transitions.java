@@ -16,12 +16,25 @@ import java.util.Iterator;
  * <p>Whilst compiling a new graph, If a transition is noted for a target word that has been seen before, the existing transition for that target word has its probability's numerator incremented.</p>
  * 
  * <p>Whilst compiling a new graph, whenever any transition is noted, all transitions then have their probability's denominator incremented.</p>
+ * 
+ * <p>Not thread safe while transitions are being noted. Once in a {@link Graph}, it's only read, so it can be shared by any number of threads.</p>
  */
 public class Transitions implements Iterable<TransitionProbability> {
+    /**
+     * Shared by every Graph for an unknown word history, so that a miss doesn't allocate anything. It can't be changed.
+     */
+    public static final Transitions EMPTY = new Transitions(true);
+    
     private final ArrayList<TransitionProbability> transitions;
+    private final boolean immutable;
 
     public Transitions() {
+        this(false);
+    }
+    
+    private Transitions(final boolean inImmutable) {
         this.transitions = new ArrayList<TransitionProbability>(0);
+        this.immutable = inImmutable;
     }
     
     @Override
@@ -33,6 +46,15 @@ public class Transitions implements Iterable<TransitionProbability> {
         return this.transitions.size();
     }
     
+    /**
+     * For walking the transitions without allocating an Iterator.
+     * 
+     * @param inIndex From zero up to (but excluding) {@link #getNumberTransitions()}, in the same order as the Iterator.
+     */
+    public TransitionProbability get(final int inIndex) {
+        return this.transitions.get(inIndex);
+    }
+    
     /**
      * <p>This method is for use whilst building up a graph during the compilation of some text. Certainly not to be used whilst deserialising a saved graph.</p>
      * 
@@ -44,22 +66,32 @@ public class Transitions implements Iterable<TransitionProbability> {
      * <li>If there are existing transitions, but none are for this word, then this new word transition will have a numerator of 1. The denominator will be set to the same as all other transitions, plus one. Then all other transitions will have their denominators incremented by one.</li> 
      * <li>If a transition to this word has already been observed, it's probability will have its numerator incremented by 1. Then all transitions, including this one just observed, will have their denominators incremented by one.</li> 
      * </ul> 
+     * 
+     * <p>This is O(k log k) for k target words. When compiling large texts, count with a {@link TransitionsBuilder} instead and freeze it once all the text has been read.</p>
      *  
      * @param inTargetWordId The ID identifying the word that follows.
+     * @throws IllegalStateException If the denominator would overflow an int.
      */
-    public void recordTransition(final char inTargetWordId) {
-        final char newDenom;
+    public void recordTransition(final int inTargetWordId) {
+        checkMutable();
+        
+        final int newDenom;
         if(this.getNumberTransitions() > 0) {
-            newDenom = (char) (this.transitions.get(0).getDenominator() + 1);
+            final int oldDenom = this.transitions.get(0).getDenominator();
+            if(oldDenom == Integer.MAX_VALUE) {
+                throw new IllegalStateException("Too many transitions recorded to count them exactly");
+            }
+            
+            newDenom = oldDenom + 1;
         } else {
-            newDenom = (char) 1;
+            newDenom = 1;
         }
         
         boolean seenTargetWordBefore = false;
         for(final TransitionProbability t : this.transitions) {
-            final char newNumer; 
+            final int newNumer; 
             if(inTargetWordId == t.targetWordId) {
-                newNumer = (char) (t.getNumerator() + 1);
+                newNumer = t.getNumerator() + 1;
                 seenTargetWordBefore = true;
             } else {
                 newNumer = t.getNumerator();
@@ -69,13 +101,19 @@ public class Transitions implements Iterable<TransitionProbability> {
         }
         
         if(!seenTargetWordBefore) {
-            final TransitionProbability transition = new TransitionProbability(inTargetWordId, (char) 1, newDenom);
+            final TransitionProbability transition = new TransitionProbability(inTargetWordId, 1, newDenom);
             this.transitions.add(transition);
         }
         
         sortAndTrim();
     }
     
+    private void checkMutable() {
+        if(this.immutable) {
+            throw new UnsupportedOperationException("The shared empty Transitions can't be changed");
+        }
+    }
+    
     private void sortAndTrim() {
         Collections.sort(this.transitions, new Comparator<TransitionProbability>() {
             @Override
@@ -103,7 +141,9 @@ public class Transitions implements Iterable<TransitionProbability> {
      * 
      * @param isLastToBeAdded False if there further transitions are expected to be added. True if this is thought to be the last to be added. If true, the internal data structures will then be optimised for space. 
      */
-    public void addTransition(final char inTargetWordId, final char inNumerator, final char inDenominator, final boolean isLastToBeAdded) {
+    public void addTransition(final int inTargetWordId, final int inNumerator, final int inDenominator, final boolean isLastToBeAdded) {
+      checkMutable();
+      
       this.transitions.add(new TransitionProbability(inTargetWordId, inNumerator, inDenominator));
       
       if(isLastToBeAdded) {
@@ -111,6 +151,48 @@ public class Transitions implements Iterable<TransitionProbability> {
       }
     }
     
+    /**
+     * <p>For persisting a graph in fewer bytes, at the cost of some accuracy. Every numerator is scaled down by the same factor, so that none needs more than the given number of bits. Each is rounded to the nearest whole count, but never below 1, so no transition is lost. The denominator becomes the sum of the scaled numerators.</p>
+     * 
+     * <p>The sequence of the transitions is kept. Each scaled numerator is within one count of its exact scaled value, so the most likely transitions keep about inBits bits of precision, while the rarest lose the most.</p>
+     * 
+     * @param inBits The most bits any numerator may need. Between 1 and 30.
+     * @return These transitions if none of the numerators need scaling, otherwise a scaled copy.
+     */
+    public Transitions scaledToPrecision(final int inBits) {
+      assert(inBits > 0 && inBits < 31);
+      final int maxNumerator = (1 << inBits) - 1;
+      
+      int largest = 0;
+      for(final TransitionProbability tp : this.transitions) {
+        largest = Math.max(largest, tp.getNumerator());
+      }
+      
+      if(largest <= maxNumerator) {
+        return this;
+      }
+      
+      final double factor = (double) maxNumerator / largest;
+      
+      final int[] numerators = new int[this.transitions.size()];
+      long denominator = 0;
+      for(int i = 0; i < numerators.length; i++) {
+        numerators[i] = (int) Math.max(1, Math.round(this.transitions.get(i).getNumerator() * factor));
+        denominator += numerators[i];
+      }
+      
+      if(denominator > Integer.MAX_VALUE) {
+        throw new IllegalStateException("Too many transitions to scale them to " + inBits + " bits");
+      }
+      
+      final Transitions scaled = new Transitions();
+      for(int i = 0; i < numerators.length; i++) {
+        scaled.addTransition(this.transitions.get(i).targetWordId, numerators[i], (int) denominator, i == numerators.length - 1);
+      }
+      
+      return scaled;
+    }
+    
     @Override
     public String toString() {
       final StringBuilder sb = new StringBuilder("Transitions[");
@@ -0,0 +1,271 @@
+package org.abatons.markov.graph;
+
+import java.util.Arrays;
+
+/**
+ * <p>A mutable accumulator of the transitions following a single word history, for use whilst compiling a new graph.
+ * Once all of the text has been read, {@link #freeze()} produces the {@link Transitions} for the graph.</p>
+ *
+ * <p>Unlike {@link Transitions#recordTransition(int)}, recording a transition here is O(1). Only a raw count is kept
+ * for each target word (in an open addressing hash table of primitives), along with a single total. No probabilities
+ * are calculated and nothing is sorted until {@link #freeze()} is called.</p>
+ *
+ * <p>The counts are longs, so they can't overflow however large the text.</p>
+ */
+public class TransitionsBuilder {
+    private static final int INITIAL_CAPACITY = 4; // Must be a power of two
+
+    private int[] targetWordIds;
+    private long[] counts; // A count of zero marks an empty slot
+    private int numTargets;
+    private long total;
+
+    public TransitionsBuilder() {
+        this.targetWordIds = new int[INITIAL_CAPACITY];
+        this.counts = new long[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Takes note of an occurrence of a transition to a word.
+     *
+     * @param inTargetWordId The ID identifying the word that follows.
+     */
+    public void recordTransition(final int inTargetWordId) {
+        recordTransitions(inTargetWordId, 1);
+    }
+
+    /**
+     * Takes note of a number of occurrences of a transition to a word.
+     *
+     * @param inTargetWordId The ID identifying the word that follows.
+     * @param inCount The number of times it was seen to follow. Must be positive.
+     */
+    public void recordTransitions(final int inTargetWordId, final long inCount) {
+        assert (inCount > 0);
+
+        // Keep the load factor at or below a half
+        if ((this.numTargets + 1) * 2 > this.counts.length) {
+            grow();
+        }
+
+        final int slot = findSlot(this.targetWordIds, this.counts, inTargetWordId);
+        if (this.counts[slot] == 0) {
+            this.targetWordIds[slot] = inTargetWordId;
+            this.numTargets++;
+        }
+
+        this.counts[slot] += inCount;
+        this.total += inCount;
+    }
+
+    /**
+     * Adds all of the counts recorded by another builder to this one, as if they'd been recorded here.
+     */
+    public void recordTransitions(final TransitionsBuilder inOther) {
+        for (int slot = 0; slot < inOther.counts.length; slot++) {
+            if (inOther.counts[slot] > 0) {
+                recordTransitions(inOther.targetWordIds[slot], inOther.counts[slot]);
+            }
+        }
+    }
+
+    /**
+     * Changes the ID of every target word recorded so far. For use when words are given provisional IDs whilst
+     * counting, and their final IDs are only known once all of the text has been read.
+     *
+     * @param inOldToNewWordIds The new ID of each word, indexed by its current ID. No two words may share a new ID.
+     */
+    public void remapTargetWordIds(final int[] inOldToNewWordIds) {
+        final int[] oldTargetWordIds = this.targetWordIds;
+        final long[] oldCounts = this.counts;
+
+        this.targetWordIds = new int[oldCounts.length];
+        this.counts = new long[oldCounts.length];
+
+        for (int slot = 0; slot < oldCounts.length; slot++) {
+            if (oldCounts[slot] > 0) {
+                final int newId = inOldToNewWordIds[oldTargetWordIds[slot]];
+                final int newSlot = findSlot(this.targetWordIds, this.counts, newId);
+
+                this.targetWordIds[newSlot] = newId;
+                this.counts[newSlot] = oldCounts[slot];
+            }
+        }
+    }
+
+    /**
+     * Forgets all but the given number of the most frequent target words, as they'd be ordered by {@link #freeze()}
+     * (highest count first, then by lowest word ID). Their counts are taken off the total.
+     *
+     * @param inMaxTransitions Must be positive
+     * @return The number of target words forgotten
+     */
+    public int keepMostFrequent(final int inMaxTransitions) {
+        assert (inMaxTransitions > 0);
+
+        if (this.numTargets <= inMaxTransitions) {
+            return 0;
+        }
+
+        // The count of the least frequent word kept. Every word more frequent is kept, as are as many of the words
+        // with this count as there's room left for, lowest IDs first.
+        final long[] sortedCounts = new long[this.numTargets];
+        int i = 0;
+        for (int slot = 0; slot < this.counts.length; slot++) {
+            if (this.counts[slot] > 0) {
+                sortedCounts[i++] = this.counts[slot];
+            }
+        }
+        Arrays.sort(sortedCounts);
+        final long threshold = sortedCounts[this.numTargets - inMaxTransitions];
+
+        int numAtThreshold = 0;
+        int roomAtThreshold = inMaxTransitions;
+        for (final long count : sortedCounts) {
+            if (count == threshold) {
+                numAtThreshold++;
+            } else if (count > threshold) {
+                roomAtThreshold--;
+            }
+        }
+
+        final int[] idsAtThreshold = new int[numAtThreshold];
+        i = 0;
+        for (int slot = 0; slot < this.counts.length; slot++) {
+            if (this.counts[slot] == threshold) {
+                idsAtThreshold[i++] = this.targetWordIds[slot];
+            }
+        }
+        Arrays.sort(idsAtThreshold);
+        final int maxIdAtThreshold = idsAtThreshold[roomAtThreshold - 1];
+
+        final int forgotten = this.numTargets - inMaxTransitions;
+
+        final int[] oldTargetWordIds = this.targetWordIds;
+        final long[] oldCounts = this.counts;
+
+        this.targetWordIds = new int[oldCounts.length];
+        this.counts = new long[oldCounts.length];
+        this.numTargets = 0;
+        this.total = 0;
+
+        for (int slot = 0; slot < oldCounts.length; slot++) {
+            if (oldCounts[slot] > threshold
+                    || (oldCounts[slot] == threshold && oldTargetWordIds[slot] <= maxIdAtThreshold)) {
+                recordTransitions(oldTargetWordIds[slot], oldCounts[slot]);
+            }
+        }
+
+        return forgotten;
+    }
+
+    public int getNumberTransitions() {
+        return this.numTargets;
+    }
+
+    /**
+     * @return The ID of every target word recorded, in no particular order
+     */
+    public int[] getTargetWordIds() {
+        final int[] ids = new int[this.numTargets];
+
+        int i = 0;
+        for (int slot = 0; slot < this.counts.length; slot++) {
+            if (this.counts[slot] > 0) {
+                ids[i++] = this.targetWordIds[slot];
+            }
+        }
+
+        return ids;
+    }
+
+    /**
+     * @return The number of transitions recorded, i.e. the sum of the counts of all target words.
+     */
+    public long getTotal() {
+        return this.total;
+    }
+
+    /**
+     * @return The number of times the given word was recorded, zero if never.
+     */
+    public long getCount(final int inTargetWordId) {
+        return this.counts[findSlot(this.targetWordIds, this.counts, inTargetWordId)];
+    }
+
+    /**
+     * Produces the Transitions for all that's been recorded. The transitions are ordered just as
+     * {@link Transitions#recordTransition(int)} would order them, highest count first, then by lowest word ID.
+     * Each has the count as its numerator and the total as its denominator.
+     *
+     * <p>Transitions hold ints, so if the total is more than an int can hold, every count is scaled down by the same
+     * factor (each rounded down, but never to zero), and the denominator is the sum of the scaled counts.</p>
+     */
+    public Transitions freeze() {
+        final double scale = (this.total > Integer.MAX_VALUE) ? (double) (Integer.MAX_VALUE - this.numTargets)
+                / this.total : 1;
+
+        // As the counts and word IDs are both non-negative, packing them into a long that sorts by descending count
+        // then ascending word ID means a primitive sort can be used.
+        final long[] sortKeys = new long[this.numTargets];
+        long denominator = 0;
+
+        int i = 0;
+        for (int slot = 0; slot < this.counts.length; slot++) {
+            if (this.counts[slot] > 0) {
+                final int count = (scale < 1) ? (int) Math.max(1, (long) (this.counts[slot] * scale))
+                        : (int) this.counts[slot];
+
+                sortKeys[i++] = ((long) (Integer.MAX_VALUE - count) << 32) | this.targetWordIds[slot];
+                denominator += count;
+            }
+        }
+
+        Arrays.sort(sortKeys);
+
+        final Transitions frozen = new Transitions();
+        for (i = 0; i < sortKeys.length; i++) {
+            final int targetWordId = (int) (sortKeys[i] & 0xFFFFFFFFL);
+            final int numerator = (int) (Integer.MAX_VALUE - (sortKeys[i] >>> 32));
+
+            frozen.addTransition(targetWordId, numerator, (int) denominator, i == sortKeys.length - 1);
+        }
+
+        return frozen;
+    }
+
+    private void grow() {
+        final int[] oldTargetWordIds = this.targetWordIds;
+        final long[] oldCounts = this.counts;
+
+        this.targetWordIds = new int[oldCounts.length * 2];
+        this.counts = new long[oldCounts.length * 2];
+
+        for (int slot = 0; slot < oldCounts.length; slot++) {
+            if (oldCounts[slot] > 0) {
+                final int newSlot = findSlot(this.targetWordIds, this.counts, oldTargetWordIds[slot]);
+
+                this.targetWordIds[newSlot] = oldTargetWordIds[slot];
+                this.counts[newSlot] = oldCounts[slot];
+            }
+        }
+    }
+
+    /**
+     * Linear probing from a hash of the word ID.
+     *
+     * @return The slot holding the given word, or the empty slot where it should go.
+     */
+    private static int findSlot(final int[] inTargetWordIds, final long[] inCounts, final int inTargetWordId) {
+        final int mask = inCounts.length - 1;
+
+        final int hash = inTargetWordId * 0x9E3779B9;
+
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (inCounts[slot] != 0 && inTargetWordIds[slot] != inTargetWordId) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+}
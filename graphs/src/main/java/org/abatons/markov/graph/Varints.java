@@ -0,0 +1,65 @@
+package org.abatons.markov.graph;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Reads and writes non-negative ints in a variable number of bytes, seven bits to a byte, least significant first.
+ * The top bit of each byte is set if there's another byte to follow. Values below 128 take just one byte, and those
+ * below 16384 take two.
+ *
+ * <p>Signed ints are zigzag encoded first (0, -1, 1, -2, ... become 0, 1, 2, 3, ...), so values close to zero either
+ * side are short.</p>
+ *
+ * <p>Used by every format that writes varints, the dictionaries' included, so that they all share one encoding.</p>
+ */
+public final class Varints {
+   private Varints() {
+   }
+
+   public static void writeVarint(final DataOutput inOut, final int inValue) throws IOException {
+      assert (inValue >= 0);
+
+      writeVarintBits(inOut, inValue);
+   }
+
+   public static int readVarint(final DataInput inIn) throws IOException {
+      int value = 0;
+
+      for (int shift = 0; shift < 32; shift += 7) {
+         final int b = inIn.readUnsignedByte();
+
+         value |= (b & 0x7F) << shift;
+
+         if ((b & 0x80) == 0) {
+            return value;
+         }
+      }
+
+      throw new IOException("Malformed varint");
+   }
+
+   public static void writeSignedVarint(final DataOutput inOut, final int inValue) throws IOException {
+      writeVarintBits(inOut, (inValue << 1) ^ (inValue >> 31));
+   }
+
+   public static int readSignedVarint(final DataInput inIn) throws IOException {
+      final int zigzag = readVarint(inIn);
+
+      return (zigzag >>> 1) ^ -(zigzag & 1);
+   }
+
+   /**
+    * As {@link #writeVarint(DataOutput, int)}, but treating the int as unsigned.
+    */
+   private static void writeVarintBits(final DataOutput inOut, final int inBits) throws IOException {
+      int remaining = inBits;
+      while ((remaining & ~0x7F) != 0) {
+         inOut.writeByte((remaining & 0x7F) | 0x80);
+         remaining >>>= 7;
+      }
+
+      inOut.writeByte(remaining);
+   }
+}
@@ -8,14 +8,18 @@ public class Dictionary {
     protected final String[] allUniqueSortedWords;
     
     public Dictionary(final String[] inAllUniqueWordsSortedAlphabetically) {
-        // We're using chars to store the indicies of the words (to keep the serialized size down).. 
-        // Be sure they won't overflow.
-        assert(Character.MAX_VALUE > inAllUniqueWordsSortedAlphabetically.length);
-        
         this.allUniqueSortedWords = inAllUniqueWordsSortedAlphabetically;
     }
+    
+    /**
+     * For use by Dictionary implementations that don't keep their words in an array. Such subclasses must 
+     * override {@link #getWord(int)} and {@link #getNumUniqueWords()}.
+     */
+    protected Dictionary() {
+        this.allUniqueSortedWords = null;
+    }
 
-    public String getWord(final Character inWordId) {
+    public String getWord(final int inWordId) {
         return this.allUniqueSortedWords[inWordId];
     }
     
@@ -2,11 +2,23 @@ package org.abatons.markov.graph.dictionary;
 
 /**
  * Provides an interface for looking up the word ID for a word.
+ * 
+ * <p>Every implementation is safe for concurrent readers, as a Graph's dictionary is shared by every thread
+ * navigating it. Any cache an implementation keeps must be published safely and without blocking readers.</p>
  */
 public abstract class DictionaryLookup extends Dictionary {
   public DictionaryLookup(final String[] inAllUniqueWordsSortedAlphabetically) {
     super(inAllUniqueWordsSortedAlphabetically);
   }
+  
+  /**
+   * For use by implementations that don't keep their words in an array.
+   * 
+   * @see Dictionary#Dictionary()
+   */
+  protected DictionaryLookup() {
+    super();
+  }
 
   /**
    * Gets the ID for a specific case sensitive word. This ID can then be used
@@ -17,7 +29,7 @@ public abstract class DictionaryLookup extends Dictionary {
    * @return A unique ID identifying the word. Null if the word does not exist
    *         in the dictionary.
    */
-  public abstract Character getWordId(final String inForThisWord);
+  public abstract Integer getWordId(final String inForThisWord);
   
   /**
    * Finds all the IDs of words matching the given word, when matching without case sensitivity.
@@ -25,5 +37,5 @@ public abstract class DictionaryLookup extends Dictionary {
    * @param inForThisWord
    * @return All the IDs for the different words, in no particular order. e.g. {"She", "she", "SHE", "shE"} 
    */
-  //public abstract Character[] getWordIdsIgnoreCase(final String inForThisWord);
+  //public abstract Integer[] getWordIdsIgnoreCase(final String inForThisWord);
 }
@@ -20,7 +20,7 @@ public class DictionaryLookupBinarySearch extends DictionaryLookup {
    * @return A unique ID identifying the word. Null if the word does not exist
    *         in the dictionary.
    */
-  public Character getWordId(final String inForThisWord) {
+  public Integer getWordId(final String inForThisWord) {
     final int index = Arrays.binarySearch(this.allUniqueSortedWords, inForThisWord);
     
     if(index < 0 || index >= this.allUniqueSortedWords.length) {
@@ -28,6 +28,6 @@ public class DictionaryLookupBinarySearch extends DictionaryLookup {
        return null;
     }
     
-    return (char) index; 
+    return index; 
   }
 }
@@ -8,9 +8,13 @@ import java.util.Map;
  * the first lookup, which is O(n)). However, due to the caching, the memory
  * footprint is proportional to the number of words (i.e. like a hashmap) and
  * shouldn't be used on a resource limited device like a mobile.
+ * 
+ * <p>Safe for concurrent readers. The map is built without a lock, so two
+ * threads making their first lookup at once might both build it, but each
+ * builds an identical map, and it's never changed once published.</p>
  */
 public class DictionaryLookupCached extends DictionaryLookup {
-  private Map<String, Character> wordIndicies;
+  private volatile Map<String, Integer> wordIndicies;
 
   public DictionaryLookupCached(final String[] inAllUniqueWordsSortedAlphabetically) {
     super(inAllUniqueWordsSortedAlphabetically);
@@ -25,7 +29,7 @@ public class DictionaryLookupCached extends DictionaryLookup {
    * @return A unique ID identifying the word. Null if the word does not exist
    *         in the dictionary.
    */
-  public Character getWordId(final String inForThisWord) {
+  public Integer getWordId(final String inForThisWord) {
     return getWordIndicies().get(inForThisWord);
   }
 
@@ -36,27 +40,28 @@ public class DictionaryLookupCached extends DictionaryLookup {
    * like a mobile.
    * 
    * @return A map from the word to the index at which that word can be found
-   *         (stored as a character for space purposes, but the numeric value is
-   *         used)
    */
-  private Map<String, Character> getWordIndicies() {
-    if (null != this.wordIndicies) {
-      return this.wordIndicies;
+  private Map<String, Integer> getWordIndicies() {
+    final Map<String, Integer> cached = this.wordIndicies;
+    if (null != cached) {
+      return cached;
     }
 
     // Choose this to be enough for all the words (and include a little more
     // spare capacity to cover the default load factor of 0.75)
     final int initialCapacity = (int) (getNumUniqueWords() * 1.25F);
     
-    final Map<String, Character> indicies = new HashMap<String, Character>(initialCapacity);
+    final Map<String, Integer> indicies = new HashMap<String, Integer>(initialCapacity);
 
     final int numWords = getNumUniqueWords();
-    for (char index = 0; index < numWords; index++) {
+    for (int index = 0; index < numWords; index++) {
       indicies.put(getWord(index), index);
     }
 
+    // Only published once it's complete. The volatile write means any thread
+    // that sees it sees all of its entries.
     this.wordIndicies = indicies;
 
-    return this.wordIndicies;
+    return indicies;
   }
 }
@@ -0,0 +1,243 @@
+package org.abatons.markov.graph.dictionary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.abatons.markov.graph.Varints;
+
+/**
+ * <p>A concrete DictionaryLookup implementation that keeps all of the words front coded in a single byte array,
+ * for a resource limited device like a mobile. There's no String object kept for each word, so it takes a fraction
+ * of the memory of the other implementations.</p>
+ *
+ * <p>The sorted words are split into buckets of a fixed number of words. The first word of a bucket is written in
+ * full, as a varint length then its UTF-8 bytes. Each word after it is written as a varint count of the leading
+ * bytes it shares with the word before, then a varint length and the bytes of the rest. As neighbouring words
+ * often share a prefix, e.g. "there", "these" and "they", most words only take a few bytes.</p>
+ *
+ * <p>A word is decoded by reading its bucket from the start, and a word ID is looked up with an O(log n) binary
+ * search of the first words of the buckets, then a scan through the one bucket. Optionally, recently decoded
+ * words are cached.</p>
+ *
+ * <p>Safe for concurrent readers. The cache is direct mapped, each word ID having one slot it can be kept in, and
+ * a slot is replaced with a single atomic write, so lookups never take a lock.</p>
+ */
+public class DictionaryLookupFrontCoded extends DictionaryLookup {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final int WORDS_PER_BUCKET = 16;
+
+  private final int numWords;
+  private final byte[] bytes;
+  private final int[] bucketOffsets;
+
+  private final AtomicReferenceArray<CachedWord> cache; // Null if not caching
+
+  public DictionaryLookupFrontCoded(final String[] inAllUniqueWordsSortedAlphabetically) {
+    this(inAllUniqueWordsSortedAlphabetically, 0);
+  }
+
+  /**
+   * @param inNumCachedWords How many recently decoded words to keep. A word replaces whichever word shares its
+   *          slot, so this is at most how many are kept. Zero keeps none.
+   */
+  public DictionaryLookupFrontCoded(final String[] inAllUniqueWordsSortedAlphabetically,
+                                    final int inNumCachedWords) {
+    super();
+
+    this.numWords = inAllUniqueWordsSortedAlphabetically.length;
+    this.bucketOffsets = new int[(this.numWords + WORDS_PER_BUCKET - 1) / WORDS_PER_BUCKET];
+
+    final ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytesOut);
+
+    try {
+      byte[] previous = null;
+      for (int wordId = 0; wordId < this.numWords; wordId++) {
+        final byte[] encoded = inAllUniqueWordsSortedAlphabetically[wordId].getBytes(UTF8);
+
+        if (wordId % WORDS_PER_BUCKET == 0) {
+          this.bucketOffsets[wordId / WORDS_PER_BUCKET] = out.size();
+
+          Varints.writeVarint(out, encoded.length);
+          out.write(encoded, 0, encoded.length);
+        } else {
+          int shared = 0;
+          while (shared < encoded.length && shared < previous.length && encoded[shared] == previous[shared]) {
+            shared++;
+          }
+
+          Varints.writeVarint(out, shared);
+          Varints.writeVarint(out, encoded.length - shared);
+          out.write(encoded, shared, encoded.length - shared);
+        }
+
+        previous = encoded;
+      }
+    } catch (final IOException cannotHappen) {
+      throw new IllegalStateException(cannotHappen);
+    }
+
+    this.bytes = bytesOut.toByteArray();
+
+    if (inNumCachedWords > 0) {
+      this.cache = new AtomicReferenceArray<CachedWord>(inNumCachedWords);
+    } else {
+      this.cache = null;
+    }
+  }
+
+  /**
+   * @return The number of bytes the words take when front coded
+   */
+  public int getNumBytes() {
+    return this.bytes.length;
+  }
+
+  @Override
+  public int getNumUniqueWords() {
+    return this.numWords;
+  }
+
+  @Override
+  public String getWord(final int inWordId) {
+    if (inWordId < 0 || inWordId >= this.numWords) {
+      throw new ArrayIndexOutOfBoundsException(inWordId);
+    }
+
+    final int slot = this.cache != null ? inWordId % this.cache.length() : -1;
+    if (slot >= 0) {
+      final CachedWord cached = this.cache.get(slot);
+      if (cached != null && cached.wordId == inWordId) {
+        return cached.word;
+      }
+    }
+
+    final BucketReader reader = new BucketReader(inWordId / WORDS_PER_BUCKET);
+    for (int i = inWordId % WORDS_PER_BUCKET; i > 0; i--) {
+      reader.next();
+    }
+
+    final String word = reader.getWord();
+
+    if (slot >= 0) {
+      this.cache.set(slot, new CachedWord(inWordId, word));
+    }
+
+    return word;
+  }
+
+  /**
+   * @param inForThisWord
+   * @return A unique ID identifying the word. Null if the word does not exist
+   *         in the dictionary.
+   */
+  @Override
+  public Integer getWordId(final String inForThisWord) {
+    // Find the last bucket whose first word isn't after the word
+    int low = 0;
+    int high = this.bucketOffsets.length - 1;
+    int bucket = -1;
+
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int cmp = new BucketReader(mid).getWord().compareTo(inForThisWord);
+
+      if (cmp < 0) {
+        bucket = mid;
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid * WORDS_PER_BUCKET;
+      }
+    }
+
+    if (bucket < 0) {
+      // Not found
+      return null;
+    }
+
+    final int end = Math.min((bucket + 1) * WORDS_PER_BUCKET, this.numWords);
+
+    final BucketReader reader = new BucketReader(bucket);
+    for (int wordId = bucket * WORDS_PER_BUCKET + 1; wordId < end; wordId++) {
+      reader.next();
+
+      final int cmp = reader.getWord().compareTo(inForThisWord);
+      if (cmp == 0) {
+        return wordId;
+      } else if (cmp > 0) {
+        break;
+      }
+    }
+
+    // Not found
+    return null;
+  }
+
+  /**
+   * A word and its ID together, so that a reader can't see the ID of one word with another word.
+   */
+  private static final class CachedWord {
+    final int wordId;
+    final String word;
+
+    CachedWord(final int inWordId, final String inWord) {
+      this.wordId = inWordId;
+      this.word = inWord;
+    }
+  }
+
+  /**
+   * Decodes the words of one bucket in turn, starting at its first word.
+   */
+  private final class BucketReader {
+    private final DataInputStream in;
+
+    private byte[] word = new byte[32];
+    private int wordLength;
+
+    BucketReader(final int inBucket) {
+      final int offset = bucketOffsets[inBucket];
+      this.in = new DataInputStream(new ByteArrayInputStream(bytes, offset, bytes.length - offset));
+
+      try {
+        append(0, Varints.readVarint(this.in));
+      } catch (final IOException corrupt) {
+        throw new IllegalStateException("The front coded words are corrupt", corrupt);
+      }
+    }
+
+    void next() {
+      try {
+        final int shared = Varints.readVarint(this.in);
+
+        append(shared, Varints.readVarint(this.in));
+      } catch (final IOException corrupt) {
+        throw new IllegalStateException("The front coded words are corrupt", corrupt);
+      }
+    }
+
+    String getWord() {
+      return new String(this.word, 0, this.wordLength, UTF8);
+    }
+
+    private void append(final int inShared, final int inSuffixLength) throws IOException {
+      this.wordLength = inShared + inSuffixLength;
+
+      if (this.wordLength > this.word.length) {
+        final byte[] bigger = new byte[Math.max(this.wordLength, this.word.length * 2)];
+        System.arraycopy(this.word, 0, bigger, 0, inShared);
+        this.word = bigger;
+      }
+
+      this.in.readFully(this.word, inShared, inSuffixLength);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package org.abatons.markov.graph.dictionary;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A concrete DictionaryLookup implementation that's a view over UTF-8 encoded words held in a buffer (typically a
+ * memory mapped file), so nothing is decoded until it's asked for. Word IDs are looked up with an O(log n) binary
+ * search, decoding each word compared along the way.
+ */
+public class DictionaryLookupMapped extends DictionaryLookup {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final ByteBuffer buffer;
+  private final int numWords;
+  private final int wordOffsetsStart;
+  private final int wordBytesStart;
+
+  /**
+   * @param inBuffer Holds the words. Only absolute reads are made on it.
+   * @param inNumWords The number of words in the dictionary
+   * @param inWordOffsetsStart Position in the buffer of (inNumWords + 1) ints, each being the offset of a word from
+   *          inWordBytesStart. The last is the offset of the end of the last word.
+   * @param inWordBytesStart Position in the buffer of the UTF-8 encoding of all of the words, sorted alphabetically.
+   */
+  public DictionaryLookupMapped(final ByteBuffer inBuffer, final int inNumWords, final int inWordOffsetsStart,
+                                final int inWordBytesStart) {
+    super();
+
+    this.buffer = inBuffer;
+    this.numWords = inNumWords;
+    this.wordOffsetsStart = inWordOffsetsStart;
+    this.wordBytesStart = inWordBytesStart;
+  }
+
+  @Override
+  public String getWord(final int inWordId) {
+    if (inWordId < 0 || inWordId >= this.numWords) {
+      throw new ArrayIndexOutOfBoundsException(inWordId);
+    }
+
+    final int start = this.buffer.getInt(this.wordOffsetsStart + inWordId * 4);
+    final int end = this.buffer.getInt(this.wordOffsetsStart + (inWordId + 1) * 4);
+
+    final byte[] encoded = new byte[end - start];
+    for (int i = 0; i < encoded.length; i++) {
+      encoded[i] = this.buffer.get(this.wordBytesStart + start + i);
+    }
+
+    return new String(encoded, UTF8);
+  }
+
+  @Override
+  public int getNumUniqueWords() {
+    return this.numWords;
+  }
+
+  /**
+   * @param inForThisWord
+   * @return A unique ID identifying the word. Null if the word does not exist
+   *         in the dictionary.
+   */
+  @Override
+  public Integer getWordId(final String inForThisWord) {
+    int low = 0;
+    int high = this.numWords - 1;
+
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int cmp = getWord(mid).compareTo(inForThisWord);
+
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+
+    // Not found
+    return null;
+  }
+}
@@ -0,0 +1,70 @@
+package org.abatons.markov.graph.dictionary;
+
+/**
+ * A concrete DictionaryLookup implementation that provides O(1) lookups of word IDs using a
+ * {@link MinimalPerfectHash}, which takes just a few bytes per word, unlike the map of
+ * {@link DictionaryLookupCached}. The hash gives a candidate word ID, and a single compare with that word rejects
+ * any word that isn't in the dictionary.
+ *
+ * <p>The words themselves are kept by another Dictionary, so this can be put in front of a compact one like
+ * {@link DictionaryLookupFrontCoded}.</p>
+ *
+ * <p>The hash is never changed once built, so it's safe for concurrent readers if the words are.</p>
+ */
+public class DictionaryLookupPerfectHash extends DictionaryLookup {
+  private final Dictionary words;
+  private final MinimalPerfectHash hash;
+
+  /**
+   * Builds the hash over the given words, which takes O(n).
+   */
+  public DictionaryLookupPerfectHash(final Dictionary inWords) {
+    this(inWords, MinimalPerfectHash.build(inWords));
+  }
+
+  /**
+   * @param inHash Must have been built over the same words, e.g. at compile time.
+   */
+  public DictionaryLookupPerfectHash(final Dictionary inWords, final MinimalPerfectHash inHash) {
+    super();
+
+    if (inHash.getNumWords() != inWords.getNumUniqueWords()) {
+      throw new IllegalArgumentException("The hash was built over " + inHash.getNumWords() + " words, but there are "
+          + inWords.getNumUniqueWords());
+    }
+
+    this.words = inWords;
+    this.hash = inHash;
+  }
+
+  public MinimalPerfectHash getHash() {
+    return this.hash;
+  }
+
+  @Override
+  public String getWord(final int inWordId) {
+    return this.words.getWord(inWordId);
+  }
+
+  @Override
+  public int getNumUniqueWords() {
+    return this.words.getNumUniqueWords();
+  }
+
+  /**
+   * @param inForThisWord
+   * @return A unique ID identifying the word. Null if the word does not exist
+   *         in the dictionary.
+   */
+  @Override
+  public Integer getWordId(final String inForThisWord) {
+    final int candidate = this.hash.getWordId(inForThisWord);
+
+    if (candidate < 0 || !this.words.getWord(candidate).equals(inForThisWord)) {
+      // Not found
+      return null;
+    }
+
+    return candidate;
+  }
+}
@@ -0,0 +1,235 @@
+package org.abatons.markov.graph.dictionary;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.abatons.markov.graph.Varints;
+
+/**
+ * <p>A minimal perfect hash function over the words of a dictionary, which gives each of them its word ID in O(1)
+ * without keeping the words themselves. Any other string is given some word ID too, so the word with that ID has to
+ * be compared to confirm the match (see {@link DictionaryLookupPerfectHash}).</p>
+ *
+ * <p>It's built with "hash and displace". Each word's 64 bit hash picks one of about n/4 buckets. Then, biggest
+ * bucket first, each bucket is given the smallest seed that sends all of its words to free slots out of n, when the
+ * seed is mixed into their hashes. As there are exactly n slots, every slot gets exactly one word. Only the seed of
+ * each bucket is kept (as a varint when written out, so mostly a byte), plus a table from slot to word ID, packed
+ * into as few bits as the number of words needs.</p>
+ *
+ * <p>The hash only depends on the characters of the word, so it's the same on every JVM, and can be written out
+ * with the graph and read back in.</p>
+ */
+public final class MinimalPerfectHash {
+  private static final int WORDS_PER_BUCKET = 4;
+  private static final int MAX_SEED = 1 << 24;
+
+  private final int numWords;
+  private final int[] seeds;
+  private final int bitsPerId;
+  private final long[] slotToId;
+
+  private MinimalPerfectHash(final int inNumWords, final int[] inSeeds, final long[] inSlotToId) {
+    this.numWords = inNumWords;
+    this.seeds = inSeeds;
+    this.bitsPerId = bitsPerId(inNumWords);
+    this.slotToId = inSlotToId;
+  }
+
+  /**
+   * @throws IllegalArgumentException If the dictionary holds the same word twice, or (vanishingly unlikely) two of
+   *           the words have the same 64 bit hash
+   */
+  public static MinimalPerfectHash build(final Dictionary inWords) {
+    final int numWords = inWords.getNumUniqueWords();
+    final int numBuckets = Math.max(1, (numWords + WORDS_PER_BUCKET - 1) / WORDS_PER_BUCKET);
+
+    final long[] hashes = new long[numWords];
+
+    final List<List<Integer>> buckets = new ArrayList<List<Integer>>(numBuckets);
+    for (int bucket = 0; bucket < numBuckets; bucket++) {
+      buckets.add(new ArrayList<Integer>(WORDS_PER_BUCKET));
+    }
+    for (int wordId = 0; wordId < numWords; wordId++) {
+      if (wordId > 0 && inWords.getWord(wordId).equals(inWords.getWord(wordId - 1))) {
+        throw new IllegalArgumentException("The words must be unique, but " + inWords.getWord(wordId) + " isn't");
+      }
+
+      hashes[wordId] = hash(inWords.getWord(wordId));
+      buckets.get(bucketOf(hashes[wordId], numBuckets)).add(wordId);
+    }
+
+    final Integer[] bucketOrder = new Integer[numBuckets];
+    for (int bucket = 0; bucket < numBuckets; bucket++) {
+      bucketOrder[bucket] = bucket;
+    }
+    Arrays.sort(bucketOrder, new Comparator<Integer>() {
+      @Override
+      public int compare(final Integer a, final Integer b) {
+        return buckets.get(b).size() - buckets.get(a).size();
+      }
+    });
+
+    final int bitsPerId = bitsPerId(numWords);
+    final int[] seeds = new int[numBuckets];
+    final long[] slotToId = new long[(int) (((long) numWords * bitsPerId + 63) / 64)];
+    final boolean[] taken = new boolean[numWords];
+
+    for (final Integer bucket : bucketOrder) {
+      final List<Integer> wordIds = buckets.get(bucket);
+      if (wordIds.isEmpty()) {
+        break;
+      }
+
+      final int[] slots = new int[wordIds.size()];
+
+      int seed = 0;
+      while (!placeable(wordIds, hashes, seed, taken, slots)) {
+        if (++seed == MAX_SEED) {
+          throw new IllegalArgumentException("No seed could be found for the bucket holding "
+              + inWords.getWord(wordIds.get(0)));
+        }
+      }
+
+      seeds[bucket] = seed;
+      for (int i = 0; i < slots.length; i++) {
+        taken[slots[i]] = true;
+        setBits(slotToId, slots[i], bitsPerId, wordIds.get(i));
+      }
+    }
+
+    return new MinimalPerfectHash(numWords, seeds, slotToId);
+  }
+
+  /**
+   * @return Whether all of the words can go in distinct free slots with the given seed, each word's slot being put
+   *         in inSlots.
+   */
+  private static boolean placeable(final List<Integer> inWordIds, final long[] inHashes, final int inSeed,
+                                   final boolean[] inTaken, final int[] inSlots) {
+    for (int i = 0; i < inSlots.length; i++) {
+      inSlots[i] = slotOf(inHashes[inWordIds.get(i)], inSeed, inTaken.length);
+
+      if (inTaken[inSlots[i]]) {
+        return false;
+      }
+      for (int j = 0; j < i; j++) {
+        if (inSlots[j] == inSlots[i]) {
+          return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * @return The ID of the given word if it's one of the words the hash was built from. Otherwise, the ID of any one
+   *         of the words, or -1 if there are none.
+   */
+  public int getWordId(final String inWord) {
+    if (this.numWords == 0) {
+      return -1;
+    }
+
+    final long hash = hash(inWord);
+    final int seed = this.seeds[bucketOf(hash, this.seeds.length)];
+
+    return getBits(this.slotToId, slotOf(hash, seed, this.numWords), this.bitsPerId);
+  }
+
+  public int getNumWords() {
+    return this.numWords;
+  }
+
+  public void writeTo(final DataOutput inOut) throws IOException {
+    Varints.writeVarint(inOut, this.numWords);
+    Varints.writeVarint(inOut, this.seeds.length);
+
+    for (final int seed : this.seeds) {
+      Varints.writeVarint(inOut, seed);
+    }
+    for (final long bits : this.slotToId) {
+      inOut.writeLong(bits);
+    }
+  }
+
+  public static MinimalPerfectHash readFrom(final DataInput inIn) throws IOException {
+    final int numWords = Varints.readVarint(inIn);
+
+    final int[] seeds = new int[Varints.readVarint(inIn)];
+    for (int bucket = 0; bucket < seeds.length; bucket++) {
+      seeds[bucket] = Varints.readVarint(inIn);
+    }
+
+    final long[] slotToId = new long[(int) (((long) numWords * bitsPerId(numWords) + 63) / 64)];
+    for (int i = 0; i < slotToId.length; i++) {
+      slotToId[i] = inIn.readLong();
+    }
+
+    return new MinimalPerfectHash(numWords, seeds, slotToId);
+  }
+
+  /**
+   * FNV-1a over the characters, then a final mix so that every bit depends on every character.
+   */
+  private static long hash(final String inWord) {
+    long hash = 0xCBF29CE484222325L;
+    for (int i = 0; i < inWord.length(); i++) {
+      hash ^= inWord.charAt(i);
+      hash *= 0x100000001B3L;
+    }
+
+    return mix(hash);
+  }
+
+  private static long mix(final long inHash) {
+    long h = inHash;
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private static int bucketOf(final long inHash, final int inNumBuckets) {
+    return (int) ((inHash >>> 1) % inNumBuckets);
+  }
+
+  private static int slotOf(final long inHash, final int inSeed, final int inNumSlots) {
+    return (int) ((mix(inHash + inSeed * 0x9E3779B97F4A7C15L) >>> 1) % inNumSlots);
+  }
+
+  private static int bitsPerId(final int inNumWords) {
+    return Math.max(1, 32 - Integer.numberOfLeadingZeros(inNumWords - 1));
+  }
+
+  private static void setBits(final long[] inBits, final int inIndex, final int inBitsPerValue, final int inValue) {
+    final long bit = (long) inIndex * inBitsPerValue;
+    final int word = (int) (bit >>> 6);
+    final int shift = (int) (bit & 63);
+
+    inBits[word] |= (long) inValue << shift;
+    if (shift + inBitsPerValue > 64) {
+      inBits[word + 1] |= (long) inValue >>> (64 - shift);
+    }
+  }
+
+  private static int getBits(final long[] inBits, final int inIndex, final int inBitsPerValue) {
+    final long bit = (long) inIndex * inBitsPerValue;
+    final int word = (int) (bit >>> 6);
+    final int shift = (int) (bit & 63);
+
+    long value = inBits[word] >>> shift;
+    if (shift + inBitsPerValue > 64) {
+      value |= inBits[word + 1] << (64 - shift);
+    }
+
+    return (int) (value & ((1L << inBitsPerValue) - 1));
+  }
+}
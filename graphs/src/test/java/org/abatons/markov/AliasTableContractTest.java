@@ -0,0 +1,117 @@
+package org.abatons.markov;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.abatons.markov.graph.AliasSampler;
+import org.abatons.markov.graph.AliasTable;
+import org.abatons.markov.graph.Graph;
+import org.abatons.markov.graph.HistoryTable;
+import org.abatons.markov.graph.Parody;
+import org.abatons.markov.graph.Transitions;
+import org.abatons.markov.graph.dictionary.DictionaryLookupBinarySearch;
+import org.junit.Test;
+
+public class AliasTableContractTest {
+  /**
+   * Hands out the given numbers in turn, ignoring the bound asked for.
+   */
+  @SuppressWarnings("serial")
+  private static class ScriptedRNG extends Random {
+    private final int[] script;
+    private int next = 0;
+
+    ScriptedRNG(final int... inScript) {
+      this.script = inScript;
+    }
+
+    @Override
+    public int nextInt(final int n) {
+      return this.script[this.next++];
+    }
+  }
+
+  private static Transitions transitions(final int... inTargets) {
+    final Transitions t = new Transitions();
+    for (final int target : inTargets) {
+      t.recordTransition(target);
+    }
+    return t;
+  }
+
+  @Test
+  public void chooseTargetWordId_exactlyTheSameChancesAsTheNumerators() {
+    // a: 5/10, b: 3/10, c: 1/10, d: 1/10
+    final Transitions t = transitions('a', 'a', 'a', 'a', 'a', 'b', 'b', 'b', 'c', 'd');
+    final AliasTable table = new AliasTable(t);
+
+    final int numColumns = table.getNumberTransitions();
+    assertEquals(4, numColumns);
+
+    // Try every possible pair of random numbers once
+    final Map<Integer, Integer> timesChosen = new HashMap<Integer, Integer>();
+    for (int column = 0; column < numColumns; column++) {
+      for (int chance = 0; chance < 10; chance++) {
+        final int chosen = table.chooseTargetWordId(new ScriptedRNG(column, chance));
+
+        final Integer soFar = timesChosen.get(chosen);
+        timesChosen.put(chosen, (soFar == null) ? 1 : soFar + 1);
+      }
+    }
+
+    assertEquals(Integer.valueOf(5 * numColumns), timesChosen.get((int) 'a'));
+    assertEquals(Integer.valueOf(3 * numColumns), timesChosen.get((int) 'b'));
+    assertEquals(Integer.valueOf(1 * numColumns), timesChosen.get((int) 'c'));
+    assertEquals(Integer.valueOf(1 * numColumns), timesChosen.get((int) 'd'));
+  }
+
+  @Test
+  public void chooseTargetWordId_singleTransition() {
+    final AliasTable table = new AliasTable(transitions('z', 'z'));
+
+    assertEquals('z', table.chooseTargetWordId(new ScriptedRNG(0, 1)));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void chooseTargetWordId_noTransitions() {
+    new AliasTable(new Transitions()).chooseTargetWordId(new Random());
+  }
+
+  @Test
+  public void getAliasTable_onlyForHistoriesWithEnoughTransitions() {
+    final AliasSampler sampler = new AliasSampler(2);
+
+    assertNull(sampler.getAliasTable(new int[] { 23 }, transitions('a', 'a')));
+    assertEquals(0, sampler.getNumCachedTables());
+
+    final Transitions t = transitions('a', 'b');
+    final AliasTable table = sampler.getAliasTable(new int[] { 24 }, t);
+
+    assertNotNull(table);
+    assertSame(table, sampler.getAliasTable(new int[] { 24 }, t));
+    assertEquals(1, sampler.getNumCachedTables());
+  }
+
+  @Test
+  public void parody_usesAliasTables() {
+    final DictionaryLookupBinarySearch dict = new DictionaryLookupBinarySearch(new String[] {"a", "b", "c"});
+
+    final HistoryTable<Transitions> historyToTransitions = new HistoryTable<Transitions>(1);
+    historyToTransitions.put(new int[] { 0 }, transitions(1, 2));
+    historyToTransitions.put(new int[] { 1 }, transitions(0));
+
+    final AliasSampler sampler = new AliasSampler(1);
+    final Parody p = new Parody(new Graph(dict, historyToTransitions), new int[] { 0 }, new ScriptedRNG(1, 0, 0, 0),
+        sampler);
+
+    assertEquals("c", p.getNextWord());
+    assertNull(p.getNextWord());
+    assertEquals(1, sampler.getNumCachedTables());
+  }
+}
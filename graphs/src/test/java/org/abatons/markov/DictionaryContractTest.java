@@ -1,8 +1,19 @@
 package org.abatons.markov;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
 import org.abatons.markov.graph.dictionary.Dictionary;
 import org.abatons.markov.graph.dictionary.DictionaryLookup;
+import org.abatons.markov.graph.dictionary.DictionaryLookupBinarySearch;
 import org.abatons.markov.graph.dictionary.DictionaryLookupCached;
+import org.abatons.markov.graph.dictionary.DictionaryLookupFrontCoded;
+import org.abatons.markov.graph.dictionary.DictionaryLookupPerfectHash;
+import org.abatons.markov.graph.dictionary.MinimalPerfectHash;
 
 import static org.junit.Assert.*;
 import org.junit.Before;
@@ -39,7 +50,7 @@ public class DictionaryContractTest {
         final String[] uniqueSortedWords = new String[]{"word"};
         final Dictionary dict = new Dictionary(uniqueSortedWords);
         
-        final char indexBeyondEnd = (char) uniqueSortedWords.length;
+        final int indexBeyondEnd = uniqueSortedWords.length;
         
         dict.getWord(indexBeyondEnd);
     }
@@ -48,8 +59,8 @@ public class DictionaryContractTest {
     public void getWord_idIsInBounds() {
         final Dictionary dict = new Dictionary(new String[]{"a", "b"});
         
-        assertEquals("a", dict.getWord((char) 0));
-        assertEquals("b", dict.getWord((char) 1));
+        assertEquals("a", dict.getWord(0));
+        assertEquals("b", dict.getWord(1));
     }
     
     @Test
@@ -59,8 +70,8 @@ public class DictionaryContractTest {
         assertEquals("a", dict.getWord(dict.getWordId("a")));
         assertEquals("b", dict.getWord(dict.getWordId("b")));
         
-        assertEquals(new Character((char) 0), dict.getWordId(dict.getWord((char) 0)));
-        assertEquals(new Character((char) 1), dict.getWordId(dict.getWord((char) 1)));
+        assertEquals(Integer.valueOf(0), dict.getWordId(dict.getWord(0)));
+        assertEquals(Integer.valueOf(1), dict.getWordId(dict.getWord(1)));
     }
     
     @Test
@@ -74,8 +85,129 @@ public class DictionaryContractTest {
     public void getWordId_whenInDictionary() {
         final DictionaryLookup dict = new DictionaryLookupCached(new String[]{"a", "b"});
         
-        assertEquals(new Character((char) 0), dict.getWordId("a"));
-        assertEquals(new Character((char) 1), dict.getWordId("b"));
+        assertEquals(Integer.valueOf(0), dict.getWordId("a"));
+        assertEquals(Integer.valueOf(1), dict.getWordId("b"));
+    }
+    
+    @Test
+    public void frontCoded_sameIdsAsBinarySearch() {
+        // Enough words for several buckets, with plenty of shared prefixes and some multi-byte characters
+        final String[] words = new String[1000];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = String.format("%s%04d", (i % 2 == 0) ? "the" : "th\u00E9", i);
+        }
+        Arrays.sort(words);
+        
+        final DictionaryLookup expected = new DictionaryLookupBinarySearch(words);
+        
+        for (final DictionaryLookup dict : new DictionaryLookup[] { new DictionaryLookupFrontCoded(words),
+                new DictionaryLookupFrontCoded(words, 8) }) {
+            assertEquals(words.length, dict.getNumUniqueWords());
+            
+            // Twice over, so the second time round comes from any cached words
+            for (int pass = 0; pass < 2; pass++) {
+                for (int wordId = 0; wordId < words.length; wordId++) {
+                    assertEquals(words[wordId], dict.getWord(wordId));
+                    assertEquals(expected.getWordId(words[wordId]), dict.getWordId(words[wordId]));
+                }
+            }
+            
+            assertNull(dict.getWordId(""));
+            assertNull(dict.getWordId("the0001"));
+            assertNull(dict.getWordId("the00000"));
+            assertNull(dict.getWordId("zebra"));
+        }
+    }
+    
+    @Test
+    public void frontCoded_smallerThanTheWords() {
+        final String[] words = new String[1000];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = String.format("international%04d", i);
+        }
+        
+        assertTrue(new DictionaryLookupFrontCoded(words).getNumBytes() < words.length * 8);
+    }
+    
+    @Test
+    public void frontCoded_noWords() {
+        final DictionaryLookup dict = new DictionaryLookupFrontCoded(new String[] {});
+        
+        assertEquals(0, dict.getNumUniqueWords());
+        assertNull(dict.getWordId("a"));
+    }
+    
+    @Test(expected=ArrayIndexOutOfBoundsException.class)
+    public void frontCoded_getWord_idIsOutOfBounds() {
+        new DictionaryLookupFrontCoded(new String[] { "word" }).getWord(1);
+    }
+    
+    @Test
+    public void perfectHash_sameIdsAsBinarySearch() {
+        final String[] words = new String[70000];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = String.format("w%06d", i);
+        }
+        
+        final DictionaryLookup dict = new DictionaryLookupPerfectHash(new Dictionary(words));
+        
+        assertEquals(words.length, dict.getNumUniqueWords());
+        for (int wordId = 0; wordId < words.length; wordId++) {
+            assertEquals(Integer.valueOf(wordId), dict.getWordId(words[wordId]));
+            assertEquals(words[wordId], dict.getWord(wordId));
+        }
+        
+        assertNull(dict.getWordId(""));
+        assertNull(dict.getWordId("w070000"));
+        assertNull(dict.getWordId("zebra"));
+    }
+    
+    @Test
+    public void perfectHash_writtenAndReadBack() throws IOException {
+        final Dictionary words = new DictionaryLookupFrontCoded(new String[] { "", ".", "A", "bar", "foo", "\u00C7a" });
+        
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MinimalPerfectHash.build(words).writeTo(new DataOutputStream(bytes));
+        
+        final MinimalPerfectHash hash = MinimalPerfectHash.readFrom(new DataInputStream(new ByteArrayInputStream(bytes
+                .toByteArray())));
+        final DictionaryLookup dict = new DictionaryLookupPerfectHash(words, hash);
+        
+        for (int wordId = 0; wordId < words.getNumUniqueWords(); wordId++) {
+            assertEquals(Integer.valueOf(wordId), dict.getWordId(words.getWord(wordId)));
+        }
+        assertNull(dict.getWordId("baz"));
+    }
+    
+    @Test
+    public void perfectHash_noWords() {
+        final DictionaryLookup dict = new DictionaryLookupPerfectHash(new Dictionary(new String[] {}));
+        
+        assertEquals(0, dict.getNumUniqueWords());
+        assertNull(dict.getWordId("a"));
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void perfectHash_duplicateWordsAreRejected() {
+        new DictionaryLookupPerfectHash(new Dictionary(new String[] { "a", "a" }));
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void perfectHash_builtOverOtherWordsIsRejected() {
+        final MinimalPerfectHash hash = MinimalPerfectHash.build(new Dictionary(new String[] { "a", "b" }));
+        
+        new DictionaryLookupPerfectHash(new Dictionary(new String[] { "a" }), hash);
+    }
+    
+    @Test
+    public void frontCoded_emptyWordAndPrefixes() {
+        final String[] words = new String[] { "", "a", "ab", "abc", "b" };
+        final DictionaryLookup dict = new DictionaryLookupFrontCoded(words);
+        
+        for (int wordId = 0; wordId < words.length; wordId++) {
+            assertEquals(words[wordId], dict.getWord(wordId));
+            assertEquals(Integer.valueOf(wordId), dict.getWordId(words[wordId]));
+        }
     }
 }
 
@@ -0,0 +1,124 @@
+package org.abatons.markov;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Iterator;
+
+import org.abatons.markov.graph.Graph;
+import org.abatons.markov.graph.GraphCompressedBlocks;
+import org.abatons.markov.graph.HistoryTable;
+import org.abatons.markov.graph.TransitionProbability;
+import org.abatons.markov.graph.Transitions;
+import org.abatons.markov.graph.dictionary.DictionaryLookup;
+import org.abatons.markov.graph.dictionary.DictionaryLookupBinarySearch;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GraphCompressedBlocksContractTest {
+    private DictionaryLookup dict;
+    private Graph mapGraph;
+
+    @Before
+    public void before() {
+        final int numWords = 300;
+
+        final String[] words = new String[numWords];
+        for (int i = 0; i < numWords; i++) {
+            words[i] = String.format("w%03d", i);
+        }
+        this.dict = new DictionaryLookupBinarySearch(words);
+
+        // Plenty of histories sharing their first word, and rows with targets both sides of each other
+        final HistoryTable<Transitions> historyToTransitions = new HistoryTable<Transitions>(2);
+        for (int i = 0; i < numWords; i++) {
+            final Transitions t = new Transitions();
+            for (int j = 0; j <= i % 5; j++) {
+                t.recordTransition((i * 7 + j * 31) % numWords);
+            }
+            t.recordTransition(i);
+
+            historyToTransitions.put(new int[] { i / 10, (i * 13) % numWords }, t);
+        }
+
+        this.mapGraph = new Graph(dict, historyToTransitions);
+    }
+
+    @Test
+    public void getDictionaryAndOrder() {
+        final Graph compressed = new GraphCompressedBlocks(mapGraph, true);
+
+        assertSame(dict, compressed.getDictionary());
+        assertEquals(2, compressed.getOrder());
+    }
+
+    @Test
+    public void getWordHistories_sameAsOriginalGraph() {
+        assertArrayEquals(mapGraph.getWordHistories(), new GraphCompressedBlocks(mapGraph, 7, false)
+                .getWordHistories());
+        assertArrayEquals(mapGraph.getWordHistories(), new GraphCompressedBlocks(mapGraph, 7, true)
+                .getWordHistories());
+    }
+
+    @Test
+    public void getTransitions_sameAsOriginalGraph() {
+        assertSameTransitions(new GraphCompressedBlocks(mapGraph, 1, false));
+        assertSameTransitions(new GraphCompressedBlocks(mapGraph, 7, false));
+        assertSameTransitions(new GraphCompressedBlocks(mapGraph, 7, true));
+        assertSameTransitions(new GraphCompressedBlocks(mapGraph, 1000, true));
+    }
+
+    @Test
+    public void getTransitions_whenSuppliedAnUnknownWordHistory() {
+        final Graph compressed = new GraphCompressedBlocks(mapGraph, 7, true);
+
+        // Between two histories of the same block, and after the last
+        for (final int[] unknown : new int[][] { { 0, 1 }, { 29, 299 } }) {
+            final Transitions t = compressed.getTransitions(unknown);
+
+            assertNotNull(t);
+            assertFalse(t.iterator().hasNext());
+        }
+    }
+
+    @Test
+    public void getTransitions_whenSuppliedAWordHistoryOfTheWrongOrder() {
+        final Transitions t = new GraphCompressedBlocks(mapGraph, true).getTransitions(new int[] { 0 });
+
+        assertNotNull(t);
+        assertFalse(t.iterator().hasNext());
+    }
+
+    @Test
+    public void emptyGraph() {
+        final Graph empty = new GraphCompressedBlocks(new Graph(dict, new HistoryTable<Transitions>(2)), true);
+
+        assertEquals(0, empty.getWordHistories().length);
+        assertEquals(2, empty.getOrder());
+        assertFalse(empty.getTransitions(new int[] { 0, 0 }).iterator().hasNext());
+    }
+
+    private void assertSameTransitions(final Graph inCompressed) {
+        // Twice over, so the second time round comes from any cached blocks
+        for (int pass = 0; pass < 2; pass++) {
+            for (final int[] history : mapGraph.getWordHistories()) {
+                final Iterator<TransitionProbability> expected = mapGraph.getTransitions(history).iterator();
+                final Iterator<TransitionProbability> actual = inCompressed.getTransitions(history).iterator();
+
+                while (expected.hasNext()) {
+                    final TransitionProbability tp1 = expected.next();
+                    final TransitionProbability tp2 = actual.next();
+
+                    assertEquals(tp1.targetWordId, tp2.targetWordId);
+                    assertEquals(tp1.getNumerator(), tp2.getNumerator());
+                    assertEquals(tp1.getDenominator(), tp2.getDenominator());
+                }
+
+                assertFalse(actual.hasNext());
+            }
+        }
+    }
+}
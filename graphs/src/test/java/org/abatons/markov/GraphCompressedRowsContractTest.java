@@ -0,0 +1,148 @@
+package org.abatons.markov;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Iterator;
+
+import org.abatons.markov.graph.Graph;
+import org.abatons.markov.graph.GraphCompressedRows;
+import org.abatons.markov.graph.HistoryTable;
+import org.abatons.markov.graph.TransitionProbability;
+import org.abatons.markov.graph.Transitions;
+import org.abatons.markov.graph.dictionary.DictionaryLookup;
+import org.abatons.markov.graph.dictionary.DictionaryLookupBinarySearch;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GraphCompressedRowsContractTest {
+    private DictionaryLookup dict;
+    private Graph mapGraph;
+    private GraphCompressedRows csrGraph;
+
+    @Before
+    public void before() {
+        // Equivalent to a compiled order 2 graph for "A foo foo bar."
+        this.dict = new DictionaryLookupBinarySearch(new String[] {".", "A", "bar", "foo"});
+
+        final int idFullStop = dict.getWordId(".");
+        final int idA = dict.getWordId("A");
+        final int idBar = dict.getWordId("bar");
+        final int idFoo = dict.getWordId("foo");
+
+        final HistoryTable<Transitions> historyToTransitions = new HistoryTable<Transitions>(2);
+
+        final Transitions fromAFoo = new Transitions();
+        fromAFoo.recordTransition(idFoo);
+        historyToTransitions.put(new int[] { idA, idFoo }, fromAFoo);
+
+        final Transitions fromFooFoo = new Transitions();
+        fromFooFoo.recordTransition(idBar);
+        historyToTransitions.put(new int[] { idFoo, idFoo }, fromFooFoo);
+
+        final Transitions fromFooBar = new Transitions();
+        fromFooBar.recordTransition(idFullStop);
+        fromFooBar.recordTransition(idFullStop);
+        fromFooBar.recordTransition(idA);
+        historyToTransitions.put(new int[] { idFoo, idBar }, fromFooBar);
+
+        this.mapGraph = new Graph(dict, historyToTransitions);
+        this.csrGraph = new GraphCompressedRows(mapGraph);
+    }
+
+    @Test
+    public void getDictionary() {
+        assertSame(dict, csrGraph.getDictionary());
+    }
+
+    @Test
+    public void getOrder() {
+        assertEquals(2, csrGraph.getOrder());
+    }
+
+    @Test
+    public void getWordHistories_areSorted() {
+        final int idA = dict.getWordId("A");
+        final int idBar = dict.getWordId("bar");
+        final int idFoo = dict.getWordId("foo");
+
+        final int[][] expected = new int[][] { { idA, idFoo }, { idFoo, idBar }, { idFoo, idFoo } };
+
+        assertArrayEquals(expected, csrGraph.getWordHistories());
+        assertArrayEquals(expected, mapGraph.getWordHistories());
+    }
+
+    @Test
+    public void getTransitions_sameAsOriginalGraph() {
+        for (final int[] history : mapGraph.getWordHistories()) {
+            final Iterator<TransitionProbability> expected = mapGraph.getTransitions(history).iterator();
+            final Iterator<TransitionProbability> actual = csrGraph.getTransitions(history).iterator();
+
+            while (expected.hasNext()) {
+                final TransitionProbability tp1 = expected.next();
+                final TransitionProbability tp2 = actual.next();
+
+                assertEquals(tp1.targetWordId, tp2.targetWordId);
+                assertEquals(tp1.getNumerator(), tp2.getNumerator());
+                assertEquals(tp1.getDenominator(), tp2.getDenominator());
+            }
+
+            assertFalse(actual.hasNext());
+        }
+    }
+
+    @Test
+    public void getTransitions_whenSuppliedAnUnknownWordHistory() {
+        final int idBar = dict.getWordId("bar");
+
+        final Transitions fromBarBar = csrGraph.getTransitions(new int[] { idBar, idBar });
+
+        assertNotNull(fromBarBar);
+        assertFalse(fromBarBar.iterator().hasNext());
+    }
+
+    @Test
+    public void getTransitions_whenSuppliedAWordHistoryOfTheWrongOrder() {
+        final int idFoo = dict.getWordId("foo");
+
+        final Transitions fromFoo = csrGraph.getTransitions(new int[] { idFoo });
+
+        assertNotNull(fromFoo);
+        assertFalse(fromFoo.iterator().hasNext());
+    }
+
+    @Test
+    public void emptyGraph() {
+        final Graph empty = new GraphCompressedRows(new Graph(dict, new HistoryTable<Transitions>(2)));
+
+        assertEquals(0, empty.getWordHistories().length);
+        assertEquals(2, empty.getOrder());
+        assertFalse(empty.getTransitions(new int[] { 0, 0 }).iterator().hasNext());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void construction_mixedOrdersAreRejected() {
+        // A graph's own table can't hold mixed orders, but another implementation could give them
+        final Graph mixedOrders = new Graph(dict) {
+            @Override
+            public int getOrder() {
+                return 1;
+            }
+
+            @Override
+            public int[][] getWordHistories() {
+                return new int[][] { { 0 }, { 0, 1 } };
+            }
+
+            @Override
+            public Transitions getTransitions(final int[] inFollowingThisWordHistory) {
+                return new Transitions();
+            }
+        };
+
+        new GraphCompressedRows(mixedOrders);
+    }
+}
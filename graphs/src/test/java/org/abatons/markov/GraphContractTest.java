@@ -3,12 +3,14 @@ package org.abatons.markov;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
 
 import org.abatons.markov.graph.Graph;
+import org.abatons.markov.graph.HistoryTable;
+import org.abatons.markov.graph.Parody;
 import org.abatons.markov.graph.TransitionProbability;
 import org.abatons.markov.graph.Transitions;
 import org.abatons.markov.graph.dictionary.DictionaryLookup;
@@ -18,8 +20,8 @@ import org.junit.Test;
 
 public class GraphContractTest {
     private DictionaryLookup dict;
-    private char idForWordA;
-    private char idForWordB;
+    private int idForWordA;
+    private int idForWordB;
     private Transitions justOneTransitionToWordB;
     private Graph singleTransitionGraph;
     
@@ -33,8 +35,8 @@ public class GraphContractTest {
         this.justOneTransitionToWordB = new Transitions();
         this.justOneTransitionToWordB.recordTransition(idForWordB);
         
-        final Map<String, Transitions> historyToTransitionsMap = new HashMap<String, Transitions>();
-        historyToTransitionsMap.put("" + idForWordA, this.justOneTransitionToWordB);
+        final HistoryTable<Transitions> historyToTransitionsMap = new HistoryTable<Transitions>(1);
+        historyToTransitionsMap.put(new int[] { idForWordA }, this.justOneTransitionToWordB);
         
         this.singleTransitionGraph = new Graph(dict, historyToTransitionsMap);
     }
@@ -43,7 +45,7 @@ public class GraphContractTest {
 	public void getDictionary() {
 	    final DictionaryLookup dict = new DictionaryLookupCached(new String[]{"a"});
 	    
-	    final Map<String, Transitions> noTransitions = new HashMap<String, Transitions>();
+	    final HistoryTable<Transitions> noTransitions = new HistoryTable<Transitions>(1);
 	    final Graph g = new Graph(dict, noTransitions);
 	    
 	    assertEquals(dict, g.getDictionary());
@@ -53,10 +55,10 @@ public class GraphContractTest {
     public void getTransitions_whenThereAreNoTransitions() {
         final DictionaryLookup dict = new DictionaryLookupCached(new String[]{"a"});
         
-        final Map<String, Transitions> noTransitions = new HashMap<String, Transitions>();
+        final HistoryTable<Transitions> noTransitions = new HistoryTable<Transitions>(1);
         final Graph g = new Graph(dict, noTransitions);
         
-        final Transitions transitionsFromA = g.getTransitions("a");
+        final Transitions transitionsFromA = g.getTransitions(new int[] { dict.getWordId("a") });
         
         assertNotNull(transitionsFromA);
         
@@ -65,7 +67,7 @@ public class GraphContractTest {
     
     @Test
     public void getTransitions_whenSuppliedAKnownWordHistory() {        
-        final Transitions transitionsFromA = singleTransitionGraph.getTransitions("" + idForWordA);
+        final Transitions transitionsFromA = singleTransitionGraph.getTransitions(new int[] { idForWordA });
         
         assertNotNull(transitionsFromA);
         
@@ -82,11 +84,30 @@ public class GraphContractTest {
     
     @Test
     public void getTransitions_whenSuppliedAnUnknownWordHistory() {
-        final Transitions transitionsFromB = singleTransitionGraph.getTransitions("" + idForWordB);
+        final Transitions transitionsFromB = singleTransitionGraph.getTransitions(new int[] { idForWordB });
         
         assertNotNull(transitionsFromB);
         
         assertFalse(transitionsFromB.iterator().hasNext());
     }
+    
+    @Test
+    public void getTransitions_unknownWordHistoriesShareTheEmptyTransitions() {
+        assertSame(Transitions.EMPTY, singleTransitionGraph.getTransitions(new int[] { idForWordB }));
+        assertSame(Transitions.EMPTY, singleTransitionGraph.getTransitions(new int[] { idForWordA, idForWordA }));
+    }
+    
+    @Test
+    public void parody_getNextWordId() {
+        final Parody p = new Parody(singleTransitionGraph, new int[] { idForWordA });
+        
+        assertEquals(idForWordB, p.getNextWordId());
+        assertEquals(-1, p.getNextWordId());
+        
+        final Parody q = new Parody(singleTransitionGraph, new int[] { idForWordA });
+        
+        assertEquals("b", q.getNextWord());
+        assertNull(q.getNextWord());
+    }
 }
 
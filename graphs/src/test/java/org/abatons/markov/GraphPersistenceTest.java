@@ -5,18 +5,27 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
 
 import org.abatons.markov.graph.Graph;
+import org.abatons.markov.graph.GraphMapped;
+import org.abatons.markov.graph.GraphCompressedBlocks;
 import org.abatons.markov.graph.GraphPersistenceRaw;
+import org.abatons.markov.graph.GraphPersistenceRawCompressed;
+import org.abatons.markov.graph.GraphPersistenceRawMapped;
+import org.abatons.markov.graph.GraphCompressedRows;
 import org.abatons.markov.graph.GraphPersistenceSqlite;
+import org.abatons.markov.graph.GraphPersistenceSqlitePacked;
+import org.abatons.markov.graph.GraphQuantized;
+import org.abatons.markov.graph.GraphSqlite;
+import org.abatons.markov.graph.HistoryTable;
 import org.abatons.markov.graph.TransitionProbability;
+import org.abatons.markov.graph.TransitionQuantizer;
 import org.abatons.markov.graph.Transitions;
 import org.abatons.markov.graph.dictionary.DictionaryLookup;
 import org.abatons.markov.graph.dictionary.DictionaryLookupBinarySearch;
@@ -27,10 +36,16 @@ import org.junit.Test;
 public class GraphPersistenceTest {
     private final String filenameSqlite = "DictionaryPersistenceTest.sqlite";
     private final String filenameRaw = "GraphPersistenceTest.raw";
+    private final String filenameRawMapped = "GraphPersistenceTest.raw2";
+    private final String filenameRawCompressed = "GraphPersistenceTest.rawz";
+    private final String filenameSqlitePacked = "GraphPersistenceTest.packed.sqlite";
 
     private Graph graph;
     private GraphPersistenceSqlite sqliteImpl;
     private GraphPersistenceRaw rawImpl;
+    private GraphPersistenceRawMapped rawMappedImpl;
+    private GraphPersistenceRawCompressed rawCompressedImpl;
+    private GraphPersistenceSqlitePacked sqlitePackedImpl;
 
     @Before
     public void setup() throws IOException {
@@ -41,21 +56,21 @@ public class GraphPersistenceTest {
         //graph = GraphCompiler.createGraph("A foo foo bar.", 1);
         ///////////////////////////////////////
         final DictionaryLookup dict = new DictionaryLookupBinarySearch(new String[] {".", "A", "bar", "foo"});
-        final Map<String, Transitions> wordHistoryToTransitionList = new HashMap<String, Transitions>();
+        final HistoryTable<Transitions> wordHistoryToTransitionList = new HistoryTable<Transitions>(1);
         
         final Transitions transitionsFromA = new Transitions();
         transitionsFromA.addTransition(dict.getWordId("foo"), (char)1, (char)1, true); // A -> bar
-        wordHistoryToTransitionList.put(""+dict.getWordId("A"),  transitionsFromA);
+        wordHistoryToTransitionList.put(new int[] { dict.getWordId("A") },  transitionsFromA);
 
         final Transitions transitionsFromFoo = new Transitions();
         transitionsFromFoo.addTransition(dict.getWordId("bar"), (char)1, (char)2, false); // foo -> bar
         transitionsFromFoo.addTransition(dict.getWordId("foo"), (char)1, (char)2, true); // foo -> foo
         
-        wordHistoryToTransitionList.put("" + dict.getWordId("foo"),  transitionsFromFoo);
+        wordHistoryToTransitionList.put(new int[] { dict.getWordId("foo") },  transitionsFromFoo);
         
         final Transitions transitionsFromBar = new Transitions();
         transitionsFromBar.addTransition(dict.getWordId("."), (char)1, (char)1, true); // bar -> .
-        wordHistoryToTransitionList.put("" + dict.getWordId("bar"),  transitionsFromBar);
+        wordHistoryToTransitionList.put(new int[] { dict.getWordId("bar") },  transitionsFromBar);
         ///////////////////////////////////////
         
         graph = new Graph(dict, wordHistoryToTransitionList);
@@ -66,15 +81,30 @@ public class GraphPersistenceTest {
         if ((new File(filenameRaw)).exists()) {
             assertTrue((new File(filenameRaw)).delete());
         }
+        if ((new File(filenameRawMapped)).exists()) {
+            assertTrue((new File(filenameRawMapped)).delete());
+        }
+        if ((new File(filenameRawCompressed)).exists()) {
+            assertTrue((new File(filenameRawCompressed)).delete());
+        }
+        if ((new File(filenameSqlitePacked)).exists()) {
+            assertTrue((new File(filenameSqlitePacked)).delete());
+        }
 
         sqliteImpl = new GraphPersistenceSqlite(filenameSqlite);
         rawImpl = new GraphPersistenceRaw(filenameRaw);
+        rawMappedImpl = new GraphPersistenceRawMapped(filenameRawMapped);
+        rawCompressedImpl = new GraphPersistenceRawCompressed(filenameRawCompressed);
+        sqlitePackedImpl = new GraphPersistenceSqlitePacked(filenameSqlitePacked);
     }
 
     @After
     public void tearDown() {
         (new File(filenameSqlite)).delete();
         (new File(filenameRaw)).delete();
+        (new File(filenameRawMapped)).delete();
+        (new File(filenameRawCompressed)).delete();
+        (new File(filenameSqlitePacked)).delete();
     }
 
     @Test
@@ -86,18 +116,336 @@ public class GraphPersistenceTest {
         assertSameGraph(graph, rawImpl.load());
     }
 
+    @Test
+    public void save_and_load_mapped() {
+        rawMappedImpl.save(graph);
+
+        final Graph loaded = rawMappedImpl.load();
+        assertTrue(loaded instanceof GraphMapped);
+
+        assertSameGraph(graph, loaded);
+
+        final DictionaryLookup dict = loaded.getDictionary();
+        assertNull(dict.getWordId("zebra"));
+        assertFalse(loaded.getTransitions(new int[] { dict.getWordId(".") }).iterator().hasNext());
+        assertFalse(loaded.getTransitions(new int[] { dict.getWordId("foo"), dict.getWordId("foo") }).iterator()
+                .hasNext());
+    }
+
+    @Test
+    public void save_and_load_compressed() {
+        rawCompressedImpl.save(graph);
+
+        final Graph loaded = rawCompressedImpl.load();
+        assertTrue(loaded instanceof GraphCompressedBlocks);
+        assertSameGraph(graph, loaded);
+
+        rawCompressedImpl = new GraphPersistenceRawCompressed(filenameRawCompressed, false);
+        rawCompressedImpl.save(graph);
+        assertSameGraph(graph, rawCompressedImpl.load());
+
+        // Saved again as it was loaded
+        rawCompressedImpl.save(loaded);
+        assertSameGraph(graph, rawCompressedImpl.load());
+    }
+
+    @Test
+    public void save_and_load_packed() {
+        sqlitePackedImpl.save(graph);
+
+        final Graph loaded = sqlitePackedImpl.load();
+        assertTrue(loaded instanceof GraphCompressedRows);
+        assertSameGraph(graph, loaded);
+
+        // Saved again over itself
+        sqlitePackedImpl.save(loaded);
+        assertSameGraph(graph, sqlitePackedImpl.load());
+
+        final Graph empty = new Graph(graph.getDictionary(), new HistoryTable<Transitions>(2));
+        sqlitePackedImpl.save(empty);
+        assertSameGraph(empty, sqlitePackedImpl.load());
+    }
+
+    @Test
+    public void load_packed_returnsNullIfNotInThePackedSchema() {
+        assertNull(sqlitePackedImpl.load());
+
+        sqliteImpl = new GraphPersistenceSqlite(filenameSqlitePacked);
+        sqliteImpl.save(graph);
+        assertNull(sqlitePackedImpl.load());
+
+        // And the other way around
+        sqlitePackedImpl.save(graph);
+        assertNull(sqliteImpl.load());
+        assertNull(sqliteImpl.loadLazily());
+    }
+
+    @Test
+    public void save_and_loadLazily() {
+        sqliteImpl.save(graph);
+
+        final GraphSqlite everything = sqliteImpl.loadLazily(2);
+        assertSameGraph(graph, everything);
+        everything.close();
+
+        final GraphSqlite loaded = sqliteImpl.loadLazily(2);
+        try {
+            final DictionaryLookup dict = loaded.getDictionary();
+            final int[] fromFoo = new int[] { dict.getWordId("foo") };
+
+            assertEquals(2, loaded.getTransitions(fromFoo).getNumberTransitions());
+            assertEquals(2, loaded.getTransitions(fromFoo).getNumberTransitions());
+            assertEquals(1, loaded.getCacheMisses());
+            assertEquals(1, loaded.getCacheHits());
+
+            // Unknown histories are cached too
+            assertSame(Transitions.EMPTY, loaded.getTransitions(new int[] { dict.getWordId(".") }));
+            assertSame(Transitions.EMPTY, loaded.getTransitions(new int[] { dict.getWordId(".") }));
+            assertEquals(2, loaded.getCacheMisses());
+            assertEquals(2, loaded.getCacheHits());
+
+            // Only the most recently used are kept
+            loaded.getTransitions(new int[] { dict.getWordId("bar") });
+            assertEquals(2, loaded.getNumCachedHistories());
+            loaded.getTransitions(fromFoo);
+            assertEquals(4, loaded.getCacheMisses());
+
+            assertSame(Transitions.EMPTY, loaded.getTransitions(new int[] { 1, 2 }));
+        } finally {
+            loaded.close();
+        }
+    }
+
+    @Test
+    public void loadLazily_returnsNullIfThereIsNoDatabase() {
+        assertNull(sqliteImpl.loadLazily());
+    }
+
+    @Test
+    public void save_and_load_moreWordsThanFitInAChar() {
+        final int numWords = Character.MAX_VALUE + 1000;
+
+        final String[] words = new String[numWords];
+        for (int i = 0; i < numWords; i++) {
+            words[i] = String.format("w%06d", i);
+        }
+        final DictionaryLookup dict = new DictionaryLookupBinarySearch(words);
+
+        // Each word is followed by the next, and the last by the first
+        final HistoryTable<Transitions> wordHistoryToTransitions = new HistoryTable<Transitions>(2, numWords);
+        for (int i = 0; i < numWords; i++) {
+            final Transitions t = new Transitions();
+            t.recordTransition((i + 2) % numWords);
+
+            wordHistoryToTransitions.put(new int[] { i, (i + 1) % numWords }, t);
+        }
+
+        final Graph large = new Graph(dict, wordHistoryToTransitions);
+
+        rawImpl.save(large);
+        assertSameGraph(large, rawImpl.load());
+
+        rawMappedImpl.save(large);
+        assertSameGraph(large, rawMappedImpl.load());
+
+        sqliteImpl.save(large);
+        assertSameGraph(large, sqliteImpl.load());
+
+        final GraphSqlite lazily = sqliteImpl.loadLazily(100);
+
+        // Many pages of histories, in the same order, without disturbing the cache
+        final Iterator<int[]> histories = lazily.getWordHistoryIterator();
+        for (final int[] history : large.getWordHistories()) {
+            assertArrayEquals(history, histories.next());
+        }
+        assertFalse(histories.hasNext());
+        assertEquals(0, lazily.getNumCachedHistories());
+
+        assertSameGraph(large, lazily);
+        lazily.close();
+
+        sqlitePackedImpl.save(large);
+        assertSameGraph(large, sqlitePackedImpl.load());
+
+        rawCompressedImpl.save(large);
+        assertSameGraph(large, rawCompressedImpl.load());
+
+        // Each history follows on from the one before, which the compressed format takes advantage of
+        assertTrue(new File(filenameRawCompressed).length() < new File(filenameRaw).length());
+    }
+
+    @Test
+    public void save_and_load_countsTooLargeForAChar() {
+        final Transitions t = new Transitions();
+        for (int i = 0; i < 70000; i++) {
+            t.recordTransition((i % 3 == 0) ? 0 : 1);
+        }
+
+        final HistoryTable<Transitions> wordHistoryToTransitions = new HistoryTable<Transitions>(1);
+        wordHistoryToTransitions.put(new int[] { 1 }, t);
+
+        final Graph large = new Graph(graph.getDictionary(), wordHistoryToTransitions);
+
+        rawImpl.save(large);
+        assertSameGraph(large, rawImpl.load());
+
+        rawMappedImpl.save(large);
+        assertSameGraph(large, rawMappedImpl.load());
+
+        sqliteImpl.save(large);
+        assertSameGraph(large, sqliteImpl.load());
+
+        sqlitePackedImpl.save(large);
+        assertSameGraph(large, sqlitePackedImpl.load());
+
+        rawCompressedImpl.save(large);
+        assertSameGraph(large, rawCompressedImpl.load());
+    }
+
+    @Test
+    public void save_and_load_withScaledCounts() {
+        final Transitions t = new Transitions();
+        t.addTransition(1, 100000, 100010, false);
+        t.addTransition(0, 10, 100010, true);
+
+        final HistoryTable<Transitions> wordHistoryToTransitions = new HistoryTable<Transitions>(1);
+        wordHistoryToTransitions.put(new int[] { 1 }, t);
+        wordHistoryToTransitions.put(new int[] { 2 }, graph.getTransitions(new int[] { 2 }));
+
+        final Graph large = new Graph(graph.getDictionary(), wordHistoryToTransitions);
+
+        final HistoryTable<Transitions> scaledTransitions = new HistoryTable<Transitions>(1);
+        scaledTransitions.put(new int[] { 1 }, t.scaledToPrecision(8));
+        scaledTransitions.put(new int[] { 2 }, graph.getTransitions(new int[] { 2 }));
+        final Graph expected = new Graph(graph.getDictionary(), scaledTransitions);
+
+        rawImpl = new GraphPersistenceRaw(filenameRaw, 8);
+        rawImpl.save(large);
+        assertSameGraph(expected, rawImpl.load());
+
+        sqliteImpl = new GraphPersistenceSqlite(filenameSqlite, 8);
+        sqliteImpl.save(large);
+        assertSameGraph(expected, sqliteImpl.load());
+
+        sqlitePackedImpl = new GraphPersistenceSqlitePacked(filenameSqlitePacked, 8);
+        sqlitePackedImpl.save(large);
+        assertSameGraph(expected, sqlitePackedImpl.load());
+
+        final TransitionProbability mostLikely = expected.getTransitions(new int[] { 1 }).iterator().next();
+        assertEquals(255, mostLikely.getNumerator());
+        assertEquals(256, mostLikely.getDenominator());
+    }
+
+    @Test
+    public void hasScaledCounts_onlyWhenSavedScaled() {
+        assertFalse(rawImpl.hasScaledCounts());
+        assertFalse(sqliteImpl.hasScaledCounts());
+        assertFalse(sqlitePackedImpl.hasScaledCounts());
+
+        rawImpl.save(graph);
+        sqliteImpl.save(graph);
+        sqlitePackedImpl.save(graph);
+        rawMappedImpl.save(graph);
+        rawCompressedImpl.save(graph);
+        assertFalse(rawImpl.hasScaledCounts());
+        assertFalse(sqliteImpl.hasScaledCounts());
+        assertFalse(sqlitePackedImpl.hasScaledCounts());
+        assertFalse(rawMappedImpl.hasScaledCounts());
+        assertFalse(rawCompressedImpl.hasScaledCounts());
+
+        // Even if no count needed scaling, as that depends on the graph
+        new GraphPersistenceRaw(filenameRaw, 8).save(graph);
+        new GraphPersistenceSqlite(filenameSqlite, 8).save(graph);
+        new GraphPersistenceSqlitePacked(filenameSqlitePacked, 8).save(graph);
+        assertTrue(rawImpl.hasScaledCounts());
+        assertTrue(sqliteImpl.hasScaledCounts());
+        assertTrue(sqlitePackedImpl.hasScaledCounts());
+
+        // Quantized counts are approximations of the counts, at the same scale
+        new GraphPersistenceRaw(filenameRaw, new TransitionQuantizer(8, true)).save(graph);
+        assertFalse(rawImpl.hasScaledCounts());
+    }
+
+    @Test
+    public void save_and_load_quantized() {
+        rawImpl = new GraphPersistenceRaw(filenameRaw, new TransitionQuantizer(8, false));
+        rawImpl.save(graph);
+
+        // Counts this small fit, so are exact
+        final Graph loaded = rawImpl.load();
+        assertTrue(loaded instanceof GraphQuantized);
+        assertSameGraph(graph, loaded);
+    }
+
+    @Test
+    public void save_and_load_quantized_keepsTheCodes() {
+        final Transitions t = new Transitions();
+        t.addTransition(1, 100000, 100011, false);
+        t.addTransition(0, 10, 100011, false);
+        t.addTransition(3, 1, 100011, true);
+
+        final HistoryTable<Transitions> wordHistoryToTransitions = new HistoryTable<Transitions>(1);
+        wordHistoryToTransitions.put(new int[] { 1 }, t);
+        wordHistoryToTransitions.put(new int[] { 2 }, graph.getTransitions(new int[] { 2 }));
+
+        final Graph large = new Graph(graph.getDictionary(), wordHistoryToTransitions);
+
+        final TransitionQuantizer quantizer = new TransitionQuantizer(8, true);
+        final Graph expected = new GraphQuantized(large, quantizer);
+
+        rawImpl = new GraphPersistenceRaw(filenameRaw, quantizer);
+        rawImpl.save(large);
+        final Graph loaded = rawImpl.load();
+        assertSameGraph(expected, loaded);
+
+        // Saved again, the codes are kept rather than quantized again
+        rawImpl.save(loaded);
+        assertSameGraph(expected, rawImpl.load());
+
+        final Transitions fromFoo = loaded.getTransitions(new int[] { 1 });
+        assertEquals(3, fromFoo.getNumberTransitions());
+        assertEquals(1, fromFoo.get(2).getNumerator());
+        assertEquals(100000, fromFoo.get(0).getNumerator(), 100000 * 0.05);
+    }
+
+    @Test
+    public void load_returnsNullIfNotInRawFormat() {
+        rawMappedImpl.save(graph);
+
+        rawImpl = new GraphPersistenceRaw(filenameRawMapped);
+        assertNull(rawImpl.load());
+    }
+
+    @Test
+    public void load_compressed_returnsNullIfNotInCompressedRawFormat() {
+        rawImpl = new GraphPersistenceRaw(filenameRawCompressed);
+        rawImpl.save(graph);
+
+        assertNull(rawCompressedImpl.load());
+    }
+
+    @Test
+    public void load_mapped_returnsNullIfNotInRawV2Format() {
+        rawImpl = new GraphPersistenceRaw(filenameRawMapped);
+        rawImpl.save(graph);
+
+        assertNull(rawMappedImpl.load());
+    }
+
     private void assertSameGraph(final Graph g1, final Graph g2) {
         assertNotNull(g1);
         assertNotNull(g2);
 
         assertSameDictionary(g1.getDictionary(), g2.getDictionary());
 
-        final String[] g1WordHistories = g1.getWordHistories();
-        final String[] g2WordHistories = g2.getWordHistories();
+        assertEquals(g1.getOrder(), g2.getOrder());
+
+        final int[][] g1WordHistories = g1.getWordHistories();
+        final int[][] g2WordHistories = g2.getWordHistories();
 
         assertArrayEquals(g1WordHistories, g2WordHistories);
 
-        for (final String wordHistory : g1WordHistories) {
+        for (final int[] wordHistory : g1WordHistories) {
             final Transitions t1 = g1.getTransitions(wordHistory);
             final Transitions t2 = g2.getTransitions(wordHistory);
 
@@ -138,7 +486,7 @@ public class GraphPersistenceTest {
 
         assertEquals(d1.getNumUniqueWords(), d2.getNumUniqueWords());
 
-        for (char wordId = 0; wordId < numWords; wordId++) {
+        for (int wordId = 0; wordId < numWords; wordId++) {
             assertEquals(d1.getWord(wordId), d2.getWord(wordId));
 
             final String word = d1.getWord(wordId);
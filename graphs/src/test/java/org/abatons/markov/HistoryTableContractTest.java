@@ -0,0 +1,121 @@
+package org.abatons.markov;
+
+import static org.junit.Assert.*;
+
+import org.abatons.markov.graph.HistoryTable;
+import org.junit.Test;
+
+public class HistoryTableContractTest {
+  @Test
+  public void get_whenEmpty() {
+    final HistoryTable<String> table = new HistoryTable<String>(2);
+
+    assertEquals(0, table.size());
+    assertNull(table.get(new int[] { 0, 0 }));
+    assertNull(table.getAHistory());
+  }
+
+  @Test
+  public void put_thenGet() {
+    final HistoryTable<String> table = new HistoryTable<String>(2);
+
+    table.put(new int[] { 1, 2 }, "a");
+    table.put(new int[] { 2, 1 }, "b");
+
+    assertEquals("a", table.get(new int[] { 1, 2 }));
+    assertEquals("b", table.get(new int[] { 2, 1 }));
+    assertNull(table.get(new int[] { 1, 1 }));
+    assertEquals(2, table.size());
+  }
+
+  @Test
+  public void put_replacesTheValue() {
+    final HistoryTable<String> table = new HistoryTable<String>(1);
+
+    table.put(new int[] { 7 }, "a");
+    table.put(new int[] { 7 }, "b");
+
+    assertEquals("b", table.get(new int[] { 7 }));
+    assertEquals(1, table.size());
+  }
+
+  @Test
+  public void put_copiesTheHistory() {
+    final HistoryTable<String> table = new HistoryTable<String>(1);
+
+    final int[] history = new int[] { 7 };
+    table.put(history, "a");
+    history[0] = 8;
+
+    assertEquals("a", table.get(new int[] { 7 }));
+    assertNull(table.get(new int[] { 8 }));
+  }
+
+  @Test
+  public void get_historyOfTheWrongOrder() {
+    final HistoryTable<String> table = new HistoryTable<String>(2);
+
+    table.put(new int[] { 1, 2 }, "a");
+
+    assertNull(table.get(new int[] { 1 }));
+    assertNull(table.get(new int[] { 1, 2, 3 }));
+  }
+
+  @Test
+  public void getAndPut_withAnOffset() {
+    final HistoryTable<String> table = new HistoryTable<String>(2);
+
+    final int[] window = new int[] { 5, 6, 7 };
+    table.put(window, 1, "a");
+
+    assertEquals("a", table.get(new int[] { 6, 7 }));
+    assertEquals("a", table.get(new int[] { 0, 0, 6, 7 }, 2));
+    assertNull(table.get(window, 0));
+  }
+
+  @Test
+  public void manyHistories_growsTheTable() {
+    final HistoryTable<Integer> table = new HistoryTable<Integer>(3);
+
+    // Word IDs well beyond those that fit in a char
+    for (int i = 0; i < 10000; i++) {
+      table.put(new int[] { i, i * 31, Integer.MAX_VALUE - i }, i);
+    }
+
+    assertEquals(10000, table.size());
+    for (int i = 0; i < 10000; i++) {
+      assertEquals(Integer.valueOf(i), table.get(new int[] { i, i * 31, Integer.MAX_VALUE - i }));
+    }
+  }
+
+  @Test
+  public void getHistories_areSorted() {
+    final HistoryTable<String> table = new HistoryTable<String>(2);
+
+    table.put(new int[] { 70000, 1 }, "c");
+    table.put(new int[] { 2, 9 }, "b");
+    table.put(new int[] { 2, 3 }, "a");
+
+    assertArrayEquals(new int[][] { { 2, 3 }, { 2, 9 }, { 70000, 1 } }, table.getHistories());
+  }
+
+  @Test
+  public void slots_visitEveryHistory() {
+    final HistoryTable<String> table = new HistoryTable<String>(1);
+
+    table.put(new int[] { 3 }, "a");
+    table.put(new int[] { 4 }, "b");
+
+    int numVisited = 0;
+    for (int slot = 0; slot < table.getNumSlots(); slot++) {
+      final String value = table.getValueAt(slot);
+
+      if (value != null) {
+        assertEquals(value, table.get(table.getHistoryAt(slot)));
+        numVisited++;
+      }
+    }
+
+    assertEquals(2, numVisited);
+  }
+}
@@ -0,0 +1,135 @@
+package org.abatons.markov;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.abatons.markov.graph.TransitionQuantizer;
+import org.abatons.markov.graph.Transitions;
+import org.abatons.markov.graph.TransitionsBuilder;
+import org.junit.Test;
+
+public class TransitionQuantizerContractTest {
+  @Test
+  public void linear_exactWhenTheCountsFit() {
+    final Transitions exact = transitions(200, 50, 3, 1);
+
+    final Transitions dequantized = roundTrip(new TransitionQuantizer(8, false), exact);
+
+    assertEquals(exact.getNumberTransitions(), dequantized.getNumberTransitions());
+    for (int i = 0; i < exact.getNumberTransitions(); i++) {
+      assertEquals(exact.get(i).targetWordId, dequantized.get(i).targetWordId);
+      assertEquals(exact.get(i).getNumerator(), dequantized.get(i).getNumerator());
+      assertEquals(exact.get(i).getDenominator(), dequantized.get(i).getDenominator());
+    }
+  }
+
+  @Test
+  public void linear_keepsEveryTransitionAndTheirSequence() {
+    final Transitions exact = transitions(100000, 5000, 10, 1);
+
+    final byte[] codes = new byte[4];
+    assertEquals(105011, new TransitionQuantizer(8, false).quantize(exact, codes, 0));
+
+    assertEquals(255, codes[0] & 0xFF);
+    assertEquals(13, codes[1] & 0xFF);
+    assertEquals(1, codes[2]);
+    assertEquals(1, codes[3]);
+
+    final Transitions dequantized = roundTrip(new TransitionQuantizer(8, false), exact);
+    for (int i = 0; i < exact.getNumberTransitions(); i++) {
+      assertEquals(exact.get(i).targetWordId, dequantized.get(i).targetWordId);
+      assertTrue(dequantized.get(i).getNumerator() > 0);
+    }
+  }
+
+  @Test
+  public void log_keepsEveryCountWithinAFactorOfTheRootOfTheBase() {
+    final Transitions exact = transitions(1000000, 1000, 10, 1);
+
+    final Transitions dequantized = roundTrip(new TransitionQuantizer(8, true), exact);
+
+    final double rootOfBase = Math.sqrt(Math.pow(2, 31.0 / 254));
+    for (int i = 0; i < exact.getNumberTransitions(); i++) {
+      final double ratio = (double) dequantized.get(i).getNumerator() / exact.get(i).getNumerator();
+
+      // Within the quantization, then the rounding of the shares to whole counts
+      assertTrue("" + ratio, ratio <= rootOfBase * rootOfBase + 0.5 / exact.get(i).getNumerator());
+      assertTrue("" + ratio, ratio >= 1 / (rootOfBase * rootOfBase) - 0.5 / exact.get(i).getNumerator());
+    }
+  }
+
+  @Test
+  public void distributionWithinTheMaxError() {
+    final Random random = new Random(42);
+
+    for (int bits = 2; bits <= 8; bits++) {
+      for (final boolean logScale : new boolean[] { false, true }) {
+        final TransitionQuantizer quantizer = new TransitionQuantizer(bits, logScale);
+
+        for (int history = 0; history < 200; history++) {
+          final TransitionsBuilder builder = new TransitionsBuilder();
+          final int numTargets = 1 + random.nextInt(50);
+          for (int target = 0; target < numTargets; target++) {
+            // A long tail, as in real text
+            builder.recordTransitions(target, 1 + (long) Math.pow(random.nextDouble(), 4) * 100000);
+          }
+
+          final Transitions exact = builder.freeze();
+          final Transitions dequantized = roundTrip(quantizer, exact);
+
+          double totalVariation = 0;
+          for (int i = 0; i < exact.getNumberTransitions(); i++) {
+            totalVariation += Math.abs((double) exact.get(i).getNumerator() / exact.get(i).getDenominator()
+                - (double) dequantized.get(i).getNumerator() / dequantized.get(i).getDenominator());
+          }
+          totalVariation /= 2;
+
+          final double maxError = quantizer.getMaxError(exact.getNumberTransitions(),
+              exact.get(0).getDenominator());
+          assertTrue(quantizer + ": " + totalVariation + " > " + maxError, totalVariation <= maxError);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void noTransitionsGivesEmpty() {
+    final TransitionQuantizer quantizer = new TransitionQuantizer(8, true);
+
+    assertEquals(0, quantizer.quantize(new Transitions(), new byte[0], 0));
+    assertSame(Transitions.EMPTY, quantizer.dequantize(new int[0], new byte[0], 0, 0, 0));
+    assertEquals(0, quantizer.getMaxError(0, 0), 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsMoreThanAByte() {
+    new TransitionQuantizer(9, false);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsALogScaleOfOneBit() {
+    new TransitionQuantizer(1, true);
+  }
+
+  private static Transitions transitions(final int... inCounts) {
+    final TransitionsBuilder builder = new TransitionsBuilder();
+    for (int i = 0; i < inCounts.length; i++) {
+      builder.recordTransitions(i, inCounts[i]);
+    }
+
+    return builder.freeze();
+  }
+
+  private static Transitions roundTrip(final TransitionQuantizer inQuantizer, final Transitions inTransitions) {
+    final int[] targetWordIds = new int[inTransitions.getNumberTransitions()];
+    for (int i = 0; i < targetWordIds.length; i++) {
+      targetWordIds[i] = inTransitions.get(i).targetWordId;
+    }
+
+    final byte[] codes = new byte[targetWordIds.length];
+    final int total = inQuantizer.quantize(inTransitions, codes, 0);
+
+    return inQuantizer.dequantize(targetWordIds, codes, 0, targetWordIds.length, total);
+  }
+}
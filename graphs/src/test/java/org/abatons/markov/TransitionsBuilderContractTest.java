@@ -0,0 +1,174 @@
+package org.abatons.markov;
+
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+
+import org.abatons.markov.graph.TransitionProbability;
+import org.abatons.markov.graph.Transitions;
+import org.abatons.markov.graph.TransitionsBuilder;
+import org.junit.Test;
+
+public class TransitionsBuilderContractTest {
+  @Test
+  public void freeze_noTransitionsGivesEmptyIterator() {
+    final Transitions t = new TransitionsBuilder().freeze();
+
+    assertEquals(0, t.getNumberTransitions());
+    assertFalse(t.iterator().hasNext());
+  }
+
+  @Test
+  public void freeze_orderedByProbabilityThenById() {
+    final TransitionsBuilder b = new TransitionsBuilder();
+
+    b.recordTransition('a');
+    b.recordTransition('a');
+
+    b.recordTransition('b');
+    b.recordTransition('b');
+    b.recordTransition('b');
+
+    b.recordTransition('d');
+
+    b.recordTransition('c');
+
+    final Iterator<TransitionProbability> i = b.freeze().iterator();
+
+    final TransitionProbability tp1 = i.next();
+    assertEquals('b', tp1.targetWordId);
+    assertEquals((char) 3, tp1.getNumerator());
+    assertEquals((char) 7, tp1.getDenominator());
+
+    final TransitionProbability tp2 = i.next();
+    assertEquals('a', tp2.targetWordId);
+    assertEquals((char) 2, tp2.getNumerator());
+    assertEquals((char) 7, tp2.getDenominator());
+
+    assertEquals('c', i.next().targetWordId);
+    assertEquals('d', i.next().targetWordId);
+
+    assertFalse(i.hasNext());
+  }
+
+  @Test
+  public void freeze_sameAsRecordingIntoTransitions() {
+    final TransitionsBuilder b = new TransitionsBuilder();
+    final Transitions expected = new Transitions();
+
+    // Plenty of targets, to make the builder grow a few times
+    for (int i = 0; i < 500; i++) {
+      final char target = (char) ((i * 7919) % 97 + (i % 3) * 1000);
+
+      b.recordTransition(target);
+      expected.recordTransition(target);
+    }
+
+    final Transitions actual = b.freeze();
+
+    assertEquals(expected.getNumberTransitions(), actual.getNumberTransitions());
+    assertEquals(expected.getNumberTransitions(), b.getNumberTransitions());
+    assertEquals(500, b.getTotal());
+
+    final Iterator<TransitionProbability> it = actual.iterator();
+    for (final TransitionProbability tp : expected) {
+      final TransitionProbability other = it.next();
+
+      assertEquals(tp.targetWordId, other.targetWordId);
+      assertEquals(tp.getNumerator(), other.getNumerator());
+      assertEquals(tp.getDenominator(), other.getDenominator());
+    }
+  }
+
+  @Test
+  public void recordTransitions_addsTheCount() {
+    final TransitionsBuilder b = new TransitionsBuilder();
+
+    b.recordTransitions('a', 3);
+    b.recordTransition('a');
+    b.recordTransition((char) 0);
+
+    assertEquals(4, b.getCount('a'));
+    assertEquals(1, b.getCount((char) 0));
+    assertEquals(0, b.getCount('z'));
+    assertEquals(5, b.getTotal());
+    assertEquals(2, b.getNumberTransitions());
+  }
+
+  @Test
+  public void remapTargetWordIds_keepsTheCounts() {
+    final TransitionsBuilder b = new TransitionsBuilder();
+
+    b.recordTransitions((char) 0, 2);
+    b.recordTransitions((char) 1, 3);
+    b.recordTransitions((char) 2, 1);
+
+    b.remapTargetWordIds(new int[] { 2, 0, 1 });
+
+    assertEquals(2, b.getCount((char) 2));
+    assertEquals(3, b.getCount((char) 0));
+    assertEquals(1, b.getCount((char) 1));
+    assertEquals(6, b.getTotal());
+    assertEquals(3, b.getNumberTransitions());
+  }
+
+  @Test
+  public void freeze_scalesCountsTooLargeForAnInt() {
+    final TransitionsBuilder b = new TransitionsBuilder();
+
+    b.recordTransitions('a', 3L * Integer.MAX_VALUE);
+    b.recordTransitions('b', Integer.MAX_VALUE);
+    b.recordTransition('c');
+
+    assertEquals(4L * Integer.MAX_VALUE + 1, b.getTotal());
+
+    final Iterator<TransitionProbability> i = b.freeze().iterator();
+
+    final TransitionProbability tp1 = i.next();
+    final TransitionProbability tp2 = i.next();
+    final TransitionProbability tp3 = i.next();
+    assertFalse(i.hasNext());
+
+    assertEquals('a', tp1.targetWordId);
+    assertEquals('b', tp2.targetWordId);
+    assertEquals('c', tp3.targetWordId);
+
+    // The ratios are kept and the rarest isn't lost
+    assertEquals(3.0, (double) tp1.getNumerator() / tp2.getNumerator(), 0.0001);
+    assertEquals(1, tp3.getNumerator());
+    assertEquals(tp1.getNumerator() + tp2.getNumerator() + tp3.getNumerator(), tp1.getDenominator());
+    assertTrue(tp1.getDenominator() > 0);
+  }
+
+  @Test
+  public void keepMostFrequent_keepsTheHighestCountsThenLowestIds() {
+    final TransitionsBuilder b = new TransitionsBuilder();
+
+    b.recordTransitions('a', 2);
+    b.recordTransitions('b', 5);
+    b.recordTransitions('c', 2);
+    b.recordTransition('d');
+    b.recordTransitions('e', 2);
+
+    assertEquals(3, b.keepMostFrequent(2));
+    assertEquals(2, b.getNumberTransitions());
+    assertEquals(7, b.getTotal());
+
+    final Iterator<TransitionProbability> i = b.freeze().iterator();
+    assertEquals('b', i.next().targetWordId);
+    assertEquals('a', i.next().targetWordId);
+    assertFalse(i.hasNext());
+  }
+
+  @Test
+  public void keepMostFrequent_nothingForgottenWhenThereAreFewEnough() {
+    final TransitionsBuilder b = new TransitionsBuilder();
+
+    b.recordTransition('a');
+    b.recordTransition('b');
+
+    assertEquals(0, b.keepMostFrequent(2));
+    assertEquals(2, b.getNumberTransitions());
+    assertEquals(2, b.getTotal());
+  }
+}
@@ -202,5 +202,90 @@ public class TransitionsContractTest {
     
     assertFalse(it.hasNext());
   }
+
+  @Test
+  public void get_sameAsIterator() {
+    final Transitions t = new Transitions();
+    t.recordTransition('a');
+    t.recordTransition('b');
+    t.recordTransition('b');
+
+    final Iterator<TransitionProbability> it = t.iterator();
+    for (int i = 0; i < t.getNumberTransitions(); i++) {
+      assertSame(it.next(), t.get(i));
+    }
+  }
+
+  @Test
+  public void empty_hasNoTransitions() {
+    assertEquals(0, Transitions.EMPTY.getNumberTransitions());
+    assertFalse(Transitions.EMPTY.iterator().hasNext());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void empty_recordTransitionIsRejected() {
+    Transitions.EMPTY.recordTransition('a');
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void empty_addTransitionIsRejected() {
+    Transitions.EMPTY.addTransition('a', 1, 1, true);
+  }
+
+  @Test
+  public void recordTransition_moreTransitionsThanFitInAChar() {
+    final Transitions t = new Transitions();
+
+    for (int i = 0; i < 70000; i++) {
+      t.recordTransition((i % 3 == 0) ? 'b' : 'a');
+    }
+
+    final Iterator<TransitionProbability> it = t.iterator();
+
+    final TransitionProbability tp1 = it.next();
+    assertEquals('a', tp1.targetWordId);
+    assertEquals(46666, tp1.getNumerator());
+    assertEquals(70000, tp1.getDenominator());
+
+    final TransitionProbability tp2 = it.next();
+    assertEquals('b', tp2.targetWordId);
+    assertEquals(23334, tp2.getNumerator());
+    assertEquals(70000, tp2.getDenominator());
+  }
+
+  @Test
+  public void scaledToPrecision_unchangedIfTheCountsFit() {
+    final Transitions t = new Transitions();
+    t.addTransition('a', 255, 256, false);
+    t.addTransition('b', 1, 256, true);
+
+    assertSame(t, t.scaledToPrecision(8));
+  }
+
+  @Test
+  public void scaledToPrecision_keepsTheOrderAndTheRareTransitions() {
+    final Transitions t = new Transitions();
+    t.addTransition('a', 100000, 100101, false);
+    t.addTransition('b', 100, 100101, false);
+    t.addTransition('c', 1, 100101, true);
+
+    final Iterator<TransitionProbability> it = t.scaledToPrecision(8).iterator();
+
+    final TransitionProbability tp1 = it.next();
+    assertEquals('a', tp1.targetWordId);
+    assertEquals(255, tp1.getNumerator());
+    assertEquals(257, tp1.getDenominator());
+
+    final TransitionProbability tp2 = it.next();
+    assertEquals('b', tp2.targetWordId);
+    assertEquals(1, tp2.getNumerator());
+
+    final TransitionProbability tp3 = it.next();
+    assertEquals('c', tp3.targetWordId);
+    assertEquals(1, tp3.getNumerator());
+    assertEquals(257, tp3.getDenominator());
+
+    assertFalse(it.hasNext());
+  }
 }
 